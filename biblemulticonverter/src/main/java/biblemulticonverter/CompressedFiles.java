@@ -0,0 +1,372 @@
+package biblemulticonverter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import biblemulticonverter.data.Bible;
+import biblemulticonverter.format.BookSink;
+import biblemulticonverter.format.CompressionAwareFormat;
+import biblemulticonverter.format.ExportFormat;
+import biblemulticonverter.format.ImportFormat;
+import biblemulticonverter.format.StreamingExportFormat;
+import biblemulticonverter.format.StreamingImportFormat;
+
+/**
+ * Transparent support for compressed files, for all import and export formats.
+ * <p>
+ * Input files that are compressed with gzip or zlib (deflate) are detected by
+ * their content. Output files whose name ends with <code>.gz</code> are
+ * compressed with {@link ParallelGZIPOutputStream}. The number of compression
+ * threads is taken from the <code>biblemulticonverter.compressthreads</code>
+ * system property and defaults to the number of processors.
+ * <p>
+ * Formats that implement {@link CompressionAwareFormat} open their files with
+ * {@link #openInput(File)} and {@link #openOutput(File)}, which decompress and
+ * compress the streams directly. For all other formats, compressed input files
+ * are decompressed into a temporary directory before importing; the
+ * decompressed file has the name of the compressed file, without a
+ * <code>.gz</code>, <code>.zz</code> or <code>.z</code> extension. When the
+ * first export argument ends with <code>.gz</code>, their export is written
+ * into a temporary directory instead, using the argument without that
+ * extension, and every file written there is compressed into the original
+ * directory, with <code>.gz</code> appended to its name. Temporary directories
+ * are created in the directory given by the <code>java.io.tmpdir</code> system
+ * property.
+ * <p>
+ * Only the import file and the first export argument are handled; further
+ * export arguments (like mapping files, or output paths of formats that do not
+ * write next to their first argument) are passed to the format unchanged.
+ */
+public class CompressedFiles {
+
+	private static final String GZIP_SUFFIX = ".gz";
+	private static final String[] COMPRESSED_SUFFIXES = { ".gz", ".zz", ".z" };
+	private static final int DETECT_SIZE = 4096;
+
+	/**
+	 * Wrap an import format so that compressed input files are decompressed
+	 * first.
+	 */
+	public static ImportFormat wrap(ImportFormat format) {
+		if (format instanceof CompressionAwareFormat)
+			return format;
+		if (format instanceof StreamingImportFormat)
+			return new DecompressingStreamingImportFormat((StreamingImportFormat) format);
+		return new DecompressingImportFormat(format);
+	}
+
+	/**
+	 * Wrap an export format so that its output files are compressed if the
+	 * first export argument ends with <code>.gz</code>.
+	 */
+	public static ExportFormat wrap(ExportFormat format) {
+		if (format instanceof CompressionAwareFormat)
+			return format;
+		if (format instanceof StreamingExportFormat)
+			return new CompressingStreamingExportFormat((StreamingExportFormat) format);
+		return new CompressingExportFormat(format);
+	}
+
+	/**
+	 * Open a file for reading, decompressing it if it is compressed.
+	 */
+	public static InputStream openInput(File file) throws IOException {
+		InputStream in = openDecompressed(file);
+		return in != null ? in : new FileInputStream(file);
+	}
+
+	/**
+	 * Open a file for writing, compressing it if its name ends with
+	 * <code>.gz</code>.
+	 */
+	public static OutputStream openOutput(File file) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		if (!hasGzipSuffix(file.getName()))
+			return out;
+		try {
+			return new ParallelGZIPOutputStream(new BufferedOutputStream(out, 65536), getCompressThreads());
+		} catch (IOException | RuntimeException ex) {
+			out.close();
+			throw ex;
+		}
+	}
+
+	private static boolean hasGzipSuffix(String name) {
+		return name.length() > GZIP_SUFFIX.length() && name.endsWith(GZIP_SUFFIX);
+	}
+
+	private static int getCompressThreads() {
+		return Integer.getInteger("biblemulticonverter.compressthreads", Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Open the decompressed content of a file, or return <code>null</code> if
+	 * the file is not compressed.
+	 */
+	public static InputStream openDecompressed(File file) throws IOException {
+		if (!file.isFile())
+			return null;
+		BufferedInputStream in = new BufferedInputStream(new FileInputStream(file), 65536);
+		try {
+			in.mark(DETECT_SIZE);
+			byte[] header = new byte[DETECT_SIZE];
+			int length = 0, count;
+			while (length < header.length && (count = in.read(header, length, header.length - length)) != -1) {
+				length += count;
+			}
+			in.reset();
+			if (length >= 2 && (header[0] & 0xFF) == 0x1f && (header[1] & 0xFF) == 0x8b)
+				return new GZIPInputStream(in, 65536);
+			if (isZlib(header, length))
+				return new InflaterInputStream(in, new Inflater(), 65536);
+		} catch (IOException | RuntimeException ex) {
+			in.close();
+			throw ex;
+		}
+		in.close();
+		return null;
+	}
+
+	/**
+	 * Check for a zlib header with the usual window size and compression
+	 * levels, and whether the start of the data can be inflated, to avoid
+	 * mistaking text files starting with <code>x</code> for compressed ones.
+	 */
+	private static boolean isZlib(byte[] header, int length) {
+		if (length < 3 || (header[0] & 0xFF) != 0x78 || ((header[0] & 0xFF) * 256 + (header[1] & 0xFF)) % 31 != 0 || (header[1] & 0x20) != 0)
+			return false;
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(header, 0, length);
+			inflater.inflate(new byte[DETECT_SIZE]);
+			return !inflater.needsDictionary();
+		} catch (DataFormatException ex) {
+			return false;
+		} finally {
+			inflater.end();
+		}
+	}
+
+	private static File createTempDirectory() throws IOException {
+		return Files.createTempDirectory("bmc-").toFile();
+	}
+
+	private static void deleteRecursively(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				deleteRecursively(child);
+			}
+		}
+		if (!file.delete())
+			file.deleteOnExit();
+	}
+
+	private static class DecompressingImportFormat implements ImportFormat {
+
+		private final ImportFormat format;
+
+		private DecompressingImportFormat(ImportFormat format) {
+			this.format = format;
+		}
+
+		@Override
+		public Bible doImport(File inputFile) throws Exception {
+			File tempDirectory = decompress(inputFile);
+			try {
+				return format.doImport(tempDirectory == null ? inputFile : new File(tempDirectory, decompressedName(inputFile)));
+			} finally {
+				if (tempDirectory != null)
+					deleteRecursively(tempDirectory);
+			}
+		}
+
+		/**
+		 * Decompress the file into a new temporary directory, or return
+		 * <code>null</code> if it is not compressed.
+		 */
+		protected File decompress(File inputFile) throws IOException {
+			try (InputStream in = openDecompressed(inputFile)) {
+				if (in == null)
+					return null;
+				File tempDirectory = createTempDirectory();
+				try (OutputStream out = new BufferedOutputStream(new FileOutputStream(new File(tempDirectory, decompressedName(inputFile))))) {
+					byte[] buffer = new byte[65536];
+					int count;
+					while ((count = in.read(buffer)) != -1) {
+						out.write(buffer, 0, count);
+					}
+				} catch (IOException | RuntimeException ex) {
+					deleteRecursively(tempDirectory);
+					throw ex;
+				}
+				return tempDirectory;
+			}
+		}
+
+		protected static String decompressedName(File inputFile) {
+			String name = inputFile.getName();
+			for (String suffix : COMPRESSED_SUFFIXES) {
+				if (name.length() > suffix.length() && name.toLowerCase().endsWith(suffix))
+					return name.substring(0, name.length() - suffix.length());
+			}
+			return name;
+		}
+	}
+
+	private static class DecompressingStreamingImportFormat extends DecompressingImportFormat implements StreamingImportFormat {
+
+		private final StreamingImportFormat format;
+
+		private DecompressingStreamingImportFormat(StreamingImportFormat format) {
+			super(format);
+			this.format = format;
+		}
+
+		@Override
+		public void doImport(File inputFile, BookSink sink) throws Exception {
+			File tempDirectory = decompress(inputFile);
+			try {
+				format.doImport(tempDirectory == null ? inputFile : new File(tempDirectory, decompressedName(inputFile)), sink);
+			} finally {
+				if (tempDirectory != null)
+					deleteRecursively(tempDirectory);
+			}
+		}
+	}
+
+	private static class CompressingExportFormat implements ExportFormat {
+
+		private final ExportFormat format;
+
+		private CompressingExportFormat(ExportFormat format) {
+			this.format = format;
+		}
+
+		@Override
+		public void doExport(Bible bible, String... exportArgs) throws Exception {
+			if (!isCompressedOutput(exportArgs)) {
+				format.doExport(bible, exportArgs);
+				return;
+			}
+			File tempDirectory = createTempDirectory();
+			try {
+				format.doExport(bible, redirectArgs(exportArgs, tempDirectory));
+				compressFiles(tempDirectory, new File(exportArgs[0]).getAbsoluteFile().getParentFile());
+			} finally {
+				deleteRecursively(tempDirectory);
+			}
+		}
+
+		protected static boolean isCompressedOutput(String[] exportArgs) {
+			return exportArgs.length > 0 && hasGzipSuffix(exportArgs[0]);
+		}
+
+		protected static String[] redirectArgs(String[] exportArgs, File tempDirectory) {
+			String[] result = Arrays.copyOf(exportArgs, exportArgs.length);
+			String name = new File(exportArgs[0]).getName();
+			result[0] = new File(tempDirectory, name.substring(0, name.length() - GZIP_SUFFIX.length())).getPath();
+			return result;
+		}
+
+		/**
+		 * Compress all files in the source directory (recursively) into the
+		 * target directory.
+		 */
+		protected static void compressFiles(File sourceDirectory, File targetDirectory) throws IOException {
+			File[] files = sourceDirectory.listFiles();
+			if (files == null)
+				throw new IOException("Cannot list directory " + sourceDirectory);
+			Arrays.sort(files);
+			int threads = getCompressThreads();
+			for (File file : files) {
+				if (file.isDirectory()) {
+					compressFiles(file, new File(targetDirectory, file.getName()));
+					continue;
+				}
+				if (!targetDirectory.isDirectory() && !targetDirectory.mkdirs())
+					throw new IOException("Cannot create directory " + targetDirectory);
+				File targetFile = new File(targetDirectory, file.getName() + GZIP_SUFFIX);
+				try (InputStream in = new FileInputStream(file);
+						OutputStream out = new ParallelGZIPOutputStream(new BufferedOutputStream(new FileOutputStream(targetFile)), threads)) {
+					byte[] buffer = new byte[65536];
+					int count;
+					while ((count = in.read(buffer)) != -1) {
+						out.write(buffer, 0, count);
+					}
+				} catch (IOException | RuntimeException ex) {
+					// do not leave incomplete files behind
+					targetFile.delete();
+					throw ex;
+				}
+			}
+		}
+	}
+
+	private static class CompressingStreamingExportFormat extends CompressingExportFormat implements StreamingExportFormat {
+
+		private final StreamingExportFormat format;
+
+		private CompressingStreamingExportFormat(StreamingExportFormat format) {
+			super(format);
+			this.format = format;
+		}
+
+		@Override
+		public BookSink createBookSink(final String... exportArgs) throws Exception {
+			if (!isCompressedOutput(exportArgs))
+				return format.createBookSink(exportArgs);
+			final File tempDirectory = createTempDirectory();
+			final BookSink sink;
+			try {
+				sink = format.createBookSink(redirectArgs(exportArgs, tempDirectory));
+			} catch (Exception | Error ex) {
+				deleteRecursively(tempDirectory);
+				throw ex;
+			}
+			if (sink == null) {
+				deleteRecursively(tempDirectory);
+				return null;
+			}
+			return new BookSink() {
+				@Override
+				public void begin(String bibleName) throws Exception {
+					sink.begin(bibleName);
+				}
+
+				@Override
+				public void book(biblemulticonverter.data.Book book) throws Exception {
+					sink.book(book);
+				}
+
+				@Override
+				public void end() throws Exception {
+					try {
+						sink.end();
+						compressFiles(tempDirectory, new File(exportArgs[0]).getAbsoluteFile().getParentFile());
+					} finally {
+						deleteRecursively(tempDirectory);
+					}
+				}
+
+				@Override
+				public void abort(Exception cause) {
+					sink.abort(cause);
+					deleteRecursively(tempDirectory);
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package biblemulticonverter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Capture console output ({@link System#out} and {@link System#err}) per
+ * thread. Once capturing is used the first time, both console streams are
+ * replaced by streams that write to the current thread's capture target, if
+ * any, and to the original streams otherwise.
+ */
+public class ConsoleCapture {
+
+	private static final ThreadLocal<OutputStream> target = new ThreadLocal<OutputStream>();
+	private static boolean installed = false;
+
+	private static synchronized void install() {
+		if (installed)
+			return;
+		System.setOut(new PrintStream(new RoutingOutputStream(System.out), true));
+		System.setErr(new PrintStream(new RoutingOutputStream(System.err), true));
+		installed = true;
+	}
+
+	/**
+	 * Redirect console output of the current thread to the given stream.
+	 *
+	 * @return the previous capture target, to be passed to {@link #stop}
+	 */
+	public static OutputStream start(OutputStream stream) {
+		install();
+		OutputStream previous = target.get();
+		target.set(stream);
+		return previous;
+	}
+
+	/**
+	 * Stop capturing console output of the current thread, and restore the
+	 * previous capture target.
+	 */
+	public static void stop(OutputStream previous) {
+		if (previous == null)
+			target.remove();
+		else
+			target.set(previous);
+	}
+
+	private static class RoutingOutputStream extends OutputStream {
+		private final OutputStream fallback;
+
+		private RoutingOutputStream(OutputStream fallback) {
+			this.fallback = fallback;
+		}
+
+		private OutputStream getStream() {
+			OutputStream result = target.get();
+			return result == null ? fallback : result;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			getStream().write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			getStream().write(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			getStream().flush();
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package biblemulticonverter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import biblemulticonverter.data.Bible;
+import biblemulticonverter.data.Book;
+import biblemulticonverter.data.Chapter;
+import biblemulticonverter.format.ExportFormat;
+
+/**
+ * Run several exports of the same bible concurrently on a bounded thread pool.
+ * <p>
+ * Every export gets its own copy of the book/chapter/verse structure, so that
+ * exporters that rearrange or strip content do not affect each other. The
+ * (immutable) formatted texts are shared. Console output of every export is
+ * captured and printed after all exports finished, in the order the exports
+ * were given, followed by a timing summary.
+ */
+class ExportFanOut {
+
+	private final Bible bible;
+	private final List<Export> exports = new ArrayList<Export>();
+
+	ExportFanOut(Bible bible) {
+		this.bible = bible;
+	}
+
+	void addExport(String name, ExportFormat format, String[] args) {
+		exports.add(new Export(name, format, args));
+	}
+
+	void run(int threads) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, exports.size())));
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		try {
+			for (final Export export : exports) {
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						export.run(copyStructure(bible));
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException ex) {
+					// exceptions are recorded by the export itself
+					if (ex.getCause() instanceof Error)
+						throw (Error) ex.getCause();
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+		Exception firstFailure = null;
+		for (Export export : exports) {
+			if (export.output.size() > 0) {
+				System.out.println("--- " + export.name + " ---");
+				System.out.flush();
+				export.output.writeTo(System.out);
+			}
+		}
+		System.out.println("--- Export summary ---");
+		for (Export export : exports) {
+			if (export.failure == null) {
+				System.out.println(export.name + ": " + export.millis + " ms");
+			} else {
+				System.out.println(export.name + ": FAILED after " + export.millis + " ms: " + export.failure);
+				if (firstFailure == null)
+					firstFailure = export.failure;
+			}
+		}
+		if (firstFailure != null)
+			throw firstFailure;
+	}
+
+	private static Bible copyStructure(Bible bible) {
+		Bible result = new Bible(bible.getName());
+		for (Book book : bible.getBooks()) {
+			Book newBook = new Book(book.getAbbr(), book.getId(), book.getShortName(), book.getLongName());
+			for (Chapter chapter : book.getChapters()) {
+				Chapter newChapter = new Chapter();
+				newChapter.setProlog(chapter.getProlog());
+				newChapter.getVerses().addAll(chapter.getVerses());
+				newBook.getChapters().add(newChapter);
+			}
+			result.getBooks().add(newBook);
+		}
+		return result;
+	}
+
+	private static class Export {
+		private final String name;
+		private final ExportFormat format;
+		private final String[] args;
+		private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		private long millis;
+		private Exception failure;
+
+		private Export(String name, ExportFormat format, String[] args) {
+			this.name = name;
+			this.format = format;
+			this.args = args;
+		}
+
+		private void run(Bible copy) throws Exception {
+			long start = System.nanoTime();
+			OutputStream previousCapture = ConsoleCapture.start(output);
+			try {
+				format.doExport(copy, args);
+			} catch (Exception ex) {
+				failure = ex;
+				ex.printStackTrace();
+				throw ex;
+			} finally {
+				ConsoleCapture.stop(previousCapture);
+				millis = (System.nanoTime() - start) / 1000000;
+			}
+		}
+	}
+}
@@ -0,0 +1,288 @@
+package biblemulticonverter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import biblemulticonverter.data.Bible;
+import biblemulticonverter.data.Book;
+import biblemulticonverter.format.BinarySnapshot;
+import biblemulticonverter.format.BookSink;
+import biblemulticonverter.format.ImportFormat;
+import biblemulticonverter.format.StreamingImportFormat;
+
+/**
+ * On-disk cache of imported bibles, stored as {@link BinarySnapshot} files.
+ * The cache key is built from the content of the input file (or directory),
+ * the name of the import format and the version of the converter, so that
+ * changed inputs or converters never return stale entries. When the cache
+ * grows larger than its size limit, least recently used entries are evicted.
+ * <p>
+ * Problems with the cache (like a full disk or a bible that cannot be stored)
+ * are printed as warnings, but never fail the conversion. Entries whose index
+ * is damaged (like truncated files) are detected when they are read, deleted
+ * and imported again. Caches may be used by several threads and processes at
+ * the same time.
+ */
+public class ImportCache {
+
+	private static final String SUFFIX = ".bin";
+	private static final String STATISTICS_FILE = "statistics.properties";
+
+	/**
+	 * Create an import cache as configured by system properties, or return
+	 * <code>null</code> if no cache is configured.
+	 */
+	public static ImportCache fromSystemProperties() {
+		String directory = System.getProperty("biblemulticonverter.importcache");
+		if (directory == null || directory.isEmpty())
+			return null;
+		long maxSize = Long.getLong("biblemulticonverter.importcache.maxsize", 1024) * 1024 * 1024;
+		return new ImportCache(new File(directory), maxSize);
+	}
+
+	private final File directory;
+	private final long maxSize;
+	private final AtomicInteger hits = new AtomicInteger(), misses = new AtomicInteger(), evictions = new AtomicInteger();
+
+	public ImportCache(File directory, long maxSize) {
+		this.directory = directory;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Wrap an import format so that its results are read from and stored into
+	 * this cache. The format class determines the converter version of cached
+	 * results; it may differ from the class of the format if that is a wrapper.
+	 */
+	public StreamingImportFormat wrap(String formatName, Class<?> formatClass, ImportFormat format) {
+		return new CachingImportFormat(formatName, formatClass, format);
+	}
+
+	public int getHitCount() {
+		return hits.get();
+	}
+
+	public int getMissCount() {
+		return misses.get();
+	}
+
+	public int getEvictionCount() {
+		return evictions.get();
+	}
+
+	public String getSummary() {
+		return "Import cache: " + hits.get() + " hits, " + misses.get() + " misses, " + evictions.get() + " evictions";
+	}
+
+	/**
+	 * Read a bible from the cache, or return <code>null</code> if there is no
+	 * entry for the key. Damaged entries are deleted and count as misses, so
+	 * that the input file is imported again.
+	 */
+	private Bible lookup(String key) {
+		File file = new File(directory, key + SUFFIX);
+		if (!file.isFile()) {
+			misses.incrementAndGet();
+			return null;
+		}
+		Bible bible;
+		try {
+			bible = new BinarySnapshot().doImport(file);
+		} catch (Exception ex) {
+			System.out.println("WARNING: Ignoring damaged import cache entry: " + ex);
+			file.delete();
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		file.setLastModified(System.currentTimeMillis());
+		return bible;
+	}
+
+	/**
+	 * Store a bible into the cache. Failures are printed, as the bible can
+	 * still be converted without the cache.
+	 */
+	private void store(String key, Bible bible) {
+		try {
+			storeEntry(key, bible);
+		} catch (Exception ex) {
+			System.out.println("WARNING: Cannot store import cache entry: " + ex);
+		}
+	}
+
+	private void storeEntry(String key, Bible bible) throws Exception {
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Cannot create cache directory " + directory);
+		File tempFile = File.createTempFile(key, ".tmp", directory);
+		try {
+			new BinarySnapshot().doExport(bible, tempFile.getPath());
+			File file = new File(directory, key + SUFFIX);
+			if (!tempFile.renameTo(file)) {
+				file.delete();
+				if (!tempFile.renameTo(file))
+					throw new IOException("Cannot store cache entry " + file);
+			}
+		} finally {
+			tempFile.delete();
+		}
+		evict();
+	}
+
+	private void evict() {
+		File[] entries = directory.listFiles();
+		if (entries == null)
+			return;
+		List<File> files = new ArrayList<File>();
+		long totalSize = 0;
+		for (File file : entries) {
+			if (file.isFile() && file.getName().endsWith(SUFFIX)) {
+				files.add(file);
+				totalSize += file.length();
+			}
+		}
+		Collections.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				return Long.compare(f1.lastModified(), f2.lastModified());
+			}
+		});
+		for (int i = 0; totalSize > maxSize && i < files.size(); i++) {
+			long size = files.get(i).length();
+			if (files.get(i).delete()) {
+				totalSize -= size;
+				evictions.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Add the statistics of this run to the statistics stored in the cache
+	 * directory. The file is locked while updating it, so that the statistics
+	 * of conversions running at the same time are merged. Failures are
+	 * printed.
+	 */
+	public void updateStatistics() {
+		if (!directory.isDirectory())
+			return;
+		// file locks are held by the whole JVM, so threads have to wait here
+		synchronized (ImportCache.class) {
+			try {
+				updateStatisticsFile();
+			} catch (IOException ex) {
+				System.out.println("WARNING: Cannot update import cache statistics: " + ex);
+			}
+		}
+	}
+
+	private void updateStatisticsFile() throws IOException {
+		File file = new File(directory, STATISTICS_FILE);
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			FileLock lock = raf.getChannel().lock();
+			try {
+				byte[] data = new byte[(int) raf.length()];
+				raf.readFully(data);
+				Properties stats = new Properties();
+				stats.load(new ByteArrayInputStream(data));
+				addStatistic(stats, "hits", hits.get());
+				addStatistic(stats, "misses", misses.get());
+				addStatistic(stats, "evictions", evictions.get());
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				stats.store(out, "BibleMultiConverter import cache statistics");
+				raf.seek(0);
+				raf.write(out.toByteArray());
+				raf.setLength(out.size());
+			} finally {
+				lock.release();
+			}
+		}
+	}
+
+	private static void addStatistic(Properties stats, String name, int value) {
+		stats.setProperty(name, String.valueOf(Long.parseLong(stats.getProperty(name, "0")) + value));
+	}
+
+	private static String computeKey(String formatName, Class<?> formatClass, File inputFile) throws Exception {
+		MessageDigest digest = MessageDigest.getInstance("SHA-256");
+		updateDigest(digest, inputFile, "");
+		digest.update(("\0" + formatName + "\0" + Main.getConverterVersion(formatClass, BinarySnapshot.class)).getBytes(StandardCharsets.UTF_8));
+		StringBuilder sb = new StringBuilder();
+		for (byte b : digest.digest()) {
+			sb.append(String.format("%02x", b & 0xFF));
+		}
+		return sb.toString();
+	}
+
+	private static void updateDigest(MessageDigest digest, File file, String relativeName) throws IOException {
+		if (file.isDirectory()) {
+			String[] names = file.list();
+			if (names == null)
+				throw new IOException("Cannot list directory " + file);
+			Arrays.sort(names);
+			for (String name : names) {
+				updateDigest(digest, new File(file, name), relativeName + "/" + name);
+			}
+		} else {
+			digest.update((relativeName + "\0" + file.length() + "\0").getBytes(StandardCharsets.UTF_8));
+			byte[] buffer = new byte[65536];
+			try (InputStream in = new FileInputStream(file)) {
+				int len;
+				while ((len = in.read(buffer)) != -1) {
+					digest.update(buffer, 0, len);
+				}
+			}
+		}
+	}
+
+	private class CachingImportFormat implements StreamingImportFormat {
+
+		private final String formatName;
+		private final Class<?> formatClass;
+		private final ImportFormat format;
+
+		private CachingImportFormat(String formatName, Class<?> formatClass, ImportFormat format) {
+			this.formatName = formatName;
+			this.formatClass = formatClass;
+			this.format = format;
+		}
+
+		@Override
+		public Bible doImport(File inputFile) throws Exception {
+			String key = computeKey(formatName, formatClass, inputFile);
+			Bible bible = lookup(key);
+			if (bible == null) {
+				bible = format.doImport(inputFile);
+				store(key, bible);
+			}
+			return bible;
+		}
+
+		@Override
+		public void doImport(File inputFile, BookSink sink) throws Exception {
+			// cached entries are read completely (but their verses lazily)
+			// before passing books to the sink, so that damaged entries can
+			// still fall back to the import format
+			Bible bible = doImport(inputFile);
+			sink.begin(bible.getName());
+			for (Book book : bible.getBooks()) {
+				sink.book(book);
+			}
+			sink.end();
+		}
+	}
+}
@@ -1,19 +1,24 @@
 package biblemulticonverter;
 
 import java.io.File;
+import java.io.IOException;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.ServiceLoader;
 
 import biblemulticonverter.ModuleRegistry.Module;
 import biblemulticonverter.data.Bible;
+import biblemulticonverter.data.DeduplicationPool;
+import biblemulticonverter.format.BookSink;
 import biblemulticonverter.format.ExportFormat;
 import biblemulticonverter.format.ImportFormat;
 import biblemulticonverter.format.RoundtripFormat;
+import biblemulticonverter.format.StreamingExportFormat;
+import biblemulticonverter.format.StreamingImportFormat;
 import biblemulticonverter.tools.Tool;
 
 /**
@@ -28,7 +33,7 @@ public class Main {
 	public static void discoverModules() {
 		if (importFormats.size() > 0)
 			return;
-		for (ModuleRegistry registry : ServiceLoader.load(ModuleRegistry.class)) {
+		for (ModuleRegistry registry : ModuleIndex.loadRegistries(Thread.currentThread().getContextClassLoader())) {
 			for (Module<ExportFormat> m : registry.getExportFormats()) {
 				exportFormats.put(m.getName(), m);
 			}
@@ -36,8 +41,8 @@ public class Main {
 				importFormats.put(m.getName(), m);
 			}
 			for (Module<RoundtripFormat> m : registry.getRoundtripFormats()) {
-				exportFormats.put(m.getName(), new Module<ExportFormat>(m.getName(), m.getShortHelp(), m.getLongHelp(), m.getImplementationClass()));
-				importFormats.put(m.getName(), new Module<ImportFormat>(m.getName(), m.getShortHelp(), m.getLongHelp(), m.getImplementationClass()));
+				exportFormats.put(m.getName(), m.withType(ExportFormat.class));
+				importFormats.put(m.getName(), m.withType(ImportFormat.class));
 			}
 			for (Module<Tool> m : registry.getTools()) {
 				tools.put(m.getName(), m);
@@ -54,23 +59,139 @@ public class Main {
 				return;
 			}
 		}
-		if (args.length > 2) {
-			Module<ImportFormat> importModule = importFormats.get(args[0]);
-			Module<ExportFormat> exportModule = exportFormats.get(args[2]);
-			if (importModule != null && exportModule != null) {
-				Bible bible = importModule.getImplementationClass().newInstance().doImport(new File(args[1]));
-				exportModule.getImplementationClass().newInstance().doExport(bible, Arrays.copyOfRange(args, 3, args.length));
-				return;
-			}
-		}
+		if (args.length > 2 && runConversion(args))
+			return;
 		System.out.println("Usage:");
-		System.out.println("java -jar BibleMultiConverter.jar <ImportFormat> <ImportFile> <ExportFormat> [<ExportArgs>...]");
+		System.out.println("java -jar BibleMultiConverter.jar <ImportFormat> <ImportFile> <ExportFormat> [<ExportArgs>...] [-- <ExportFormat> [<ExportArgs>...]]...");
 		System.out.println("java -jar BibleMultiConverter.jar <Tool> [<ToolArgs>...]");
+		System.out.println();
+		System.out.println("Every -- starts another export of the same import; therefore, -- cannot be used as an export argument.");
+		System.out.println("Compressed import files (gzip or zlib) are decompressed, and exports whose first export argument ends");
+		System.out.println("with .gz are compressed. This only applies to the import file and the first export argument; other");
+		System.out.println("import or export arguments (like mapping files or extra output paths) are used as they are.");
 		printModules("import formats", importFormats);
 		printModules("export formats", exportFormats);
 		printModules("tools", tools);
 	}
 
+	/**
+	 * Run a conversion as given on the command line, i. e. an import format,
+	 * an import file and one or more export formats with their arguments,
+	 * separated by <code>--</code>.
+	 *
+	 * @return whether the import and export formats were found
+	 */
+	public static boolean runConversion(String... args) throws Exception {
+		if (args.length < 3)
+			return false;
+		Module<ImportFormat> importModule = importFormats.get(args[0]);
+		List<Module<ExportFormat>> exportModules = new ArrayList<Module<ExportFormat>>();
+		List<String[]> exportArgs = new ArrayList<String[]>();
+		for (String[] export : splitExports(args)) {
+			exportModules.add(export.length > 0 ? exportFormats.get(export[0]) : null);
+			exportArgs.add(Arrays.copyOfRange(export, Math.min(1, export.length), export.length));
+		}
+		if (importModule != null && !exportModules.contains(null)) {
+			ImportFormat importFormat = importModule.getImplementationClass().newInstance();
+			importFormat = CompressedFiles.wrap(importFormat);
+			ImportCache cache = ImportCache.fromSystemProperties();
+			if (cache != null)
+				importFormat = cache.wrap(args[0], importModule.getImplementationClass(), importFormat);
+			DeduplicationPool pool = new DeduplicationPool();
+			try {
+				if (exportModules.size() == 1) {
+					convert(importFormat, new File(args[1]), CompressedFiles.wrap(exportModules.get(0).getImplementationClass().newInstance()), exportArgs.get(0), pool);
+				} else {
+					ExportFanOut fanOut = new ExportFanOut(importBible(importFormat, new File(args[1]), pool));
+					for (int i = 0; i < exportModules.size(); i++) {
+						fanOut.addExport(exportModules.get(i).getName(), CompressedFiles.wrap(exportModules.get(i).getImplementationClass().newInstance()), exportArgs.get(i));
+					}
+					fanOut.run(Integer.getInteger("biblemulticonverter.exportthreads", Runtime.getRuntime().availableProcessors()));
+				}
+			} finally {
+				if (cache != null) {
+					cache.updateStatistics();
+					if (Boolean.getBoolean("biblemulticonverter.verbose"))
+						System.out.println(cache.getSummary());
+				}
+				if (Boolean.getBoolean("biblemulticonverter.verbose") && pool.getLookupCount() > 0)
+					System.out.println(pool.getSummary());
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Split the export part of conversion arguments (everything after the
+	 * import format and import file) at every <code>--</code>. Every returned
+	 * array contains an export format followed by its arguments, or is empty
+	 * if no export format was given. A literal <code>--</code> is always a
+	 * separator and never passed to an export format.
+	 */
+	public static List<String[]> splitExports(String[] args) {
+		List<String[]> result = new ArrayList<String[]>();
+		int start = 2;
+		for (int i = 3; i <= args.length; i++) {
+			if (i == args.length || args[i].equals("--")) {
+				result.add(Arrays.copyOfRange(args, Math.min(start, i), i));
+				start = i + 1;
+			}
+		}
+		return result;
+	}
+
+	private static void convert(ImportFormat importFormat, File inputFile, ExportFormat exportFormat, String[] exportArgs, DeduplicationPool pool) throws Exception {
+		if (importFormat instanceof StreamingImportFormat && exportFormat instanceof StreamingExportFormat) {
+			BookSink sink = ((StreamingExportFormat) exportFormat).createBookSink(exportArgs);
+			if (sink != null) {
+				DeduplicationPool previousPool = DeduplicationPool.setImportPool(pool);
+				try {
+					((StreamingImportFormat) importFormat).doImport(inputFile, sink);
+				} catch (Exception ex) {
+					sink.abort(ex);
+					throw ex;
+				} finally {
+					DeduplicationPool.setImportPool(previousPool);
+				}
+				return;
+			}
+		}
+		exportFormat.doExport(importBible(importFormat, inputFile, pool), exportArgs);
+	}
+
+	private static Bible importBible(ImportFormat importFormat, File inputFile, DeduplicationPool pool) throws Exception {
+		Bible bible;
+		DeduplicationPool previousPool = DeduplicationPool.setImportPool(pool);
+		try {
+			bible = importFormat.doImport(inputFile);
+		} finally {
+			DeduplicationPool.setImportPool(previousPool);
+		}
+		// importers that pass the import pool to FormattedText#finished have
+		// already deduplicated their texts, which are skipped here
+		bible.deduplicate(pool);
+		return bible;
+	}
+
+	/**
+	 * Return a version string for the given converter classes, which also
+	 * changes when a snapshot build of any of these classes is rebuilt. Used to
+	 * detect files that were written by a different version of a format.
+	 */
+	public static String getConverterVersion(Class<?>... classes) throws IOException {
+		String version = Main.class.getPackage().getImplementationVersion();
+		// snapshot builds keep their version, so also consider when the
+		// classes were built
+		long lastModified = 0;
+		for (Class<?> clazz : classes) {
+			URL url = clazz.getResource(clazz.getSimpleName() + ".class");
+			if (url != null)
+				lastModified = Math.max(lastModified, url.openConnection().getLastModified());
+		}
+		return version + "/" + lastModified;
+	}
+
 	private static <T> void printModules(String types, Map<String, Module<T>> moduleMap) {
 		System.out.println();
 		System.out.println("Supported " + types + ":");
@@ -39,6 +39,7 @@ public class MainModuleRegistry extends ModuleRegistry {
 		List<Module<RoundtripFormat>> result = new ArrayList<ModuleRegistry.Module<RoundtripFormat>>();
 		result.add(new Module<RoundtripFormat>("Compact", "A text-format that is small and well-compressible.", Compact.HELP_TEXT, Compact.class));
 		result.add(new Module<RoundtripFormat>("Diffable", "A VPL-like text-format that can be diffed easily.", Diffable.HELP_TEXT, Diffable.class));
+		result.add(new Module<RoundtripFormat>("BinarySnapshot", "A binary format that can be reopened quickly.", BinarySnapshot.HELP_TEXT, BinarySnapshot.class));
 		result.add(new Module<RoundtripFormat>("RoundtripHTML", "Roundtrip HTML Export", RoundtripHTML.HELP_TEXT, RoundtripHTML.class));
 		result.add(new Module<RoundtripFormat>("RoundtripXML", "Roundtrip XML Export", RoundtripXML.HELP_TEXT, RoundtripXML.class));
 		result.add(new Module<RoundtripFormat>("ZefaniaXML", "Zefania XML - well known bible format.", ZefaniaXML.HELP_TEXT, ZefaniaXML.class));
@@ -59,6 +60,8 @@ public class MainModuleRegistry extends ModuleRegistry {
 		result.add(new Module<Tool>("MobiPocketTOCBuilder", "Create MobiPocket TOC file from multiple bibles", MobiPocketTOCBuilder.HELP_TEXT, MobiPocketTOCBuilder.class));
 		result.add(new Module<Tool>("ESwordRTFPostprocessor", "Postprocess RTF for exporting to E-Sword", ESwordRTFPostprocessor.HELP_TEXT, ESwordRTFPostprocessor.class));
 		result.add(new Module<Tool>("ValidateXML", "Validate one or more XML files according to a XSD schema.", ValidateXML.HELP_TEXT, ValidateXML.class));
+		result.add(new Module<Tool>("BatchConvert", "Run conversion jobs from a manifest file in parallel.", BatchConvert.HELP_TEXT, BatchConvert.class));
+		result.add(new Module<Tool>("ConversionServer", "Run a local HTTP server that runs conversions.", ConversionServer.HELP_TEXT, ConversionServer.class));
 		return result;
 	}
 }
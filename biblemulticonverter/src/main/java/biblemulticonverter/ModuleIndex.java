@@ -0,0 +1,233 @@
+package biblemulticonverter;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import biblemulticonverter.ModuleRegistry.Module;
+import biblemulticonverter.format.ExportFormat;
+import biblemulticonverter.format.ImportFormat;
+import biblemulticonverter.format.RoundtripFormat;
+import biblemulticonverter.tools.Tool;
+
+/**
+ * Index of the modules of a {@link ModuleRegistry}, generated at build time.
+ * When an index is present for a registry, the registry is not instantiated,
+ * and the implementation classes of its modules are only loaded when used.
+ * <p>
+ * The index of a registry is stored in
+ * <code>META-INF/biblemulticonverter/&lt;registry class name&gt;.idx</code>.
+ * Every line describes one module, as tab-separated fields: type, name,
+ * implementation class name, short help and the lines of the long help.
+ * <p>
+ * Indexes that name classes which are not available (for example, when a
+ * stale index was left in the class output directory of an IDE) are ignored
+ * with a warning, and their registry is instantiated instead.
+ */
+public class ModuleIndex {
+
+	private static final String SERVICES_RESOURCE = "META-INF/services/" + ModuleRegistry.class.getName();
+	private static final String INDEX_PREFIX = "META-INF/biblemulticonverter/";
+	private static final String INDEX_SUFFIX = ".idx";
+
+	/**
+	 * Generate the module indexes for all registries listed in the service
+	 * file of the given class output directory.
+	 */
+	public static void main(String[] args) throws Exception {
+		File outputDirectory = new File(args[0]);
+		File servicesFile = new File(outputDirectory, SERVICES_RESOURCE);
+		Set<String> registryClassNames = new LinkedHashSet<String>();
+		try (InputStream in = new FileInputStream(servicesFile)) {
+			readRegistryClassNames(in, registryClassNames);
+		}
+		for (String registryClassName : registryClassNames) {
+			ModuleRegistry registry = Class.forName(registryClassName).asSubclass(ModuleRegistry.class).newInstance();
+			File indexFile = new File(outputDirectory, INDEX_PREFIX + registryClassName + INDEX_SUFFIX);
+			indexFile.getParentFile().mkdirs();
+			try (Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(indexFile), StandardCharsets.UTF_8))) {
+				writeModules(w, "import", registry.getImportFormats());
+				writeModules(w, "export", registry.getExportFormats());
+				writeModules(w, "roundtrip", registry.getRoundtripFormats());
+				writeModules(w, "tool", registry.getTools());
+			}
+		}
+	}
+
+	private static void writeModules(Writer w, String type, Collection<? extends Module<?>> modules) throws IOException {
+		for (Module<?> module : modules) {
+			w.write(type + "\t" + escape(module.getName()) + "\t" + module.getImplementationClassName() + "\t" + escape(module.getShortHelp()));
+			for (String line : module.getLongHelp()) {
+				w.write("\t" + escape(line));
+			}
+			w.write("\n");
+		}
+	}
+
+	/**
+	 * Return all module registries registered as service, using the index for
+	 * registries that have one.
+	 */
+	public static List<ModuleRegistry> loadRegistries(ClassLoader classLoader) {
+		try {
+			Set<String> registryClassNames = new LinkedHashSet<String>();
+			Enumeration<URL> services = classLoader.getResources(SERVICES_RESOURCE);
+			while (services.hasMoreElements()) {
+				try (InputStream in = services.nextElement().openStream()) {
+					readRegistryClassNames(in, registryClassNames);
+				}
+			}
+			List<ModuleRegistry> result = new ArrayList<ModuleRegistry>();
+			for (String registryClassName : registryClassNames) {
+				URL index = classLoader.getResource(INDEX_PREFIX + registryClassName + INDEX_SUFFIX);
+				if (index != null) {
+					ModuleRegistry registry = readIndex(index, classLoader);
+					String missingClassName = findMissingClass(registry, classLoader);
+					if (missingClassName == null) {
+						result.add(registry);
+						continue;
+					}
+					System.out.println("WARNING: Ignoring outdated module index " + index + ", class " + missingClassName + " not found");
+				}
+				result.add(Class.forName(registryClassName, true, classLoader).asSubclass(ModuleRegistry.class).newInstance());
+			}
+			return result;
+		} catch (IOException | ReflectiveOperationException ex) {
+			throw new RuntimeException("Error while discovering modules", ex);
+		}
+	}
+
+	/**
+	 * Return the name of the first implementation class of an indexed registry
+	 * that is not available, or <code>null</code>. Only the class files are
+	 * looked up, so that classes are still loaded when used.
+	 */
+	private static String findMissingClass(ModuleRegistry registry, ClassLoader classLoader) {
+		List<Module<?>> modules = new ArrayList<Module<?>>();
+		modules.addAll(registry.getImportFormats());
+		modules.addAll(registry.getExportFormats());
+		modules.addAll(registry.getRoundtripFormats());
+		modules.addAll(registry.getTools());
+		for (Module<?> module : modules) {
+			String className = module.getImplementationClassName();
+			if (classLoader.getResource(className.replace('.', '/') + ".class") == null)
+				return className;
+		}
+		return null;
+	}
+
+	private static void readRegistryClassNames(InputStream in, Set<String> registryClassNames) throws IOException {
+		BufferedReader br = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+		String line;
+		while ((line = br.readLine()) != null) {
+			int pos = line.indexOf('#');
+			if (pos != -1)
+				line = line.substring(0, pos);
+			line = line.trim();
+			if (!line.isEmpty())
+				registryClassNames.add(line);
+		}
+	}
+
+	private static ModuleRegistry readIndex(URL index, ClassLoader classLoader) throws IOException {
+		IndexedModuleRegistry result = new IndexedModuleRegistry();
+		try (BufferedReader br = new BufferedReader(new InputStreamReader(index.openStream(), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = br.readLine()) != null) {
+				if (line.isEmpty())
+					continue;
+				String[] fields = line.split("\t", -1);
+				if (fields.length < 4)
+					throw new IOException("Invalid module index line in " + index + ": " + line);
+				String name = unescape(fields[1]);
+				String shortHelp = unescape(fields[3]);
+				String[] longHelp = new String[fields.length - 4];
+				for (int i = 0; i < longHelp.length; i++) {
+					longHelp[i] = unescape(fields[i + 4]);
+				}
+				switch (fields[0]) {
+				case "import":
+					result.importFormats.add(new Module<ImportFormat>(name, shortHelp, longHelp, ImportFormat.class, fields[2], classLoader));
+					break;
+				case "export":
+					result.exportFormats.add(new Module<ExportFormat>(name, shortHelp, longHelp, ExportFormat.class, fields[2], classLoader));
+					break;
+				case "roundtrip":
+					result.roundtripFormats.add(new Module<RoundtripFormat>(name, shortHelp, longHelp, RoundtripFormat.class, fields[2], classLoader));
+					break;
+				case "tool":
+					result.tools.add(new Module<Tool>(name, shortHelp, longHelp, Tool.class, fields[2], classLoader));
+					break;
+				default:
+					throw new IOException("Invalid module type in " + index + ": " + fields[0]);
+				}
+			}
+		}
+		return result;
+	}
+
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n");
+	}
+
+	private static String unescape(String value) {
+		if (value.indexOf('\\') == -1)
+			return value;
+		StringBuilder sb = new StringBuilder(value.length());
+		for (int i = 0; i < value.length(); i++) {
+			char ch = value.charAt(i);
+			if (ch == '\\' && i + 1 < value.length()) {
+				i++;
+				ch = value.charAt(i);
+				if (ch == 't')
+					ch = '\t';
+				else if (ch == 'n')
+					ch = '\n';
+			}
+			sb.append(ch);
+		}
+		return sb.toString();
+	}
+
+	private static class IndexedModuleRegistry extends ModuleRegistry {
+		private final List<Module<ImportFormat>> importFormats = new ArrayList<Module<ImportFormat>>();
+		private final List<Module<ExportFormat>> exportFormats = new ArrayList<Module<ExportFormat>>();
+		private final List<Module<RoundtripFormat>> roundtripFormats = new ArrayList<Module<RoundtripFormat>>();
+		private final List<Module<Tool>> tools = new ArrayList<Module<Tool>>();
+
+		@Override
+		public Collection<Module<ImportFormat>> getImportFormats() {
+			return importFormats;
+		}
+
+		@Override
+		public Collection<Module<ExportFormat>> getExportFormats() {
+			return exportFormats;
+		}
+
+		@Override
+		public Collection<Module<RoundtripFormat>> getRoundtripFormats() {
+			return roundtripFormats;
+		}
+
+		@Override
+		public Collection<Module<Tool>> getTools() {
+			return tools;
+		}
+	}
+}
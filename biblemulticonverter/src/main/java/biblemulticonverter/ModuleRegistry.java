@@ -24,13 +24,33 @@ public abstract class ModuleRegistry {
 		private final String name;
 		private final String shortHelp;
 		private final String[] longHelp;
-		private final Class<? extends T> implementationClass;
+		private Class<? extends T> implementationClass;
+		private final Class<T> type;
+		private final String implementationClassName;
+		private final ClassLoader classLoader;
 
 		public Module(String name, String shortHelp, String[] longHelp, Class<? extends T> implementationClass) {
 			this.name = name;
 			this.shortHelp = shortHelp;
 			this.longHelp = longHelp;
 			this.implementationClass = implementationClass;
+			this.type = null;
+			this.implementationClassName = implementationClass.getName();
+			this.classLoader = null;
+		}
+
+		/**
+		 * Create a module whose implementation class is only loaded when it is
+		 * used the first time.
+		 */
+		public Module(String name, String shortHelp, String[] longHelp, Class<T> type, String implementationClassName, ClassLoader classLoader) {
+			this.name = name;
+			this.shortHelp = shortHelp;
+			this.longHelp = longHelp;
+			this.implementationClass = null;
+			this.type = type;
+			this.implementationClassName = implementationClassName;
+			this.classLoader = classLoader;
 		}
 
 		public String getName() {
@@ -45,7 +65,30 @@ public abstract class ModuleRegistry {
 			return longHelp;
 		}
 
-		public Class<? extends T> getImplementationClass() {
+		public String getImplementationClassName() {
+			return implementationClassName;
+		}
+
+		/**
+		 * Return the same module, typed as a supertype of its implementation
+		 * class (without loading the implementation class).
+		 */
+		public <U> Module<U> withType(Class<U> newType) {
+			synchronized (this) {
+				if (implementationClass != null)
+					return new Module<U>(name, shortHelp, longHelp, implementationClass.asSubclass(newType));
+			}
+			return new Module<U>(name, shortHelp, longHelp, newType, implementationClassName, classLoader);
+		}
+
+		public synchronized Class<? extends T> getImplementationClass() {
+			if (implementationClass == null) {
+				try {
+					implementationClass = Class.forName(implementationClassName, false, classLoader).asSubclass(type);
+				} catch (ClassNotFoundException ex) {
+					throw new RuntimeException("Implementation class of module " + name + " not found", ex);
+				}
+			}
 			return implementationClass;
 		}
 	}
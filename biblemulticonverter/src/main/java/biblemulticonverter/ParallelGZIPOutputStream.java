@@ -0,0 +1,200 @@
+package biblemulticonverter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Output stream that writes gzip data, compressing independent blocks of the
+ * input concurrently (like pigz does).
+ * <p>
+ * Every block is compressed by its own {@link Deflater}, primed with the last
+ * 32 KB of the previous block as dictionary, and ends on a byte boundary
+ * (using a sync flush), so that the compressed blocks can be concatenated to a
+ * single deflate stream. The checksum is calculated while writing. The output
+ * does not depend on the number of threads.
+ * <p>
+ * Thread pools are shared by all streams with the same number of threads, so
+ * that streams written concurrently do not use more compression threads than
+ * configured. Their worker threads are daemon threads that terminate when
+ * idle.
+ */
+public class ParallelGZIPOutputStream extends OutputStream {
+
+	private static final ConcurrentMap<Integer, ExecutorService> POOLS = new ConcurrentHashMap<Integer, ExecutorService>();
+
+	private static final int BLOCK_SIZE = 128 * 1024;
+	private static final int DICTIONARY_SIZE = 32 * 1024;
+	private static final byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+	private final OutputStream out;
+	private final ExecutorService executor;
+	private final int maxPending;
+	private final Queue<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+	private final CRC32 crc = new CRC32();
+	private long totalLength = 0;
+	private byte[] previousBlock = null;
+	private byte[] block = new byte[BLOCK_SIZE];
+	private int blockLength = 0;
+	private boolean closed = false;
+
+	/**
+	 * Create a new stream that compresses with the given number of threads
+	 * (or in the calling thread, if <code>threads</code> is 1 or less).
+	 */
+	public ParallelGZIPOutputStream(OutputStream out, int threads) throws IOException {
+		this.out = out;
+		executor = threads > 1 ? getPool(threads) : null;
+		maxPending = Math.max(1, threads * 2);
+		out.write(HEADER);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (closed)
+			throw new IOException("Stream closed");
+		while (len > 0) {
+			int count = Math.min(len, BLOCK_SIZE - blockLength);
+			System.arraycopy(b, off, block, blockLength, count);
+			blockLength += count;
+			off += count;
+			len -= count;
+			if (blockLength == BLOCK_SIZE)
+				submitBlock(false);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		try {
+			submitBlock(true);
+			while (!pending.isEmpty()) {
+				writeCompressedBlock();
+			}
+			writeInt((int) crc.getValue());
+			writeInt((int) totalLength);
+		} finally {
+			// cancel blocks that are still compressed after a failure
+			for (Future<byte[]> future : pending) {
+				future.cancel(true);
+			}
+			pending.clear();
+			out.close();
+		}
+	}
+
+	private static ExecutorService getPool(int threads) {
+		ExecutorService pool = POOLS.get(threads);
+		if (pool == null) {
+			ThreadPoolExecutor newPool = new ThreadPoolExecutor(threads, threads, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "gzip compressor");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			newPool.allowCoreThreadTimeOut(true);
+			pool = POOLS.putIfAbsent(threads, newPool);
+			if (pool == null) {
+				pool = newPool;
+			} else {
+				newPool.shutdown();
+			}
+		}
+		return pool;
+	}
+
+	private void submitBlock(boolean last) throws IOException {
+		crc.update(block, 0, blockLength);
+		totalLength += blockLength;
+		BlockCompressor compressor = new BlockCompressor(block, blockLength, previousBlock, last);
+		if (executor != null) {
+			if (pending.size() >= maxPending)
+				writeCompressedBlock();
+			pending.add(executor.submit(compressor));
+		} else {
+			out.write(compressor.call());
+		}
+		previousBlock = block;
+		block = new byte[BLOCK_SIZE];
+		blockLength = 0;
+	}
+
+	private void writeCompressedBlock() throws IOException {
+		try {
+			out.write(pending.remove().get());
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while compressing", ex);
+		} catch (ExecutionException ex) {
+			throw new IOException("Error while compressing", ex.getCause());
+		}
+	}
+
+	private void writeInt(int value) throws IOException {
+		out.write(value & 0xff);
+		out.write((value >> 8) & 0xff);
+		out.write((value >> 16) & 0xff);
+		out.write((value >> 24) & 0xff);
+	}
+
+	private static class BlockCompressor implements Callable<byte[]> {
+		private final byte[] data;
+		private final int length;
+		private final byte[] dictionary;
+		private final boolean last;
+
+		private BlockCompressor(byte[] data, int length, byte[] dictionary, boolean last) {
+			this.data = data;
+			this.length = length;
+			this.dictionary = dictionary;
+			this.last = last;
+		}
+
+		@Override
+		public byte[] call() {
+			Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+			try {
+				if (dictionary != null)
+					deflater.setDictionary(dictionary, dictionary.length - DICTIONARY_SIZE, DICTIONARY_SIZE);
+				deflater.setInput(data, 0, length);
+				if (last)
+					deflater.finish();
+				ByteArrayOutputStream result = new ByteArrayOutputStream(length / 2 + 64);
+				byte[] buffer = new byte[16384];
+				while (true) {
+					int count = deflater.deflate(buffer, 0, buffer.length, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+					result.write(buffer, 0, count);
+					if (last ? deflater.finished() : count < buffer.length)
+						break;
+				}
+				return result.toByteArray();
+			} finally {
+				deflater.end();
+			}
+		}
+	}
+}
@@ -41,14 +41,35 @@ public class Bible {
 	}
 
 	public void validate(List<String> danglingReferences, Map<String, Set<String>> dictionaryEntries) {
+		validate(danglingReferences, dictionaryEntries, 1);
+	}
+
+	/**
+	 * Validate this bible. If parallelism is larger than 1, books and chapters
+	 * are validated concurrently using that many threads; the dangling
+	 * references and the reported error are the same as for sequential
+	 * validation.
+	 */
+	public void validate(List<String> danglingReferences, Map<String, Set<String>> dictionaryEntries, int parallelism) {
+		if (books.size() == 0)
+			throw new IllegalStateException("Bible does not have books");
+		validateBooks(new ReferenceIndex(this), danglingReferences, dictionaryEntries, parallelism);
+	}
+
+	private void validateBooks(ReferenceIndex referenceIndex, List<String> danglingReferences, Map<String, Set<String>> dictionaryEntries, int parallelism) {
 		Set<BookID> bookIDs = EnumSet.noneOf(BookID.class);
 		Set<String> bookAbbrs = new HashSet<String>();
 		Set<String> bookShortNames = new HashSet<String>();
 		Set<String> bookLongNames = new HashSet<String>();
-		if (books.size() == 0)
-			throw new IllegalStateException("Bible does not have books");
-		for (Book book : books) {
-			book.validate(this, danglingReferences, dictionaryEntries);
+		List<ParallelValidation.Result> bookResults = null;
+		if (parallelism > 1)
+			bookResults = ParallelValidation.validateBooks(this, referenceIndex, danglingReferences != null, dictionaryEntries, parallelism);
+		for (int i = 0; i < books.size(); i++) {
+			Book book = books.get(i);
+			if (bookResults == null)
+				book.validate(referenceIndex, danglingReferences, dictionaryEntries);
+			else
+				bookResults.get(i).applyTo(danglingReferences);
 			if (book.getId() == BookID.METADATA) {
 				if (books.size() == 1)
 					throw new IllegalStateException("Bible has only metadata book");
@@ -66,6 +87,22 @@ public class Bible {
 		}
 	}
 
+	/**
+	 * Share equal strings and arrays (like text runs, Strong's numbers or RMAC
+	 * codes) used in the formatted texts of this bible, to reduce memory
+	 * consumption.
+	 */
+	public void deduplicate(DeduplicationPool pool) {
+		for (Book book : books) {
+			for (Chapter chapter : book.getChapters()) {
+				if (chapter.getProlog() != null)
+					chapter.getProlog().deduplicate(pool);
+				for (Verse verse : chapter.getVerses())
+					verse.deduplicate(pool);
+			}
+		}
+	}
+
 	protected Book getBook(String bookAbbr, BookID bookID) {
 		for (Book book : books) {
 			if (book.getAbbr().equals(bookAbbr) && book.getId() == bookID)
@@ -1,5 +1,6 @@
 package biblemulticonverter.data;
 
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -23,17 +24,21 @@ public class Book {
 		this.chapters = new ArrayList<Chapter>();
 	}
 
-	public void validate(Bible bible, List<String> danglingReferences, Map<String,Set<String>> dictionaryEntries) {
+	public void validate(ReferenceIndex referenceIndex, List<String> danglingReferences, Map<String,Set<String>> dictionaryEntries) {
+		validateChapterList();
+		int cnumber = 0;
+		for (Chapter chapter : chapters) {
+			cnumber++;
+			chapter.validate(referenceIndex, getId(), getAbbr(), cnumber, danglingReferences, dictionaryEntries);
+		}
+	}
+
+	void validateChapterList() {
 		if (chapters.size() == 0)
 			throw new IllegalStateException("Book has no chapters: " + getAbbr());
 		Chapter lastChapter = chapters.get(chapters.size() - 1);
 		if (lastChapter.getVerses().size() == 0 && lastChapter.getProlog() == null)
 			throw new IllegalStateException("Last chapter has neither prolog nor verses: " + getAbbr());
-		int cnumber = 0;
-		for (Chapter chapter : chapters) {
-			cnumber++;
-			chapter.validate(bible, getId(), getAbbr(), cnumber, danglingReferences, dictionaryEntries);
-		}
 	}
 
 	public String getAbbr() {
@@ -56,4 +61,29 @@ public class Book {
 		return chapters;
 	}
 
+	/**
+	 * Update the given digest with the metadata and content of this book, so
+	 * that books with equal content result in equal digests.
+	 */
+	public void updateDigest(MessageDigest digest) {
+		Utils.updateDigest(digest, abbr);
+		Utils.updateDigest(digest, id.ordinal());
+		Utils.updateDigest(digest, shortName);
+		Utils.updateDigest(digest, longName);
+		Utils.updateDigest(digest, chapters.size());
+		for (Chapter chapter : chapters) {
+			if (chapter.getProlog() == null) {
+				Utils.updateDigest(digest, -1);
+			} else {
+				Utils.updateDigest(digest, 1);
+				chapter.getProlog().updateDigest(digest);
+			}
+			Utils.updateDigest(digest, chapter.getVerses().size());
+			for (Verse verse : chapter.getVerses()) {
+				Utils.updateDigest(digest, verse.getNumber());
+				verse.updateDigest(digest);
+			}
+		}
+	}
+
 }
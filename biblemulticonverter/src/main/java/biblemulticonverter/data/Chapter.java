@@ -8,6 +8,7 @@ import java.util.Map;
 import java.util.Set;
 
 import biblemulticonverter.data.FormattedText.Headline;
+import biblemulticonverter.data.FormattedText.MulticastVisitor;
 import biblemulticonverter.data.FormattedText.Visitor;
 import biblemulticonverter.data.FormattedText.VisitorAdapter;
 
@@ -25,23 +26,26 @@ public class Chapter {
 		this.verses = new ArrayList<Verse>();
 	}
 
-	public void validate(Bible bible, BookID book, String bookAbbr, int cnumber, List<String> danglingReferences, Map<String,Set<String>> dictionaryEntries) {
+	public void validate(ReferenceIndex referenceIndex, BookID book, String bookAbbr, int cnumber, List<String> danglingReferences, Map<String,Set<String>> dictionaryEntries) {
 		// chapters may have no verses, if not yet translated but a later
 		// chapter is.
 		if (prolog != null)
-			prolog.validate(bible, book, bookAbbr + " " + cnumber + ":Prolog", danglingReferences, dictionaryEntries);
+			prolog.validate(referenceIndex, book, bookAbbr + " " + cnumber + ":Prolog", danglingReferences, dictionaryEntries, null);
 		Set<String> verseNumbers = new HashSet<String>();
+		// split up the verses while validating them
+		List<VirtualVerse> tempVerses = new ArrayList<VirtualVerse>();
+		BitSet numericVerseNumbers = new BitSet(verses.size());
 		for (Verse verse : verses) {
 			if (!verseNumbers.add(verse.getNumber()))
 				throw new IllegalStateException("Duplicate verse number " + bookAbbr + " " + cnumber + ":" + verse.getNumber());
-			verse.validate(bible, book, bookAbbr + " " + cnumber + ":" + verse.getNumber(), danglingReferences, dictionaryEntries);
+			verse.validate(referenceIndex, book, bookAbbr + " " + cnumber + ":" + verse.getNumber(), danglingReferences, dictionaryEntries, createSplitVisitor(verse, tempVerses, numericVerseNumbers));
 		}
 		int lastVerse = 0;
-		for (VirtualVerse vv : createVirtualVerses()) {
+		for (VirtualVerse vv : groupVirtualVerses(tempVerses, numericVerseNumbers)) {
 			if (vv.getNumber() <= lastVerse)
 				throw new IllegalStateException("Invalid order of virtual verses: " + vv.getNumber() + " after " + lastVerse);
 			lastVerse = vv.getNumber();
-			vv.validate(bible, book, bookAbbr, cnumber, danglingReferences, dictionaryEntries);
+			vv.validate(referenceIndex, book, bookAbbr, cnumber, danglingReferences, dictionaryEntries);
 		}
 		List<VerseRange> ranges = createVerseRanges();
 		for (VerseRange vr : ranges) {
@@ -49,7 +53,7 @@ public class Chapter {
 				if (vr != vr2 && vr.overlaps(vr2))
 					throw new IllegalStateException("Overlapping verse ranges: " + vr.getMinVerse() + "-" + vr.getMaxVerse() + " and " + vr2.getMinVerse() + "-" + vr2.getMaxVerse());
 			}
-			vr.validate(bible, book, bookAbbr, cnumber, danglingReferences, dictionaryEntries);
+			vr.validate(referenceIndex, book, bookAbbr, cnumber, danglingReferences, dictionaryEntries);
 		}
 	}
 
@@ -66,72 +70,98 @@ public class Chapter {
 	}
 
 	public List<VirtualVerse> createVirtualVerses() {
+		return createVirtualVerses(null, null);
+	}
+
+	public List<VirtualVerse> createVirtualVerses(BitSet allowedVerseNumbers) {
+		return createVirtualVerses(allowedVerseNumbers, null);
+	}
 
+	/**
+	 * Create virtual verses, optionally restricted to the allowed verse
+	 * numbers. If a verse visitor is given, every verse is passed to it in the
+	 * same traversal that splits up the verse.
+	 */
+	public List<VirtualVerse> createVirtualVerses(BitSet allowedVerseNumbers, Visitor<RuntimeException> verseVisitor) {
 		// split up verses to separate headlines
-		final List<VirtualVerse> tempVerses = new ArrayList<VirtualVerse>();
+		List<VirtualVerse> tempVerses = new ArrayList<VirtualVerse>();
 		BitSet numericVerseNumbers = new BitSet(verses.size());
-		for (final Verse verse : verses) {
-			int num;
-			try {
-				num = Integer.parseInt(verse.getNumber());
-				numericVerseNumbers.set(num);
-			} catch (NumberFormatException ex) {
-				// ignore nonnumeric verse numbers
-				num = Integer.MAX_VALUE;
-			}
-			final int vnum = num;
-			verse.accept(new VisitorAdapter<RuntimeException>(null) {
+		for (Verse verse : verses) {
+			Visitor<RuntimeException> splitVisitor = createSplitVisitor(verse, tempVerses, numericVerseNumbers);
+			verse.accept(verseVisitor == null ? splitVisitor : new MulticastVisitor<RuntimeException>(splitVisitor, verseVisitor));
+		}
+		return renumberVirtualVerses(groupVirtualVerses(tempVerses, numericVerseNumbers), allowedVerseNumbers);
+	}
+
+	/**
+	 * Create a visitor that splits up the given verse to separate headlines,
+	 * adding the parts to the list of virtual verses.
+	 */
+	private Visitor<RuntimeException> createSplitVisitor(final Verse verse, final List<VirtualVerse> tempVerses, BitSet numericVerseNumbers) {
+		int num;
+		try {
+			num = Integer.parseInt(verse.getNumber());
+			numericVerseNumbers.set(num);
+		} catch (NumberFormatException ex) {
+			// ignore nonnumeric verse numbers
+			num = Integer.MAX_VALUE;
+		}
+		final int vnum = num;
+		return new VisitorAdapter<RuntimeException>(null) {
 
-				VirtualVerse vv = new VirtualVerse(vnum);
-				boolean hasContent = false;
+			VirtualVerse vv = new VirtualVerse(vnum);
+			boolean hasContent = false;
 
-				{
+			{
+				tempVerses.add(vv);
+				vv.getVerses().add(new Verse(verse.getNumber()));
+			}
+
+			@Override
+			public Visitor<RuntimeException> visitHeadline(int depth) {
+				Headline h = new Headline(depth);
+				if (hasContent) {
+					vv = new VirtualVerse(vnum);
 					tempVerses.add(vv);
 					vv.getVerses().add(new Verse(verse.getNumber()));
+					hasContent = false;
 				}
+				vv.getHeadlines().add(h);
+				return h.getAppendVisitor();
+			}
 
-				@Override
-				public Visitor<RuntimeException> visitHeadline(int depth) {
-					Headline h = new Headline(depth);
-					if (hasContent) {
-						vv = new VirtualVerse(vnum);
-						tempVerses.add(vv);
-						vv.getVerses().add(new Verse(verse.getNumber()));
-						hasContent = false;
-					}
-					vv.getHeadlines().add(h);
-					return h.getAppendVisitor();
-				}
-
-				@Override
-				public int visitElementTypes(String elementTypes) throws RuntimeException {
-					return 0;
-				}
+			@Override
+			public int visitElementTypes(String elementTypes) throws RuntimeException {
+				return 0;
+			}
 
-				@Override
-				public void visitStart() {
-					hasContent = true;
-				}
+			@Override
+			public void visitStart() {
+				hasContent = true;
+			}
 
-				@Override
-				public boolean visitEnd() throws RuntimeException {
-					hasContent = true;
-					return false;
-				}
+			@Override
+			public boolean visitEnd() throws RuntimeException {
+				hasContent = true;
+				return false;
+			}
 
-				@Override
-				protected void beforeVisit() {
-					hasContent = true;
-				}
+			@Override
+			protected void beforeVisit() {
+				hasContent = true;
+			}
 
-				@Override
-				protected Visitor<RuntimeException> getVisitor() {
-					return vv.getVerses().get(0).getAppendVisitor();
-				}
-			});
-		}
+			@Override
+			protected Visitor<RuntimeException> getVisitor() {
+				return vv.getVerses().get(0).getAppendVisitor();
+			}
+		};
+	}
 
-		// group verses sensibly
+	/**
+	 * Group the split up verses sensibly.
+	 */
+	private List<VirtualVerse> groupVirtualVerses(List<VirtualVerse> tempVerses, BitSet numericVerseNumbers) {
 		List<VirtualVerse> result = new ArrayList<VirtualVerse>();
 		VirtualVerse current = null;
 		int nextverse = 1;
@@ -182,8 +212,7 @@ public class Chapter {
 		return result;
 	}
 
-	public List<VirtualVerse> createVirtualVerses(BitSet allowedVerseNumbers) {
-		List<VirtualVerse> result = createVirtualVerses();
+	private List<VirtualVerse> renumberVirtualVerses(List<VirtualVerse> result, BitSet allowedVerseNumbers) {
 		if (allowedVerseNumbers == null)
 			return result;
 		boolean unsatisfied = false;
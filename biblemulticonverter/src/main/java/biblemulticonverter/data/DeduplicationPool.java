@@ -0,0 +1,179 @@
+package biblemulticonverter.data;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of canonical strings and arrays, used to share equal objects between
+ * all formatted texts of a bible. Keeps statistics about how many objects could
+ * be shared and an estimate of how much memory has been saved by that.
+ * <p>
+ * Importers pass a pool to {@link FormattedText#finished(DeduplicationPool)},
+ * so that texts are deduplicated while they are imported. They obtain that pool
+ * from {@link #getImportPool()}, so that the caller of the import can set a
+ * pool with {@link #setImportPool(DeduplicationPool)} and report its
+ * statistics afterwards. Pools may be used by several threads at the same
+ * time. Arrays passed to the pool are never modified.
+ */
+public class DeduplicationPool {
+
+	private static final ThreadLocal<DeduplicationPool> IMPORT_POOL = new ThreadLocal<DeduplicationPool>();
+
+	/**
+	 * Return the pool set for imports on the current thread, or a new pool if
+	 * none is set. Importers call this once per import, on the thread that
+	 * called them.
+	 */
+	public static DeduplicationPool getImportPool() {
+		DeduplicationPool pool = IMPORT_POOL.get();
+		return pool != null ? pool : new DeduplicationPool();
+	}
+
+	/**
+	 * Set the pool returned by {@link #getImportPool()} on the current thread,
+	 * or remove it if <code>null</code> is given.
+	 *
+	 * @return the pool that was set before
+	 */
+	public static DeduplicationPool setImportPool(DeduplicationPool pool) {
+		DeduplicationPool previous = IMPORT_POOL.get();
+		if (pool == null)
+			IMPORT_POOL.remove();
+		else
+			IMPORT_POOL.set(pool);
+		return previous;
+	}
+
+	private final ConcurrentMap<String, String> strings = new ConcurrentHashMap<String, String>();
+	private final ConcurrentMap<IntArrayKey, int[]> intArrays = new ConcurrentHashMap<IntArrayKey, int[]>();
+	private final ConcurrentMap<StringArrayKey, String[]> stringArrays = new ConcurrentHashMap<StringArrayKey, String[]>();
+
+	private final AtomicInteger lookupCount = new AtomicInteger(), hitCount = new AtomicInteger();
+	private final AtomicLong estimatedSavedBytes = new AtomicLong();
+
+	public String deduplicate(String value) {
+		if (value == null)
+			return null;
+		lookupCount.incrementAndGet();
+		String result = strings.putIfAbsent(value, value);
+		if (result == null)
+			return value;
+		if (result != value) {
+			hitCount.incrementAndGet();
+			estimatedSavedBytes.addAndGet(align(24) + align(16 + 2 * value.length()));
+		}
+		return result;
+	}
+
+	public int[] deduplicate(int[] value) {
+		if (value == null)
+			return null;
+		lookupCount.incrementAndGet();
+		int[] result = intArrays.putIfAbsent(new IntArrayKey(value), value);
+		if (result == null)
+			return value;
+		if (result != value) {
+			hitCount.incrementAndGet();
+			estimatedSavedBytes.addAndGet(align(16 + 4 * value.length));
+		}
+		return result;
+	}
+
+	/**
+	 * Return a canonical array equal to the given one, whose elements are
+	 * canonical strings. The given array is not modified; if its elements are
+	 * not canonical, a copy is used instead.
+	 */
+	public String[] deduplicate(String[] value) {
+		if (value == null)
+			return null;
+		String[] canonical = value;
+		for (int i = 0; i < value.length; i++) {
+			String element = deduplicate(value[i]);
+			if (element != value[i]) {
+				if (canonical == value)
+					canonical = value.clone();
+				canonical[i] = element;
+			}
+		}
+		lookupCount.incrementAndGet();
+		String[] result = stringArrays.putIfAbsent(new StringArrayKey(canonical), canonical);
+		if (result == null)
+			return canonical;
+		if (result != value) {
+			hitCount.incrementAndGet();
+			estimatedSavedBytes.addAndGet(align(16 + 4 * value.length));
+		}
+		return result;
+	}
+
+	public int getLookupCount() {
+		return lookupCount.get();
+	}
+
+	public int getHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * Return an estimate of the bytes saved by sharing objects. The estimate
+	 * is computed from object sizes on a 64-bit JVM with compressed object
+	 * pointers and two bytes per string character. It does not subtract the
+	 * memory used by the pool itself, and it is an upper bound on JVMs that
+	 * store Latin-1 strings with one byte per character.
+	 */
+	public long getEstimatedSavedBytes() {
+		return estimatedSavedBytes.get();
+	}
+
+	public String getSummary() {
+		return "Deduplication: " + hitCount.get() + " of " + lookupCount.get() + " objects shared, " + (strings.size() + intArrays.size() + stringArrays.size()) + " distinct objects, estimated " + (estimatedSavedBytes.get() / 1024) + " KB saved";
+	}
+
+	private static long align(long size) {
+		return (size + 7) & ~7L;
+	}
+
+	private static class IntArrayKey {
+		private final int[] array;
+		private final int hashCode;
+
+		private IntArrayKey(int[] array) {
+			this.array = array;
+			this.hashCode = Arrays.hashCode(array);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof IntArrayKey && Arrays.equals(array, ((IntArrayKey) obj).array);
+		}
+	}
+
+	private static class StringArrayKey {
+		private final String[] array;
+		private final int hashCode;
+
+		private StringArrayKey(String[] array) {
+			this.array = array;
+			this.hashCode = Arrays.hashCode(array);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof StringArrayKey && Arrays.equals(array, ((StringArrayKey) obj).array);
+		}
+	}
+}
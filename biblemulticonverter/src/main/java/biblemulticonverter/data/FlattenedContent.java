@@ -0,0 +1,562 @@
+package biblemulticonverter.data;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import biblemulticonverter.data.FormattedText.ExtraAttributePriority;
+import biblemulticonverter.data.FormattedText.FormattingInstructionKind;
+import biblemulticonverter.data.FormattedText.Headline;
+import biblemulticonverter.data.FormattedText.LineBreakKind;
+import biblemulticonverter.data.FormattedText.RawHTMLMode;
+import biblemulticonverter.data.FormattedText.Visitor;
+
+/**
+ * Flattened content of a finished {@link FormattedText}. All elements
+ * (including nested ones) are stored as opcodes and operands in a single int
+ * array; strings and arrays referenced by them are stored in a constant table.
+ *
+ * The content of a formatted text is encoded as the offset of its element types
+ * in the signature, followed by its headline elements, followed by
+ * {@link #OP_START}, followed by its other elements, followed by
+ * {@link #OP_END}. Elements that have content of their own store the position
+ * after that content as last operand, so that they can be skipped quickly.
+ *
+ * The signature contains the element types (as returned by
+ * {@link FormattedText#getElementTypes(int)}) for unlimited depth; element
+ * types for other depths (or nested elements) are derived from it.
+ */
+final class FlattenedContent {
+
+	private static final int OP_START = 0;
+	private static final int OP_END = 1;
+	private static final int OP_TEXT = 2; // text
+	private static final int OP_HEADLINE = 3; // depth, end
+	private static final int OP_FOOTNOTE = 4; // end
+	private static final int OP_CROSS_REFERENCE = 5; // bookAbbr, book, firstChapter, firstVerse, lastChapter, lastVerse, end
+	private static final int OP_FORMATTING_INSTRUCTION = 6; // kind, end
+	private static final int OP_CSS_FORMATTING = 7; // css, end
+	private static final int OP_VERSE_SEPARATOR = 8;
+	private static final int OP_LINE_BREAK = 9; // kind
+	private static final int OP_GRAMMAR_INFORMATION = 10; // strongs, rmac, sourceIndices, end
+	private static final int OP_DICTIONARY_ENTRY = 11; // dictionary, entry, end
+	private static final int OP_RAW_HTML = 12; // mode, raw
+	private static final int OP_VARIATION_TEXT = 13; // variations, end
+	private static final int OP_EXTRA_ATTRIBUTE = 14; // prio, category, key, value, end
+
+	private static final int NO_CONSTANT = -1;
+
+	private static final BookID[] BOOK_IDS = BookID.values();
+	private static final FormattingInstructionKind[] FORMATTING_INSTRUCTION_KINDS = FormattingInstructionKind.values();
+	private static final LineBreakKind[] LINE_BREAK_KINDS = LineBreakKind.values();
+	private static final RawHTMLMode[] RAW_HTML_MODES = RawHTMLMode.values();
+	private static final ExtraAttributePriority[] EXTRA_ATTRIBUTE_PRIORITIES = ExtraAttributePriority.values();
+
+	private final int[] tokens;
+	private final Object[] constants;
+	private final int maxDepth;
+	private String signature;
+	private boolean deduplicated = false;
+
+	private FlattenedContent(int[] tokens, Object[] constants, String signature, int maxDepth) {
+		this.tokens = tokens;
+		this.constants = constants;
+		this.signature = signature;
+		this.maxDepth = maxDepth;
+	}
+
+	/**
+	 * Flatten the content of the given formatted text, which is expected to
+	 * still use the element tree, and deduplicate it with the given pool (if
+	 * not {@code null}).
+	 */
+	static FlattenedContent flatten(FormattedText text, DeduplicationPool pool) {
+		Encoder encoder = new Encoder();
+		encoder.add(0);
+		text.accept(encoder.new EncodingVisitor(-1, 0));
+		FlattenedContent result = new FlattenedContent(Arrays.copyOf(encoder.tokens, encoder.size), encoder.constants.toArray(), encoder.signature.toString(), encoder.maxDepth);
+		if (pool != null)
+			result.deduplicate(pool);
+		return result;
+	}
+
+	public <T extends Throwable> void accept(Visitor<T> visitor) throws T {
+		accept(0, visitor);
+	}
+
+	public String getElementTypes(int depth) {
+		if (depth > maxDepth)
+			return signature;
+		return getElementTypes(0, depth);
+	}
+
+	public List<Headline> getHeadlines() {
+		List<Headline> result = new ArrayList<Headline>();
+		int pos = 1;
+		while (tokens[pos] == OP_HEADLINE) {
+			Headline h = new Headline(tokens[pos + 1]);
+			accept(pos + 3, h.getAppendVisitor());
+			h.finished();
+			result.add(h);
+			pos = tokens[pos + 2];
+		}
+		return result;
+	}
+
+	public List<FormattedText> splitContent(boolean includeHeadlines, boolean innerContent) {
+		List<FormattedText> result = new ArrayList<FormattedText>();
+		int pos = 1;
+		while (tokens[pos] != OP_START) {
+			if (includeHeadlines)
+				result.add(splitElement(pos, innerContent));
+			pos = skipElement(pos);
+		}
+		pos++;
+		while (tokens[pos] != OP_END) {
+			result.add(splitElement(pos, innerContent));
+			pos = skipElement(pos);
+		}
+		return result;
+	}
+
+	/**
+	 * Share strings and arrays with equal ones in the given pool. Does nothing
+	 * if this content has already been deduplicated.
+	 */
+	public void deduplicate(DeduplicationPool pool) {
+		if (deduplicated)
+			return;
+		deduplicated = true;
+		signature = pool.deduplicate(signature);
+		for (int i = 0; i < constants.length; i++) {
+			Object constant = constants[i];
+			if (constant instanceof String)
+				constants[i] = pool.deduplicate((String) constant);
+			else if (constant instanceof int[])
+				constants[i] = pool.deduplicate((int[]) constant);
+			else if (constant instanceof String[])
+				constants[i] = pool.deduplicate((String[]) constant);
+		}
+	}
+
+	public void updateDigest(MessageDigest digest) {
+		ByteBuffer buffer = ByteBuffer.allocate(4 * tokens.length + 8);
+		buffer.putInt(tokens.length);
+		buffer.asIntBuffer().put(tokens);
+		buffer.putInt(buffer.capacity() - 4, constants.length);
+		digest.update(buffer.array());
+		Utils.updateDigest(digest, signature);
+		for (Object constant : constants) {
+			if (constant instanceof String) {
+				digest.update((byte) 'S');
+				Utils.updateDigest(digest, (String) constant);
+			} else if (constant instanceof int[]) {
+				int[] values = (int[]) constant;
+				digest.update((byte) 'I');
+				Utils.updateDigest(digest, values.length);
+				for (int value : values) {
+					Utils.updateDigest(digest, value);
+				}
+			} else if (constant instanceof String[]) {
+				String[] values = (String[]) constant;
+				digest.update((byte) 'A');
+				Utils.updateDigest(digest, values.length);
+				for (String value : values) {
+					Utils.updateDigest(digest, value);
+				}
+			} else {
+				throw new IllegalStateException("Unsupported constant: " + constant);
+			}
+		}
+	}
+
+	private FormattedText splitElement(int pos, boolean innerContent) {
+		FormattedText t = new FormattedText();
+		if (innerContent) {
+			int contentStart = getContentStart(pos);
+			if (contentStart != -1)
+				accept(contentStart, t.getAppendVisitor());
+		} else {
+			acceptElement(pos, t.getAppendVisitor());
+		}
+		return t;
+	}
+
+	private <T extends Throwable> void accept(int start, Visitor<T> visitor) throws T {
+		if (visitor == null)
+			return;
+		String elementTypes = null;
+		while (true) {
+			int depth = visitor.visitElementTypes(elementTypes);
+			if (depth <= 0)
+				break;
+			elementTypes = start == 0 ? getElementTypes(depth) : getElementTypes(start, depth);
+		}
+		int pos = start + 1;
+		while (tokens[pos] != OP_START)
+			pos = acceptElement(pos, visitor);
+		visitor.visitStart();
+		pos++;
+		while (tokens[pos] != OP_END)
+			pos = acceptElement(pos, visitor);
+		if (visitor.visitEnd())
+			accept(start, visitor);
+	}
+
+	/**
+	 * Return the element types of the content starting at the given position,
+	 * for a depth that is smaller than the depth of the signature. Elements
+	 * deeper than that are skipped via their end position, so that the cost
+	 * only depends on the size of the result.
+	 */
+	private String getElementTypes(int start, int depth) {
+		StringBuilder sb = new StringBuilder();
+		appendElementTypes(sb, start, Math.max(depth, 1));
+		return sb.toString();
+	}
+
+	private void appendElementTypes(StringBuilder sb, int start, int depth) {
+		int pos = start + 1;
+		while (true) {
+			switch (tokens[pos]) {
+			case OP_START:
+				pos++;
+				continue;
+			case OP_END:
+				return;
+			case OP_TEXT:
+				sb.append('t');
+				break;
+			case OP_VERSE_SEPARATOR:
+				sb.append('/');
+				break;
+			case OP_LINE_BREAK:
+				sb.append('b');
+				break;
+			case OP_RAW_HTML:
+				sb.append('H');
+				break;
+			default:
+				int contentStart = getContentStart(pos);
+				// the type is stored in the signature just before the '<'
+				sb.append(signature.charAt(tokens[contentStart] - 2));
+				if (depth > 1) {
+					sb.append('<');
+					appendElementTypes(sb, contentStart, depth - 1);
+					sb.append('>');
+				}
+				pos = tokens[contentStart - 1];
+				continue;
+			}
+			pos = skipElement(pos);
+		}
+	}
+
+	/**
+	 * Derive element types of the given depth from element types of a larger
+	 * depth, by skipping all nested element types deeper than the given depth.
+	 * Starts at the given offset and stops at the end of the enclosing
+	 * element. Like for element trees, a depth of 0 or less is treated as 1.
+	 */
+	static String truncateElementTypes(String elementTypes, int start, int depth) {
+		if (depth < 1)
+			depth = 1;
+		StringBuilder sb = new StringBuilder();
+		int level = 0;
+		for (int i = start; i < elementTypes.length(); i++) {
+			char ch = elementTypes.charAt(i);
+			if (ch == '<') {
+				level++;
+				if (level < depth)
+					sb.append(ch);
+			} else if (ch == '>') {
+				if (level == 0)
+					break;
+				if (level < depth)
+					sb.append(ch);
+				level--;
+			} else if (level < depth) {
+				sb.append(ch);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Visit the element at the given position and return the position of the
+	 * next element.
+	 */
+	private <T extends Throwable> int acceptElement(int pos, Visitor<T> v) throws T {
+		int[] t = tokens;
+		switch (t[pos]) {
+		case OP_TEXT:
+			v.visitText(string(t[pos + 1]));
+			return pos + 2;
+		case OP_HEADLINE:
+			accept(pos + 3, v.visitHeadline(t[pos + 1]));
+			return t[pos + 2];
+		case OP_FOOTNOTE:
+			accept(pos + 2, v.visitFootnote());
+			return t[pos + 1];
+		case OP_CROSS_REFERENCE:
+			accept(pos + 8, v.visitCrossReference(string(t[pos + 1]), BOOK_IDS[t[pos + 2]], t[pos + 3], string(t[pos + 4]), t[pos + 5], string(t[pos + 6])));
+			return t[pos + 7];
+		case OP_FORMATTING_INSTRUCTION:
+			accept(pos + 3, v.visitFormattingInstruction(FORMATTING_INSTRUCTION_KINDS[t[pos + 1]]));
+			return t[pos + 2];
+		case OP_CSS_FORMATTING:
+			accept(pos + 3, v.visitCSSFormatting(string(t[pos + 1])));
+			return t[pos + 2];
+		case OP_VERSE_SEPARATOR:
+			v.visitVerseSeparator();
+			return pos + 1;
+		case OP_LINE_BREAK:
+			v.visitLineBreak(LINE_BREAK_KINDS[t[pos + 1]]);
+			return pos + 2;
+		case OP_GRAMMAR_INFORMATION:
+			accept(pos + 5, v.visitGrammarInformation((int[]) constant(t[pos + 1]), (String[]) constant(t[pos + 2]), (int[]) constant(t[pos + 3])));
+			return t[pos + 4];
+		case OP_DICTIONARY_ENTRY:
+			accept(pos + 4, v.visitDictionaryEntry(string(t[pos + 1]), string(t[pos + 2])));
+			return t[pos + 3];
+		case OP_RAW_HTML:
+			v.visitRawHTML(RAW_HTML_MODES[t[pos + 1]], string(t[pos + 2]));
+			return pos + 3;
+		case OP_VARIATION_TEXT:
+			accept(pos + 3, v.visitVariationText((String[]) constant(t[pos + 1])));
+			return t[pos + 2];
+		case OP_EXTRA_ATTRIBUTE:
+			accept(pos + 6, v.visitExtraAttribute(EXTRA_ATTRIBUTE_PRIORITIES[t[pos + 1]], string(t[pos + 2]), string(t[pos + 3]), string(t[pos + 4])));
+			return t[pos + 5];
+		default:
+			throw new IllegalStateException("Invalid opcode " + t[pos] + " at position " + pos);
+		}
+	}
+
+	private int skipElement(int pos) {
+		switch (tokens[pos]) {
+		case OP_TEXT:
+		case OP_LINE_BREAK:
+			return pos + 2;
+		case OP_VERSE_SEPARATOR:
+			return pos + 1;
+		case OP_RAW_HTML:
+			return pos + 3;
+		default:
+			return tokens[getContentStart(pos) - 1];
+		}
+	}
+
+	/**
+	 * Return the start position of the content of the element at the given
+	 * position, or -1 if the element does not have content.
+	 */
+	private int getContentStart(int pos) {
+		switch (tokens[pos]) {
+		case OP_FOOTNOTE:
+			return pos + 2;
+		case OP_HEADLINE:
+		case OP_FORMATTING_INSTRUCTION:
+		case OP_CSS_FORMATTING:
+		case OP_VARIATION_TEXT:
+			return pos + 3;
+		case OP_DICTIONARY_ENTRY:
+			return pos + 4;
+		case OP_GRAMMAR_INFORMATION:
+			return pos + 5;
+		case OP_EXTRA_ATTRIBUTE:
+			return pos + 6;
+		case OP_CROSS_REFERENCE:
+			return pos + 8;
+		default:
+			return -1;
+		}
+	}
+
+	private String string(int index) {
+		return (String) constants[index];
+	}
+
+	private Object constant(int index) {
+		return index == NO_CONSTANT ? null : constants[index];
+	}
+
+	private static class Encoder {
+		private int[] tokens = new int[16];
+		private int size = 0;
+		private final List<Object> constants = new ArrayList<Object>();
+		private final Map<String, Integer> stringIndices = new HashMap<String, Integer>();
+		private final StringBuilder signature = new StringBuilder();
+		private int maxDepth = 0;
+
+		private void add(int token) {
+			if (size == tokens.length)
+				tokens = Arrays.copyOf(tokens, size * 2);
+			tokens[size++] = token;
+		}
+
+		private void addString(String value) {
+			Integer index = stringIndices.get(value);
+			if (index == null) {
+				index = constants.size();
+				constants.add(value);
+				stringIndices.put(value, index);
+			}
+			add(index);
+		}
+
+		private void addConstant(Object value) {
+			if (value == null) {
+				add(NO_CONSTANT);
+			} else {
+				add(constants.size());
+				constants.add(value);
+			}
+		}
+
+		private class EncodingVisitor implements Visitor<RuntimeException> {
+
+			private final int endSlot;
+			private final int depth;
+
+			private EncodingVisitor(int endSlot, int depth) {
+				this.endSlot = endSlot;
+				this.depth = depth;
+				maxDepth = Math.max(maxDepth, depth);
+			}
+
+			private Visitor<RuntimeException> addEndSlot(char type) {
+				add(-1);
+				int childEndSlot = size - 1;
+				signature.append(type).append('<');
+				add(signature.length());
+				return new EncodingVisitor(childEndSlot, depth + 1);
+			}
+
+			@Override
+			public int visitElementTypes(String elementTypes) {
+				return 0;
+			}
+
+			@Override
+			public Visitor<RuntimeException> visitHeadline(int depth) {
+				add(OP_HEADLINE);
+				add(depth);
+				return addEndSlot('h');
+			}
+
+			@Override
+			public void visitStart() {
+				add(OP_START);
+			}
+
+			@Override
+			public void visitText(String text) {
+				add(OP_TEXT);
+				addString(text);
+				signature.append('t');
+			}
+
+			@Override
+			public Visitor<RuntimeException> visitFootnote() {
+				add(OP_FOOTNOTE);
+				return addEndSlot('f');
+			}
+
+			@Override
+			public Visitor<RuntimeException> visitCrossReference(String bookAbbr, BookID book, int firstChapter, String firstVerse, int lastChapter, String lastVerse) {
+				add(OP_CROSS_REFERENCE);
+				addString(bookAbbr);
+				add(book.ordinal());
+				add(firstChapter);
+				addString(firstVerse);
+				add(lastChapter);
+				addString(lastVerse);
+				return addEndSlot('x');
+			}
+
+			@Override
+			public Visitor<RuntimeException> visitFormattingInstruction(FormattingInstructionKind kind) {
+				add(OP_FORMATTING_INSTRUCTION);
+				add(kind.ordinal());
+				return addEndSlot('F');
+			}
+
+			@Override
+			public Visitor<RuntimeException> visitCSSFormatting(String css) {
+				add(OP_CSS_FORMATTING);
+				addString(css);
+				return addEndSlot('c');
+			}
+
+			@Override
+			public void visitVerseSeparator() {
+				add(OP_VERSE_SEPARATOR);
+				signature.append('/');
+			}
+
+			@Override
+			public void visitLineBreak(LineBreakKind kind) {
+				add(OP_LINE_BREAK);
+				add(kind.ordinal());
+				signature.append('b');
+			}
+
+			@Override
+			public Visitor<RuntimeException> visitGrammarInformation(int[] strongs, String[] rmac, int[] sourceIndices) {
+				add(OP_GRAMMAR_INFORMATION);
+				addConstant(strongs);
+				addConstant(rmac);
+				addConstant(sourceIndices);
+				return addEndSlot('g');
+			}
+
+			@Override
+			public Visitor<RuntimeException> visitDictionaryEntry(String dictionary, String entry) {
+				add(OP_DICTIONARY_ENTRY);
+				addString(dictionary);
+				addString(entry);
+				return addEndSlot('d');
+			}
+
+			@Override
+			public void visitRawHTML(RawHTMLMode mode, String raw) {
+				add(OP_RAW_HTML);
+				add(mode.ordinal());
+				addString(raw);
+				signature.append('H');
+			}
+
+			@Override
+			public Visitor<RuntimeException> visitVariationText(String[] variations) {
+				add(OP_VARIATION_TEXT);
+				addConstant(variations);
+				return addEndSlot('o');
+			}
+
+			@Override
+			public Visitor<RuntimeException> visitExtraAttribute(ExtraAttributePriority prio, String category, String key, String value) {
+				add(OP_EXTRA_ATTRIBUTE);
+				add(prio.ordinal());
+				addString(category);
+				addString(key);
+				addString(value);
+				return addEndSlot('X');
+			}
+
+			@Override
+			public boolean visitEnd() {
+				add(OP_END);
+				if (endSlot != -1) {
+					tokens[endSlot] = size;
+					signature.append('>');
+				}
+				return false;
+			}
+		}
+	}
+}
@@ -1,6 +1,8 @@
 package biblemulticonverter.data;
 
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -17,9 +19,17 @@ public class FormattedText {
 	 */
 	public static String XREF_MARKER = "\u2118 ";
 
+	/**
+	 * Whether finished texts keep their element tree, as given by the system
+	 * property {@code biblemulticonverter.keeptree}. Read only once, as it is
+	 * checked for every finished text.
+	 */
+	private static volatile boolean keepTree = Boolean.getBoolean("biblemulticonverter.keeptree");
+
 	private List<Headline> headlines = new ArrayList<Headline>(0);
 	private List<FormattedElement> elements = new ArrayList<FormattedElement>(5);
 	private boolean finished = false;
+	private FlattenedContent flattened = null;
 
 	public Visitor<RuntimeException> getAppendVisitor() {
 		if (finished)
@@ -30,6 +40,11 @@ public class FormattedText {
 	public <T extends Throwable> void accept(Visitor<T> visitor) throws T {
 		if (visitor == null)
 			return;
+		FlattenedContent content = getFlattenedContent();
+		if (content != null) {
+			content.accept(visitor);
+			return;
+		}
 		String elementTypes = null;
 		while (true) {
 			int depth = visitor.visitElementTypes(elementTypes);
@@ -47,11 +62,29 @@ public class FormattedText {
 			accept(visitor);
 	}
 
+	/**
+	 * Return a copy of the headlines of this text. For flattened texts (see
+	 * {@link #finished()}), the headlines are rebuilt from the flattened
+	 * content on every call. They are not cached, as keeping them would undo
+	 * the memory savings of flattening; callers that need them repeatedly
+	 * should keep the returned list.
+	 */
 	public List<Headline> getHeadlines() {
+		FlattenedContent content = getFlattenedContent();
+		if (content != null)
+			return content.getHeadlines();
 		return new ArrayList<Headline>(headlines);
 	}
 
+	/**
+	 * Split this text into new texts, one per top-level element. Like
+	 * {@link #getHeadlines()}, this builds new texts on every call, and for
+	 * flattened texts it has to decode the flattened content again.
+	 */
 	public List<FormattedText> splitContent(boolean includeHeadlines, boolean innerContent) {
+		FlattenedContent content = getFlattenedContent();
+		if (content != null)
+			return content.splitContent(includeHeadlines, innerContent);
 		List<FormattedText> result = new ArrayList<FormattedText>();
 		if (includeHeadlines) {
 			for (Headline h : headlines) {
@@ -77,11 +110,23 @@ public class FormattedText {
 		return result;
 	}
 
-	public void validate(Bible bible, BookID book, String location, List<String> danglingReferences, Map<String, Set<String>> dictionaryEntries) {
+	public void validate(ReferenceIndex referenceIndex, BookID book, String location, List<String> danglingReferences, Map<String, Set<String>> dictionaryEntries) {
+		validate(referenceIndex, book, location, danglingReferences, dictionaryEntries, null);
+	}
+
+	/**
+	 * Validate this text, resolving cross references with the given index,
+	 * and pass it to the given additional visitor (if not {@code null}) in the
+	 * same traversal.
+	 */
+	void validate(ReferenceIndex referenceIndex, BookID book, String location, List<String> danglingReferences, Map<String, Set<String>> dictionaryEntries, Visitor<RuntimeException> additionalVisitor) {
 		if (!finished)
 			throw new IllegalStateException("Formatted text " + location + " not marked as finished - this may dramatically increase memory usage!");
 		try {
-			accept(new ValidatingVisitor(bible, book, danglingReferences, dictionaryEntries, this instanceof Verse ? ValidationContext.VERSE : ValidationContext.NORMAL_TEXT));
+			Visitor<RuntimeException> visitor = new ValidatingVisitor(referenceIndex, book, danglingReferences, dictionaryEntries, this instanceof Verse ? ValidationContext.VERSE : ValidationContext.NORMAL_TEXT);
+			if (additionalVisitor != null)
+				visitor = new MulticastVisitor<RuntimeException>(visitor, additionalVisitor);
+			accept(visitor);
 		} catch (RuntimeException ex) {
 			throw new RuntimeException("Validation error at " + location, ex);
 		}
@@ -147,11 +192,54 @@ public class FormattedText {
 			trimWhitespace();
 	}
 
+	/**
+	 * Return the flattened content of this text, or {@code null} if the
+	 * content is still stored as element tree.
+	 */
+	FlattenedContent getFlattenedContent() {
+		return flattened;
+	}
+
+	/**
+	 * Mark this text as finished, without any content of its own. Used by
+	 * subclasses that provide their content via {@link #getFlattenedContent()}.
+	 */
+	void finishedWithoutContent() {
+		if (finished)
+			throw new IllegalStateException();
+		finished = true;
+		elements = null;
+		headlines = null;
+	}
+
+	/**
+	 * Share strings and arrays of this finished formatted text with equal ones
+	 * in the given pool. Only has an effect for flattened content.
+	 */
+	void deduplicate(DeduplicationPool pool) {
+		if (flattened != null)
+			flattened.deduplicate(pool);
+	}
+
+	/**
+	 * Update the given digest with the content of this formatted text, so that
+	 * texts with equal content result in equal digests.
+	 */
+	public void updateDigest(MessageDigest digest) {
+		FlattenedContent content = getFlattenedContent();
+		if (content == null)
+			content = FlattenedContent.flatten(this, null);
+		content.updateDigest(digest);
+	}
+
 	/**
 	 * Return the types of elements inside this formatted text as String, useful
 	 * for regex matching.
 	 */
 	public String getElementTypes(int depth) {
+		FlattenedContent content = getFlattenedContent();
+		if (content != null)
+			return content.getElementTypes(depth);
 		StringBuilder sb = new StringBuilder();
 		accept(new ElementTypeVisitor(sb, depth, ""));
 		return sb.toString();
@@ -169,11 +257,45 @@ public class FormattedText {
 	 * implementation takes measures (like share common objects) to reduce
 	 * memory consumption; therefore, call this method if you are sure you do
 	 * not have to change the contents again.
+	 * <p>
+	 * Unless the system property {@code biblemulticonverter.keeptree} is set,
+	 * the element tree is replaced by a {@link FlattenedContent} that stores
+	 * all elements in a single token array.
 	 */
 	public void finished() {
+		finished(null);
+	}
+
+	/**
+	 * Set whether texts finished afterwards keep their element tree, instead
+	 * of the value of the system property. Used by tests.
+	 *
+	 * @return the previous value
+	 */
+	static boolean setKeepTree(boolean value) {
+		boolean previous = keepTree;
+		keepTree = value;
+		return previous;
+	}
+
+	/**
+	 * Call this when the content of this object is complete, like
+	 * {@link #finished()}, and share its strings and arrays with equal ones in
+	 * the given pool (if not {@code null}). Importers should use one pool for
+	 * all texts of a bible.
+	 */
+	public void finished(DeduplicationPool pool) {
 		if (finished)
 			throw new IllegalStateException();
 		finished = true;
+		if (!keepTree) {
+			// nested elements are part of the flattened content and do not
+			// need to be finished on their own
+			flattened = FlattenedContent.flatten(this, pool);
+			elements = null;
+			headlines = null;
+			return;
+		}
 		if (elements.size() == 0) {
 			elements = Collections.emptyList();
 		} else {
@@ -642,6 +764,209 @@ public class FormattedText {
 		}
 	}
 
+	/**
+	 * Visitor that forwards everything it visits to several other visitors, so
+	 * that they can share a single traversal. Element types are requested at
+	 * the largest depth any of the visitors asks for, and passed to each
+	 * visitor at its own depth. If some of the visitors want to visit an
+	 * element again, only those visitors take part in the repeated traversal.
+	 */
+	public static class MulticastVisitor<T extends Throwable> implements Visitor<T> {
+
+		private final List<Visitor<T>> visitors;
+		private final boolean[] active;
+		private final int[] requestedDepths;
+		private int requestedDepth = 0;
+
+		public MulticastVisitor(Visitor<T> first, Visitor<T> second) {
+			this(Arrays.asList(first, second));
+		}
+
+		public MulticastVisitor(List<Visitor<T>> visitors) {
+			this.visitors = new ArrayList<Visitor<T>>(visitors.size());
+			for (Visitor<T> visitor : visitors) {
+				if (visitor != null)
+					this.visitors.add(visitor);
+			}
+			active = new boolean[this.visitors.size()];
+			Arrays.fill(active, true);
+			requestedDepths = new int[this.visitors.size()];
+		}
+
+		private static <T extends Throwable> Visitor<T> combine(List<Visitor<T>> childVisitors) {
+			if (childVisitors.isEmpty())
+				return null;
+			if (childVisitors.size() == 1)
+				return childVisitors.get(0);
+			return new MulticastVisitor<T>(childVisitors);
+		}
+
+		@Override
+		public int visitElementTypes(String elementTypes) throws T {
+			int maxDepth = 0;
+			for (int i = 0; i < visitors.size(); i++) {
+				if (!active[i])
+					continue;
+				if (elementTypes == null) {
+					requestedDepths[i] = visitors.get(i).visitElementTypes(null);
+				} else if (requestedDepths[i] > 0) {
+					String types = requestedDepths[i] == requestedDepth ? elementTypes : FlattenedContent.truncateElementTypes(elementTypes, 0, requestedDepths[i]);
+					requestedDepths[i] = visitors.get(i).visitElementTypes(types);
+				}
+				maxDepth = Math.max(maxDepth, requestedDepths[i]);
+			}
+			requestedDepth = maxDepth;
+			return maxDepth;
+		}
+
+		@Override
+		public Visitor<T> visitHeadline(int depth) throws T {
+			List<Visitor<T>> childVisitors = new ArrayList<Visitor<T>>();
+			for (int i = 0; i < visitors.size(); i++) {
+				if (active[i])
+					addChildVisitor(childVisitors, visitors.get(i).visitHeadline(depth));
+			}
+			return combine(childVisitors);
+		}
+
+		@Override
+		public void visitStart() throws T {
+			for (int i = 0; i < visitors.size(); i++) {
+				if (active[i])
+					visitors.get(i).visitStart();
+			}
+		}
+
+		@Override
+		public void visitText(String text) throws T {
+			for (int i = 0; i < visitors.size(); i++) {
+				if (active[i])
+					visitors.get(i).visitText(text);
+			}
+		}
+
+		@Override
+		public Visitor<T> visitFootnote() throws T {
+			List<Visitor<T>> childVisitors = new ArrayList<Visitor<T>>();
+			for (int i = 0; i < visitors.size(); i++) {
+				if (active[i])
+					addChildVisitor(childVisitors, visitors.get(i).visitFootnote());
+			}
+			return combine(childVisitors);
+		}
+
+		@Override
+		public Visitor<T> visitCrossReference(String bookAbbr, BookID book, int firstChapter, String firstVerse, int lastChapter, String lastVerse) throws T {
+			List<Visitor<T>> childVisitors = new ArrayList<Visitor<T>>();
+			for (int i = 0; i < visitors.size(); i++) {
+				if (active[i])
+					addChildVisitor(childVisitors, visitors.get(i).visitCrossReference(bookAbbr, book, firstChapter, firstVerse, lastChapter, lastVerse));
+			}
+			return combine(childVisitors);
+		}
+
+		@Override
+		public Visitor<T> visitFormattingInstruction(FormattingInstructionKind kind) throws T {
+			List<Visitor<T>> childVisitors = new ArrayList<Visitor<T>>();
+			for (int i = 0; i < visitors.size(); i++) {
+				if (active[i])
+					addChildVisitor(childVisitors, visitors.get(i).visitFormattingInstruction(kind));
+			}
+			return combine(childVisitors);
+		}
+
+		@Override
+		public Visitor<T> visitCSSFormatting(String css) throws T {
+			List<Visitor<T>> childVisitors = new ArrayList<Visitor<T>>();
+			for (int i = 0; i < visitors.size(); i++) {
+				if (active[i])
+					addChildVisitor(childVisitors, visitors.get(i).visitCSSFormatting(css));
+			}
+			return combine(childVisitors);
+		}
+
+		@Override
+		public void visitVerseSeparator() throws T {
+			for (int i = 0; i < visitors.size(); i++) {
+				if (active[i])
+					visitors.get(i).visitVerseSeparator();
+			}
+		}
+
+		@Override
+		public void visitLineBreak(LineBreakKind kind) throws T {
+			for (int i = 0; i < visitors.size(); i++) {
+				if (active[i])
+					visitors.get(i).visitLineBreak(kind);
+			}
+		}
+
+		@Override
+		public Visitor<T> visitGrammarInformation(int[] strongs, String[] rmac, int[] sourceIndices) throws T {
+			List<Visitor<T>> childVisitors = new ArrayList<Visitor<T>>();
+			for (int i = 0; i < visitors.size(); i++) {
+				if (active[i])
+					addChildVisitor(childVisitors, visitors.get(i).visitGrammarInformation(strongs, rmac, sourceIndices));
+			}
+			return combine(childVisitors);
+		}
+
+		@Override
+		public Visitor<T> visitDictionaryEntry(String dictionary, String entry) throws T {
+			List<Visitor<T>> childVisitors = new ArrayList<Visitor<T>>();
+			for (int i = 0; i < visitors.size(); i++) {
+				if (active[i])
+					addChildVisitor(childVisitors, visitors.get(i).visitDictionaryEntry(dictionary, entry));
+			}
+			return combine(childVisitors);
+		}
+
+		@Override
+		public void visitRawHTML(RawHTMLMode mode, String raw) throws T {
+			for (int i = 0; i < visitors.size(); i++) {
+				if (active[i])
+					visitors.get(i).visitRawHTML(mode, raw);
+			}
+		}
+
+		@Override
+		public Visitor<T> visitVariationText(String[] variations) throws T {
+			List<Visitor<T>> childVisitors = new ArrayList<Visitor<T>>();
+			for (int i = 0; i < visitors.size(); i++) {
+				if (active[i])
+					addChildVisitor(childVisitors, visitors.get(i).visitVariationText(variations));
+			}
+			return combine(childVisitors);
+		}
+
+		@Override
+		public Visitor<T> visitExtraAttribute(ExtraAttributePriority prio, String category, String key, String value) throws T {
+			List<Visitor<T>> childVisitors = new ArrayList<Visitor<T>>();
+			for (int i = 0; i < visitors.size(); i++) {
+				if (active[i])
+					addChildVisitor(childVisitors, visitors.get(i).visitExtraAttribute(prio, category, key, value));
+			}
+			return combine(childVisitors);
+		}
+
+		@Override
+		public boolean visitEnd() throws T {
+			boolean again = false;
+			for (int i = 0; i < visitors.size(); i++) {
+				if (active[i]) {
+					active[i] = visitors.get(i).visitEnd();
+					again |= active[i];
+				}
+			}
+			return again;
+		}
+
+		private static <T extends Throwable> void addChildVisitor(List<Visitor<T>> childVisitors, Visitor<T> childVisitor) {
+			if (childVisitor != null)
+				childVisitors.add(childVisitor);
+		}
+	}
+
 	private static class AppendVisitor implements Visitor<RuntimeException> {
 		private FormattedText target;
 
@@ -749,7 +1074,7 @@ public class FormattedText {
 
 	private static class ValidatingVisitor implements Visitor<RuntimeException> {
 
-		private final Bible bible;
+		private final ReferenceIndex referenceIndex;
 		private final BookID book;
 		private final List<String> danglingReferences;
 		private final Map<String, Set<String>> dictionaryEntries;
@@ -760,8 +1085,8 @@ public class FormattedText {
 		private boolean trailingWhitespaceFound = false;
 		private boolean isEmpty = true;
 
-		private ValidatingVisitor(Bible bible, BookID book, List<String> danglingReferences, Map<String, Set<String>> dictionaryEntries, ValidationContext context) {
-			this.bible = bible;
+		private ValidatingVisitor(ReferenceIndex referenceIndex, BookID book, List<String> danglingReferences, Map<String, Set<String>> dictionaryEntries, ValidationContext context) {
+			this.referenceIndex = referenceIndex;
 			this.book = book;
 			this.danglingReferences = danglingReferences;
 			this.dictionaryEntries = dictionaryEntries;
@@ -769,7 +1094,7 @@ public class FormattedText {
 		}
 
 		private ValidatingVisitor createValidatingVisitor(ValidationContext context) {
-			return new ValidatingVisitor(bible, book, danglingReferences, dictionaryEntries, context);
+			return new ValidatingVisitor(referenceIndex, book, danglingReferences, dictionaryEntries, context);
 		}
 
 		@Override
@@ -913,9 +1238,8 @@ public class FormattedText {
 			if (context != ValidationContext.NORMAL_TEXT && context.ordinal() < ValidationContext.FOOTNOTE.ordinal())
 				throw new IllegalArgumentException("cross references may only appear inside footnotes");
 			visitInlineElement();
-			Book book = bible.getBook(bookAbbr, bookID);
-			int firstIndex = book == null || book.getChapters().size() < firstChapter ? -1 : book.getChapters().get(firstChapter - 1).getVerseIndex(firstVerse);
-			int lastIndex = book == null || book.getChapters().size() < lastChapter ? -1 : book.getChapters().get(lastChapter - 1).getVerseIndex(lastVerse);
+			int firstIndex = referenceIndex.getVerseIndex(bookAbbr, bookID, firstChapter, firstVerse);
+			int lastIndex = referenceIndex.getVerseIndex(bookAbbr, bookID, lastChapter, lastVerse);
 			if (firstIndex == -1 && danglingReferences != null) {
 				danglingReferences.add(bookAbbr + "(" + bookID.getOsisID() + ") " + firstChapter + ":" + firstVerse);
 			}
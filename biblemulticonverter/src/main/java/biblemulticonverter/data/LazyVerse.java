@@ -0,0 +1,68 @@
+package biblemulticonverter.data;
+
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.security.MessageDigest;
+
+/**
+ * A finished verse whose content is parsed from its source only when it is
+ * needed. The parsed content is only softly referenced, so that it can be
+ * discarded again under memory pressure (and parsed again when needed later).
+ * <p>
+ * Parse errors are reported when the content is accessed the first time, not
+ * when the verse is created. Digests are computed from the unparsed content,
+ * so they differ from the digests of equal verses that are not lazy. Lazy verses may be used from several threads; in
+ * the worst case, the content is parsed more than once.
+ */
+public class LazyVerse extends Verse {
+
+	private final ContentSource source;
+	private volatile SoftReference<FlattenedContent> content = null;
+
+	public LazyVerse(String number, ContentSource source) {
+		super(number);
+		this.source = Utils.validateNonNull("source", source);
+		finishedWithoutContent();
+	}
+
+	@Override
+	FlattenedContent getFlattenedContent() {
+		SoftReference<FlattenedContent> ref = content;
+		FlattenedContent result = ref == null ? null : ref.get();
+		if (result == null) {
+			FormattedText text = new FormattedText();
+			try {
+				source.parse(text.getAppendVisitor());
+			} catch (IOException ex) {
+				throw new RuntimeException("Error while parsing verse " + getNumber(), ex);
+			}
+			result = FlattenedContent.flatten(text, null);
+			content = new SoftReference<FlattenedContent>(result);
+		}
+		return result;
+	}
+
+	@Override
+	public void updateDigest(MessageDigest digest) {
+		digest.update((byte) 'L');
+		source.updateDigest(digest);
+	}
+
+	/**
+	 * Source of the content of a lazy verse.
+	 */
+	public static interface ContentSource {
+
+		/**
+		 * Parse the content and pass it to the given visitor. May be called
+		 * more than once, and from different threads.
+		 */
+		public void parse(FormattedText.Visitor<RuntimeException> visitor) throws IOException;
+
+		/**
+		 * Add the unparsed content to the digest, including the kind of
+		 * source, so that sources with equal digests have equal content.
+		 */
+		public void updateDigest(MessageDigest digest);
+	}
+}
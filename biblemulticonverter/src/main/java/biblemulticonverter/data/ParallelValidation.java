@@ -0,0 +1,166 @@
+package biblemulticonverter.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Validates the books and chapters of a bible concurrently in a fork/join pool.
+ * Every task collects its own dangling references and its first error, and the
+ * results are merged in bible order afterwards, so that the outcome does not
+ * depend on scheduling.
+ * <p>
+ * Pools are shared by all validations with the same parallelism; their worker
+ * threads are daemon threads that terminate when idle.
+ */
+class ParallelValidation {
+
+	private static final ConcurrentMap<Integer, ForkJoinPool> POOLS = new ConcurrentHashMap<Integer, ForkJoinPool>();
+
+	static List<Result> validateBooks(Bible bible, ReferenceIndex referenceIndex, boolean collectDanglingReferences, Map<String, Set<String>> dictionaryEntries, int parallelism) {
+		ForkJoinPool pool = getPool(parallelism);
+		List<BookTask> tasks = new ArrayList<BookTask>();
+		for (Book book : bible.getBooks()) {
+			BookTask task = new BookTask(referenceIndex, book, collectDanglingReferences, dictionaryEntries);
+			tasks.add(task);
+			pool.execute(task);
+		}
+		List<Result> results = new ArrayList<Result>();
+		for (BookTask task : tasks) {
+			results.add(task.join());
+		}
+		return results;
+	}
+
+	private static ForkJoinPool getPool(int parallelism) {
+		ForkJoinPool pool = POOLS.get(parallelism);
+		if (pool == null) {
+			ForkJoinPool newPool = new ForkJoinPool(parallelism);
+			pool = POOLS.putIfAbsent(parallelism, newPool);
+			if (pool == null) {
+				pool = newPool;
+			} else {
+				newPool.shutdown();
+			}
+		}
+		return pool;
+	}
+
+	/**
+	 * Outcome of validating a part of the bible.
+	 */
+	static class Result {
+		private final List<String> danglingReferences;
+		private RuntimeException error = null;
+
+		private Result(boolean collectDanglingReferences) {
+			danglingReferences = collectDanglingReferences ? new ArrayList<String>() : null;
+		}
+
+		/**
+		 * Append the results of another part, unless this part already
+		 * failed.
+		 */
+		private void append(Result other) {
+			if (error != null)
+				return;
+			if (danglingReferences != null)
+				mergeDanglingReferences(danglingReferences, other.danglingReferences);
+			error = other.error;
+		}
+
+		/**
+		 * Add the dangling references to the given list, and throw the error
+		 * that occurred, if any.
+		 */
+		void applyTo(List<String> target) {
+			if (target != null)
+				mergeDanglingReferences(target, danglingReferences);
+			if (error != null)
+				throw error;
+		}
+
+		private static void mergeDanglingReferences(List<String> target, List<String> source) {
+			for (String reference : source) {
+				// missing dictionaries are only reported once
+				if (reference.startsWith("[") && reference.endsWith("]") && target.contains(reference))
+					continue;
+				target.add(reference);
+			}
+		}
+	}
+
+	private static class BookTask extends RecursiveTask<Result> {
+		private static final long serialVersionUID = 1L;
+
+		private final ReferenceIndex referenceIndex;
+		private final Book book;
+		private final boolean collectDanglingReferences;
+		private final Map<String, Set<String>> dictionaryEntries;
+
+		private BookTask(ReferenceIndex referenceIndex, Book book, boolean collectDanglingReferences, Map<String, Set<String>> dictionaryEntries) {
+			this.referenceIndex = referenceIndex;
+			this.book = book;
+			this.collectDanglingReferences = collectDanglingReferences;
+			this.dictionaryEntries = dictionaryEntries;
+		}
+
+		@Override
+		protected Result compute() {
+			Result result = new Result(collectDanglingReferences);
+			try {
+				book.validateChapterList();
+			} catch (RuntimeException ex) {
+				result.error = ex;
+				return result;
+			}
+			List<ChapterTask> tasks = new ArrayList<ChapterTask>();
+			int cnumber = 0;
+			for (Chapter chapter : book.getChapters()) {
+				cnumber++;
+				tasks.add(new ChapterTask(referenceIndex, book, chapter, cnumber, collectDanglingReferences, dictionaryEntries));
+			}
+			invokeAll(tasks);
+			for (ChapterTask task : tasks) {
+				result.append(task.join());
+			}
+			return result;
+		}
+	}
+
+	private static class ChapterTask extends RecursiveTask<Result> {
+		private static final long serialVersionUID = 1L;
+
+		private final ReferenceIndex referenceIndex;
+		private final Book book;
+		private final Chapter chapter;
+		private final int cnumber;
+		private final boolean collectDanglingReferences;
+		private final Map<String, Set<String>> dictionaryEntries;
+
+		private ChapterTask(ReferenceIndex referenceIndex, Book book, Chapter chapter, int cnumber, boolean collectDanglingReferences, Map<String, Set<String>> dictionaryEntries) {
+			this.referenceIndex = referenceIndex;
+			this.book = book;
+			this.chapter = chapter;
+			this.cnumber = cnumber;
+			this.collectDanglingReferences = collectDanglingReferences;
+			this.dictionaryEntries = dictionaryEntries;
+		}
+
+		@Override
+		protected Result compute() {
+			Result result = new Result(collectDanglingReferences);
+			try {
+				chapter.validate(referenceIndex, book.getId(), book.getAbbr(), cnumber, result.danglingReferences, dictionaryEntries);
+			} catch (RuntimeException ex) {
+				result.error = ex;
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package biblemulticonverter.data;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of the books, chapters and verses of a bible, used for resolving cross
+ * references during validation without scanning the book and verse lists for
+ * every reference. The index reflects the bible at the time it was built.
+ * <p>
+ * {@link Bible#validate(List, Map, int)} builds one index for the whole
+ * bible. Callers that validate single books, chapters or texts build it once
+ * and pass it to every validation.
+ */
+public class ReferenceIndex {
+
+	private final List<Book> books;
+	private final Map<String, Integer> firstBookByAbbr = new HashMap<String, Integer>();
+	private final int[] firstBookByID = new int[BookID.values().length];
+	private final ChapterIndex[][] chapterIndices;
+
+	public ReferenceIndex(Bible bible) {
+		books = bible.getBooks();
+		Arrays.fill(firstBookByID, -1);
+		chapterIndices = new ChapterIndex[books.size()][];
+		for (int i = 0; i < books.size(); i++) {
+			Book book = books.get(i);
+			if (!firstBookByAbbr.containsKey(book.getAbbr()))
+				firstBookByAbbr.put(book.getAbbr(), i);
+			if (firstBookByID[book.getId().ordinal()] == -1)
+				firstBookByID[book.getId().ordinal()] = i;
+			List<Chapter> chapters = book.getChapters();
+			chapterIndices[i] = new ChapterIndex[chapters.size()];
+			for (int j = 0; j < chapters.size(); j++) {
+				chapterIndices[i][j] = new ChapterIndex(chapters.get(j));
+			}
+		}
+	}
+
+	/**
+	 * Return the index of the book with the given abbreviation and ID, or -1 if
+	 * there is none. Behaves like {@link Bible#getBook(String, BookID)}, i. e.
+	 * fails if the first book that matches either abbreviation or ID does not
+	 * match both.
+	 */
+	private int getBookIndex(String bookAbbr, BookID bookID) {
+		Integer byAbbr = firstBookByAbbr.get(bookAbbr);
+		int byID = firstBookByID[bookID.ordinal()];
+		int index;
+		if (byAbbr == null)
+			index = byID;
+		else if (byID == -1)
+			index = byAbbr;
+		else
+			index = Math.min(byAbbr, byID);
+		if (index == -1)
+			return -1;
+		Book book = books.get(index);
+		if (!book.getAbbr().equals(bookAbbr) || book.getId() != bookID)
+			throw new IllegalStateException("Partial match of xref book");
+		return index;
+	}
+
+	/**
+	 * Return the index of the given verse inside its chapter (like
+	 * {@link Chapter#getVerseIndex(String)}), or -1 if the book, chapter or
+	 * verse does not exist. Note that the book is looked up even if the
+	 * chapter number is invalid, to detect partial matches.
+	 */
+	int getVerseIndex(String bookAbbr, BookID bookID, int chapter, String verse) {
+		int bookIndex = getBookIndex(bookAbbr, bookID);
+		if (bookIndex == -1 || chapter < 1 || chapter > chapterIndices[bookIndex].length)
+			return -1;
+		return chapterIndices[bookIndex][chapter - 1].getVerseIndex(verse);
+	}
+
+	private static class ChapterIndex {
+		private final int[] numericVerses;
+		private final Map<String, Integer> otherVerses;
+
+		private ChapterIndex(Chapter chapter) {
+			List<Verse> verses = chapter.getVerses();
+			int maxNumber = 0;
+			for (Verse verse : verses) {
+				maxNumber = Math.max(maxNumber, parseVerseNumber(verse.getNumber()));
+			}
+			numericVerses = new int[maxNumber + 1];
+			Arrays.fill(numericVerses, -1);
+			Map<String, Integer> others = null;
+			for (int i = 0; i < verses.size(); i++) {
+				String number = verses.get(i).getNumber();
+				int num = parseVerseNumber(number);
+				if (num != -1) {
+					if (numericVerses[num] == -1)
+						numericVerses[num] = i;
+				} else {
+					if (others == null)
+						others = new HashMap<String, Integer>();
+					if (!others.containsKey(number))
+						others.put(number, i);
+				}
+			}
+			otherVerses = others;
+		}
+
+		private int getVerseIndex(String verse) {
+			int num = parseVerseNumber(verse);
+			if (num != -1)
+				return num < numericVerses.length ? numericVerses[num] : -1;
+			Integer index = otherVerses == null ? null : otherVerses.get(verse);
+			return index == null ? -1 : index;
+		}
+
+		/**
+		 * Parse verse numbers that consist of digits only and do not have
+		 * leading zeros; return -1 for all other verse numbers.
+		 */
+		private static int parseVerseNumber(String number) {
+			if (number.length() == 0 || number.length() > 4 || number.charAt(0) == '0')
+				return -1;
+			int result = 0;
+			for (int i = 0; i < number.length(); i++) {
+				char ch = number.charAt(i);
+				if (ch < '0' || ch > '9')
+					return -1;
+				result = result * 10 + (ch - '0');
+			}
+			return result;
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package biblemulticonverter.data;
 
+import java.security.MessageDigest;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Pattern;
@@ -47,4 +48,30 @@ public class Utils {
 		}
 		return result;
 	}
+
+	public static void updateDigest(MessageDigest digest, int value) {
+		digest.update((byte) (value >>> 24));
+		digest.update((byte) (value >>> 16));
+		digest.update((byte) (value >>> 8));
+		digest.update((byte) value);
+	}
+
+	public static void updateDigest(MessageDigest digest, String value) {
+		if (value == null) {
+			updateDigest(digest, -1);
+			return;
+		}
+		byte[] bytes = new byte[4 + value.length() * 2];
+		int length = value.length();
+		bytes[0] = (byte) (length >>> 24);
+		bytes[1] = (byte) (length >>> 16);
+		bytes[2] = (byte) (length >>> 8);
+		bytes[3] = (byte) length;
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			bytes[4 + i * 2] = (byte) (c >>> 8);
+			bytes[5 + i * 2] = (byte) c;
+		}
+		digest.update(bytes);
+	}
 }
@@ -56,13 +56,13 @@ public class VerseRange {
 		return chapter == other.chapter && maxVerse >= other.minVerse && other.maxVerse >= minVerse;
 	}
 
-	public void validate(Bible bible, BookID book, String bookAbbr, int cnumber, List<String> danglingReferences, Map<String,Set<String>> dictionaryEntries) {
+	public void validate(ReferenceIndex referenceIndex, BookID book, String bookAbbr, int cnumber, List<String> danglingReferences, Map<String,Set<String>> dictionaryEntries) {
 		String location = bookAbbr + " " + cnumber + ":[" + (chapter == 0 ? "" : chapter + ",") + minVerse + "-" + maxVerse + "]";
 		Set<String> verseNumbers = new HashSet<String>();
 		for (Verse verse : verses) {
 			if (!verseNumbers.add(verse.getNumber()))
 				throw new IllegalStateException("Duplicate verse number");
-			verse.validate(bible, book, location + verse.getNumber(), danglingReferences, dictionaryEntries);
+			verse.validate(referenceIndex, book, location + verse.getNumber(), danglingReferences, dictionaryEntries, null);
 		}
 	}
 
@@ -24,20 +24,20 @@ public class VirtualVerse {
 		this.number = Utils.validateNumber("number", number, 1, Integer.MAX_VALUE);
 	}
 
-	public void validate(Bible bible, BookID book, String bookAbbr, int cnumber, List<String> danglingReferences, Map<String,Set<String>> dictionaryEntries) {
+	public void validate(ReferenceIndex referenceIndex, BookID book, String bookAbbr, int cnumber, List<String> danglingReferences, Map<String,Set<String>> dictionaryEntries) {
 		int lastHeadlineDepth = 0;
 		String location = bookAbbr + " " + cnumber + ":v" + getNumber();
 		for (Headline headline : headlines) {
 			if (headline.getDepth() <= lastHeadlineDepth)
 				throw new IllegalStateException("Invalid headline depth order at " + location + ": " + headline.getDepth() + " after " + lastHeadlineDepth);
 			lastHeadlineDepth = headline.getDepth() == 9 ? 8 : headline.getDepth();
-			headline.validate(bible, book, location + ":Headline", danglingReferences, dictionaryEntries);
+			headline.validate(referenceIndex, book, location + ":Headline", danglingReferences, dictionaryEntries, null);
 		}
 		Set<String> verseNumbers = new HashSet<String>();
 		for (Verse verse : verses) {
 			if (!verseNumbers.add(verse.getNumber()))
 				throw new IllegalStateException("Duplicate verse number");
-			verse.validate(bible, book, location + ":" + verse.getNumber(), danglingReferences, dictionaryEntries);
+			verse.validate(referenceIndex, book, location + ":" + verse.getNumber(), danglingReferences, dictionaryEntries, null);
 		}
 	}
 
@@ -3,8 +3,10 @@ package biblemulticonverter.format;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.RandomAccessFile;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.EnumMap;
@@ -133,44 +135,39 @@ public class Accordance implements ExportFormat {
 				break;
 		}
 		File mainFile = new File(exportArgs[0] + ".txt");
+		final boolean initialParaMarker = paraMarker;
 		try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(mainFile), StandardCharsets.UTF_8));
-				BufferedWriter bnw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(exportArgs[0] + "-booknames.txt"), StandardCharsets.UTF_8))) {
-			for (Book book : bible.getBooks()) {
-				String bookName = BOOK_NAME_MAP.get(book.getId());
-				if (bookName == null) {
-					System.out.println("WARNING: Skipping book " + book.getAbbr());
-					continue;
+				final BufferedWriter bnw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(exportArgs[0] + "-booknames.txt"), StandardCharsets.UTF_8))) {
+			ParallelBookRenderer.render(bible.getBooks(), new ParallelBookRenderer.BookRenderer<Book, RenderedBook>() {
+
+				private boolean paraMarker = initialParaMarker;
+
+				@Override
+				public RenderedBook renderBook(Book book, ParallelBookRenderer.Buffer buffer) throws IOException {
+					String bookName = BOOK_NAME_MAP.get(book.getId());
+					if (bookName == null)
+						return null;
+					return exportBook(book, bookName, buffer);
 				}
-				bnw.write(bookName + "\t" + book.getAbbr() + "\n");
-				bw.write(bookName + " ");
-				int cnumber = 0;
-				for (Chapter chapter : book.getChapters()) {
-					cnumber++;
-					bw.write(cnumber + ":");
-					List<VirtualVerse> vvs = chapter.createVirtualVerses();
-					if (vvs.isEmpty()) {
-						bw.write("1 " + (paraMarker ? "¶" : "") + "\n");
-						paraMarker = false;
+
+				@Override
+				public void writeBook(Book book, RenderedBook info, ParallelBookRenderer.Buffer buffer, Writer out) throws IOException {
+					if (info == null) {
+						System.out.println("WARNING: Skipping book " + book.getAbbr());
+						return;
 					}
-					for (VirtualVerse vv : vvs) {
-						bw.write(vv.getNumber() + " " + (paraMarker ? "¶ " : ""));
-						paraMarker = false;
-						StringBuilder sb = new StringBuilder();
-						for (Verse v : vv.getVerses()) {
-							if (!v.getNumber().equals("" + vv.getNumber())) {
-								sb.append(" <b>(" + v.getNumber() + ")</b> ");
-							}
-							v.accept(new AccordanceVisitor(sb));
-						}
-						String verseText = sb.toString().replaceAll("  +", " ").trim();
-						if (verseText.endsWith(" ¶")) {
-							verseText = verseText.substring(0, verseText.length() - 2);
-							paraMarker = true;
-						}
-						bw.write(verseText + "\n");
+					bnw.write(BOOK_NAME_MAP.get(book.getId()) + "\t" + book.getAbbr() + "\n");
+					if (paraMarker && info.markerPos != -1) {
+						buffer.writeTo(out, 0, info.markerPos);
+						out.write(info.marker);
+						buffer.writeTo(out, info.markerPos, buffer.length());
+					} else {
+						buffer.writeTo(out);
 					}
+					if (info.markerPos != -1)
+						paraMarker = info.paraMarkerAfter;
 				}
-			}
+			}, bw);
 		}
 		if (mainFile.length() > 0) {
 			try (RandomAccessFile raf = new RandomAccessFile(mainFile, "rw")) {
@@ -179,6 +176,63 @@ public class Accordance implements ExportFormat {
 		}
 	}
 
+	/**
+	 * Render a book, assuming that no paragraph marker is pending from the
+	 * previous book. The position where a pending marker has to be inserted is
+	 * recorded in the result.
+	 */
+	private RenderedBook exportBook(Book book, String bookName, ParallelBookRenderer.Buffer bw) throws IOException {
+		RenderedBook result = new RenderedBook();
+		boolean paraMarker = false;
+		bw.write(bookName + " ");
+		int cnumber = 0;
+		for (Chapter chapter : book.getChapters()) {
+			cnumber++;
+			bw.write(cnumber + ":");
+			List<VirtualVerse> vvs = chapter.createVirtualVerses();
+			if (vvs.isEmpty()) {
+				bw.write("1 ");
+				if (result.markerPos == -1)
+					result.setMarker(bw.length(), "¶");
+				bw.write((paraMarker ? "¶" : "") + "\n");
+				paraMarker = false;
+			}
+			for (VirtualVerse vv : vvs) {
+				bw.write(vv.getNumber() + " ");
+				if (result.markerPos == -1)
+					result.setMarker(bw.length(), "¶ ");
+				bw.write(paraMarker ? "¶ " : "");
+				paraMarker = false;
+				StringBuilder sb = new StringBuilder();
+				for (Verse v : vv.getVerses()) {
+					if (!v.getNumber().equals("" + vv.getNumber())) {
+						sb.append(" <b>(" + v.getNumber() + ")</b> ");
+					}
+					v.accept(new AccordanceVisitor(sb));
+				}
+				String verseText = sb.toString().replaceAll("  +", " ").trim();
+				if (verseText.endsWith(" ¶")) {
+					verseText = verseText.substring(0, verseText.length() - 2);
+					paraMarker = true;
+				}
+				bw.write(verseText + "\n");
+			}
+		}
+		result.paraMarkerAfter = paraMarker;
+		return result;
+	}
+
+	private static class RenderedBook {
+		private int markerPos = -1;
+		private String marker;
+		private boolean paraMarkerAfter;
+
+		private void setMarker(int markerPos, String marker) {
+			this.markerPos = markerPos;
+			this.marker = marker;
+		}
+	}
+
 	private static class AccordanceVisitor implements Visitor<RuntimeException> {
 
 		protected final StringBuilder sb;
@@ -0,0 +1,583 @@
+package biblemulticonverter.format;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import biblemulticonverter.data.Bible;
+import biblemulticonverter.data.Book;
+import biblemulticonverter.data.BookID;
+import biblemulticonverter.data.Chapter;
+import biblemulticonverter.data.DeduplicationPool;
+import biblemulticonverter.data.FormattedText;
+import biblemulticonverter.data.FormattedText.ExtraAttributePriority;
+import biblemulticonverter.data.FormattedText.FormattingInstructionKind;
+import biblemulticonverter.data.FormattedText.LineBreakKind;
+import biblemulticonverter.data.FormattedText.RawHTMLMode;
+import biblemulticonverter.data.FormattedText.Visitor;
+import biblemulticonverter.data.LazyVerse;
+import biblemulticonverter.data.Utils;
+import biblemulticonverter.data.Verse;
+
+public class BinarySnapshot implements RoundtripFormat, StreamingImportFormat, StreamingExportFormat {
+
+	public static final String[] HELP_TEXT = {
+			"A binary format that can be reopened quickly.",
+			"",
+			"The file starts with a header, followed by the content of all prologs and verses, followed by",
+			"an index of all books, chapters and verses that points to the content.",
+			"When importing, the file is memory-mapped and verses are only decoded when they are needed.",
+			"Exports are written to a temporary file that replaces the exported file when finished. Never",
+			"change or truncate a snapshot in place while a bible imported from it is still in use, as that",
+			"crashes the JVM when the changed part is read. On Windows, the file cannot be replaced at all",
+			"while it is mapped.",
+			"",
+			"Use this format as a cache for modules that are exported often. The format may change between",
+			"versions of BibleMultiConverter, so do not use it for long-term storage."
+	};
+
+	private static final byte[] MAGIC = "BiMuBi-1".getBytes(StandardCharsets.US_ASCII);
+	private static final int HEADER_SIZE = MAGIC.length + 4;
+
+	private static final int OP_END = 0, OP_TEXT = 1, OP_HEADLINE = 2, OP_FOOTNOTE = 3, OP_XREF = 4,
+			OP_FORMATTING = 5, OP_CSS = 6, OP_VERSE_SEPARATOR = 7, OP_LINE_BREAK = 8, OP_GRAMMAR = 9,
+			OP_DICTIONARY_ENTRY = 10, OP_RAW_HTML = 11, OP_VARIATION = 12, OP_EXTRA_ATTRIBUTE = 13;
+
+	@Override
+	public void doExport(Bible bible, String... exportArgs) throws Exception {
+		BookSink sink = createBookSink(exportArgs);
+		try {
+			sink.begin(bible.getName());
+			for (Book book : bible.getBooks()) {
+				sink.book(book);
+			}
+			sink.end();
+		} catch (Exception ex) {
+			sink.abort(ex);
+			throw ex;
+		}
+	}
+
+	@Override
+	public BookSink createBookSink(String... exportArgs) throws Exception {
+		return new SnapshotWriter(new File(exportArgs[0]));
+	}
+
+	@Override
+	public Bible doImport(File inputFile) throws Exception {
+		BibleCollector collector = new BibleCollector();
+		doImport(inputFile, collector);
+		return collector.bible;
+	}
+
+	@Override
+	public void doImport(File inputFile, BookSink sink) throws Exception {
+		final ByteBuffer data;
+		try (RandomAccessFile raf = new RandomAccessFile(inputFile, "r"); FileChannel channel = raf.getChannel()) {
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException("File too large: " + inputFile);
+			data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		ByteBuffer index = data.duplicate();
+		byte[] magic = new byte[MAGIC.length];
+		if (index.remaining() < HEADER_SIZE)
+			throw new IOException("File too short: " + inputFile);
+		index.get(magic);
+		if (!Arrays.equals(magic, MAGIC))
+			throw new IOException("Invalid header: " + new String(magic, StandardCharsets.ISO_8859_1));
+		int indexOffset = index.getInt();
+		if (indexOffset < HEADER_SIZE || indexOffset > index.limit())
+			throw new IOException("Invalid index offset: " + indexOffset);
+		index.position(indexOffset);
+		try {
+			readBooks(data, indexOffset, index, sink);
+		} catch (BufferUnderflowException ex) {
+			throw new IOException("Truncated index: " + inputFile, ex);
+		}
+	}
+
+	/**
+	 * Read the index and pass the books to the sink. Content offsets of
+	 * verses are checked here, so that damaged files fail while importing
+	 * and not later when a verse is parsed.
+	 */
+	private void readBooks(final ByteBuffer data, int indexOffset, ByteBuffer index, BookSink sink) throws Exception {
+		sink.begin(readString(index));
+		DeduplicationPool pool = DeduplicationPool.getImportPool();
+		int bookCount = readVarInt(index);
+		for (int i = 0; i < bookCount; i++) {
+			String abbr = readString(index);
+			BookID id = BookID.fromOsisId(readString(index));
+			String shortName = readString(index);
+			String longName = readString(index);
+			Book book = new Book(abbr, id, shortName, longName);
+			int chapterCount = readVarInt(index);
+			for (int j = 0; j < chapterCount; j++) {
+				Chapter chapter = new Chapter();
+				book.getChapters().add(chapter);
+				int prologOffset = readVarInt(index);
+				if (prologOffset != 0) {
+					FormattedText prolog = new FormattedText();
+					decode(data, prologOffset, prolog.getAppendVisitor());
+					prolog.finished(pool);
+					chapter.setProlog(prolog);
+				}
+				int verseCount = readVarInt(index);
+				for (int k = 0; k < verseCount; k++) {
+					String number = readString(index);
+					final int offset = readVarInt(index);
+					checkContent(data, offset, indexOffset);
+					chapter.getVerses().add(new LazyVerse(number, new LazyVerse.ContentSource() {
+						@Override
+						public void parse(Visitor<RuntimeException> visitor) throws IOException {
+							decode(data, offset, visitor);
+						}
+
+						@Override
+						public void updateDigest(MessageDigest digest) {
+							Utils.updateDigest(digest, "BinarySnapshot");
+							ByteBuffer buf = data.duplicate();
+							buf.position(offset);
+							int length = readVarInt(buf);
+							buf.limit(buf.position() + length);
+							digest.update(buf);
+						}
+					}));
+				}
+			}
+			sink.book(book);
+		}
+		if (index.hasRemaining())
+			throw new IOException("Trailing data after index");
+		sink.end();
+	}
+
+	private static void checkContent(ByteBuffer data, int offset, int indexOffset) throws IOException {
+		ByteBuffer buf = data.duplicate();
+		if (offset < HEADER_SIZE || offset >= indexOffset)
+			throw new IOException("Invalid content offset: " + offset);
+		buf.position(offset);
+		buf.limit(indexOffset);
+		int length = readVarInt(buf);
+		if (length <= 0 || length > buf.remaining())
+			throw new IOException("Invalid content length: " + length);
+	}
+
+	@Override
+	public boolean isExportImportRoundtrip() {
+		return true;
+	}
+
+	@Override
+	public boolean isImportExportRoundtrip() {
+		return true;
+	}
+
+	private static void decode(ByteBuffer data, int offset, Visitor<RuntimeException> visitor) throws IOException {
+		ByteBuffer buf = data.duplicate();
+		if (offset < HEADER_SIZE || offset >= buf.limit())
+			throw new IOException("Invalid content offset: " + offset);
+		buf.position(offset);
+		int length = readVarInt(buf);
+		if (length > buf.remaining())
+			throw new IOException("Invalid content length: " + length);
+		buf.limit(buf.position() + length);
+		decodeContent(buf, visitor);
+		if (buf.hasRemaining())
+			throw new IOException("Trailing content at offset " + offset);
+	}
+
+	private static void decodeContent(ByteBuffer buf, Visitor<RuntimeException> visitor) throws IOException {
+		while (true) {
+			int op = buf.get();
+			switch (op) {
+			case OP_END:
+				return;
+			case OP_TEXT:
+				visitor.visitText(readString(buf));
+				break;
+			case OP_HEADLINE:
+				decodeContent(buf, visitor.visitHeadline(readVarInt(buf)));
+				break;
+			case OP_FOOTNOTE:
+				decodeContent(buf, visitor.visitFootnote());
+				break;
+			case OP_XREF:
+				String bookAbbr = readString(buf);
+				BookID book = BookID.fromOsisId(readString(buf));
+				int firstChapter = readVarInt(buf);
+				String firstVerse = readString(buf);
+				int lastChapter = readVarInt(buf);
+				String lastVerse = readString(buf);
+				decodeContent(buf, visitor.visitCrossReference(bookAbbr, book, firstChapter, firstVerse, lastChapter, lastVerse));
+				break;
+			case OP_FORMATTING:
+				decodeContent(buf, visitor.visitFormattingInstruction(FormattingInstructionKind.values()[readVarInt(buf)]));
+				break;
+			case OP_CSS:
+				decodeContent(buf, visitor.visitCSSFormatting(readString(buf)));
+				break;
+			case OP_VERSE_SEPARATOR:
+				visitor.visitVerseSeparator();
+				break;
+			case OP_LINE_BREAK:
+				visitor.visitLineBreak(LineBreakKind.values()[readVarInt(buf)]);
+				break;
+			case OP_GRAMMAR:
+				int[] strongs = readIntArray(buf);
+				String[] rmac = readStringArray(buf);
+				int[] sourceIndices = readIntArray(buf);
+				decodeContent(buf, visitor.visitGrammarInformation(strongs, rmac, sourceIndices));
+				break;
+			case OP_DICTIONARY_ENTRY:
+				String dictionary = readString(buf);
+				decodeContent(buf, visitor.visitDictionaryEntry(dictionary, readString(buf)));
+				break;
+			case OP_RAW_HTML:
+				RawHTMLMode mode = RawHTMLMode.values()[readVarInt(buf)];
+				visitor.visitRawHTML(mode, readString(buf));
+				break;
+			case OP_VARIATION:
+				decodeContent(buf, visitor.visitVariationText(readStringArray(buf)));
+				break;
+			case OP_EXTRA_ATTRIBUTE:
+				ExtraAttributePriority prio = ExtraAttributePriority.values()[readVarInt(buf)];
+				String category = readString(buf);
+				String key = readString(buf);
+				decodeContent(buf, visitor.visitExtraAttribute(prio, category, key, readString(buf)));
+				break;
+			default:
+				throw new IOException("Unknown opcode: " + op);
+			}
+		}
+	}
+
+	private static int readVarInt(ByteBuffer buf) {
+		int result = 0, shift = 0;
+		byte b;
+		do {
+			b = buf.get();
+			result |= (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return result;
+	}
+
+	private static String readString(ByteBuffer buf) {
+		int length = readVarInt(buf) - 1;
+		if (length == -1)
+			return null;
+		byte[] bytes = new byte[length];
+		buf.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static int[] readIntArray(ByteBuffer buf) {
+		int length = readVarInt(buf) - 1;
+		if (length == -1)
+			return null;
+		int[] result = new int[length];
+		for (int i = 0; i < length; i++) {
+			int value = readVarInt(buf);
+			result[i] = (value >>> 1) ^ -(value & 1);
+		}
+		return result;
+	}
+
+	private static String[] readStringArray(ByteBuffer buf) {
+		int length = readVarInt(buf) - 1;
+		if (length == -1)
+			return null;
+		String[] result = new String[length];
+		for (int i = 0; i < length; i++) {
+			result[i] = readString(buf);
+		}
+		return result;
+	}
+
+	private static void writeVarInt(OutputStream out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	private static void writeString(OutputStream out, String value) throws IOException {
+		if (value == null) {
+			writeVarInt(out, 0);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		writeVarInt(out, bytes.length + 1);
+		out.write(bytes);
+	}
+
+	private static void writeIntArray(OutputStream out, int[] value) throws IOException {
+		if (value == null) {
+			writeVarInt(out, 0);
+			return;
+		}
+		writeVarInt(out, value.length + 1);
+		for (int v : value) {
+			writeVarInt(out, (v << 1) ^ (v >> 31));
+		}
+	}
+
+	private static void writeStringArray(OutputStream out, String[] value) throws IOException {
+		if (value == null) {
+			writeVarInt(out, 0);
+			return;
+		}
+		writeVarInt(out, value.length + 1);
+		for (String v : value) {
+			writeString(out, v);
+		}
+	}
+
+	private static class SnapshotWriter implements BookSink {
+
+		private final File exportFile;
+		private File tempFile;
+		private final ByteArrayOutputStream index = new ByteArrayOutputStream();
+		private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+		private final EncodingVisitor encoder = new EncodingVisitor(content);
+		private OutputStream out;
+		private String bibleName;
+		private long offset;
+		private int bookCount;
+
+		private SnapshotWriter(File exportFile) {
+			this.exportFile = exportFile.getAbsoluteFile();
+		}
+
+		@Override
+		public void begin(String bibleName) throws Exception {
+			// bibles imported from an existing file still map it, so write
+			// a new file and replace the old one when finished
+			tempFile = File.createTempFile(".bimubi-", ".tmp", exportFile.getParentFile());
+			tempFile.deleteOnExit();
+			out = new BufferedOutputStream(new FileOutputStream(tempFile));
+			out.write(MAGIC);
+			out.write(new byte[4]);
+			offset = HEADER_SIZE;
+			this.bibleName = bibleName;
+		}
+
+		@Override
+		public void book(Book book) throws Exception {
+			writeString(index, book.getAbbr());
+			writeString(index, book.getId().getOsisID());
+			writeString(index, book.getShortName());
+			writeString(index, book.getLongName());
+			writeVarInt(index, book.getChapters().size());
+			for (Chapter chapter : book.getChapters()) {
+				writeVarInt(index, chapter.getProlog() == null ? 0 : writeContent(chapter.getProlog()));
+				writeVarInt(index, chapter.getVerses().size());
+				for (Verse verse : chapter.getVerses()) {
+					writeString(index, verse.getNumber());
+					writeVarInt(index, writeContent(verse));
+				}
+			}
+			bookCount++;
+		}
+
+		private int writeContent(FormattedText text) throws IOException {
+			if (offset > Integer.MAX_VALUE)
+				throw new IOException("Bible too large for binary snapshot");
+			int result = (int) offset;
+			content.reset();
+			text.accept(encoder);
+			ByteArrayOutputStream prefix = new ByteArrayOutputStream(5);
+			writeVarInt(prefix, content.size());
+			prefix.writeTo(out);
+			content.writeTo(out);
+			offset += prefix.size() + content.size();
+			return result;
+		}
+
+		@Override
+		public void end() throws Exception {
+			if (offset > Integer.MAX_VALUE)
+				throw new IOException("Bible too large for binary snapshot");
+			int indexOffset = (int) offset;
+			writeString(out, bibleName);
+			writeVarInt(out, bookCount);
+			index.writeTo(out);
+			out.close();
+			try (RandomAccessFile raf = new RandomAccessFile(tempFile, "rw")) {
+				raf.seek(MAGIC.length);
+				raf.writeInt(indexOffset);
+			}
+			Files.move(tempFile.toPath(), exportFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		@Override
+		public void abort(Exception cause) {
+			if (tempFile == null)
+				return;
+			try {
+				if (out != null)
+					out.close();
+			} catch (IOException ex) {
+				cause.addSuppressed(ex);
+			}
+			tempFile.delete();
+		}
+	}
+
+	private static class EncodingVisitor implements Visitor<IOException> {
+
+		private final OutputStream out;
+
+		private EncodingVisitor(OutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public int visitElementTypes(String elementTypes) throws IOException {
+			return 0;
+		}
+
+		@Override
+		public Visitor<IOException> visitHeadline(int depth) throws IOException {
+			out.write(OP_HEADLINE);
+			writeVarInt(out, depth);
+			return this;
+		}
+
+		@Override
+		public void visitStart() throws IOException {
+		}
+
+		@Override
+		public void visitText(String text) throws IOException {
+			out.write(OP_TEXT);
+			writeString(out, text);
+		}
+
+		@Override
+		public Visitor<IOException> visitFootnote() throws IOException {
+			out.write(OP_FOOTNOTE);
+			return this;
+		}
+
+		@Override
+		public Visitor<IOException> visitCrossReference(String bookAbbr, BookID book, int firstChapter, String firstVerse, int lastChapter, String lastVerse) throws IOException {
+			out.write(OP_XREF);
+			writeString(out, bookAbbr);
+			writeString(out, book.getOsisID());
+			writeVarInt(out, firstChapter);
+			writeString(out, firstVerse);
+			writeVarInt(out, lastChapter);
+			writeString(out, lastVerse);
+			return this;
+		}
+
+		@Override
+		public Visitor<IOException> visitFormattingInstruction(FormattingInstructionKind kind) throws IOException {
+			out.write(OP_FORMATTING);
+			writeVarInt(out, kind.ordinal());
+			return this;
+		}
+
+		@Override
+		public Visitor<IOException> visitCSSFormatting(String css) throws IOException {
+			out.write(OP_CSS);
+			writeString(out, css);
+			return this;
+		}
+
+		@Override
+		public void visitVerseSeparator() throws IOException {
+			out.write(OP_VERSE_SEPARATOR);
+		}
+
+		@Override
+		public void visitLineBreak(LineBreakKind kind) throws IOException {
+			out.write(OP_LINE_BREAK);
+			writeVarInt(out, kind.ordinal());
+		}
+
+		@Override
+		public Visitor<IOException> visitGrammarInformation(int[] strongs, String[] rmac, int[] sourceIndices) throws IOException {
+			out.write(OP_GRAMMAR);
+			writeIntArray(out, strongs);
+			writeStringArray(out, rmac);
+			writeIntArray(out, sourceIndices);
+			return this;
+		}
+
+		@Override
+		public Visitor<IOException> visitDictionaryEntry(String dictionary, String entry) throws IOException {
+			out.write(OP_DICTIONARY_ENTRY);
+			writeString(out, dictionary);
+			writeString(out, entry);
+			return this;
+		}
+
+		@Override
+		public void visitRawHTML(RawHTMLMode mode, String raw) throws IOException {
+			out.write(OP_RAW_HTML);
+			writeVarInt(out, mode.ordinal());
+			writeString(out, raw);
+		}
+
+		@Override
+		public Visitor<IOException> visitVariationText(String[] variations) throws IOException {
+			out.write(OP_VARIATION);
+			writeStringArray(out, variations);
+			return this;
+		}
+
+		@Override
+		public Visitor<IOException> visitExtraAttribute(ExtraAttributePriority prio, String category, String key, String value) throws IOException {
+			out.write(OP_EXTRA_ATTRIBUTE);
+			writeVarInt(out, prio.ordinal());
+			writeString(out, category);
+			writeString(out, key);
+			writeString(out, value);
+			return this;
+		}
+
+		@Override
+		public boolean visitEnd() throws IOException {
+			out.write(OP_END);
+			return false;
+		}
+	}
+
+	private static class BibleCollector implements BookSink {
+		private Bible bible;
+
+		@Override
+		public void begin(String bibleName) {
+			bible = new Bible(bibleName);
+		}
+
+		@Override
+		public void book(Book book) {
+			bible.getBooks().add(book);
+		}
+
+		@Override
+		public void end() {
+		}
+
+		@Override
+		public void abort(Exception cause) {
+		}
+	}
+}
@@ -0,0 +1,34 @@
+package biblemulticonverter.format;
+
+import biblemulticonverter.data.Book;
+
+/**
+ * Receiver of the books of a bible, one at a time. Used for converting bibles
+ * without keeping all books in memory at the same time.
+ */
+public interface BookSink {
+
+	/**
+	 * Called once before the first book.
+	 */
+	public void begin(String bibleName) throws Exception;
+
+	/**
+	 * Called for every book in order. The book is complete and its formatted
+	 * texts are finished; it may be modified or discarded by the sink.
+	 */
+	public void book(Book book) throws Exception;
+
+	/**
+	 * Called once after the last book.
+	 */
+	public void end() throws Exception;
+
+	/**
+	 * Called instead of {@link #end()} if the conversion failed, or after
+	 * {@link #end()} failed. Closes all files and deletes any partial output.
+	 * Errors while cleaning up are added to the given cause as suppressed
+	 * exceptions.
+	 */
+	public void abort(Exception cause);
+}
@@ -2,33 +2,34 @@ package biblemulticonverter.format;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
-import java.io.StringWriter;
+import java.io.Reader;
 import java.io.Writer;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.regex.Matcher;
 
+import biblemulticonverter.CompressedFiles;
 import biblemulticonverter.data.Bible;
 import biblemulticonverter.data.Book;
 import biblemulticonverter.data.BookID;
 import biblemulticonverter.data.Chapter;
+import biblemulticonverter.data.DeduplicationPool;
 import biblemulticonverter.data.FormattedText;
 import biblemulticonverter.data.FormattedText.ExtraAttributePriority;
 import biblemulticonverter.data.FormattedText.FormattingInstructionKind;
 import biblemulticonverter.data.FormattedText.LineBreakKind;
 import biblemulticonverter.data.FormattedText.RawHTMLMode;
 import biblemulticonverter.data.FormattedText.Visitor;
+import biblemulticonverter.data.LazyVerse;
 import biblemulticonverter.data.Utils;
 import biblemulticonverter.data.Verse;
 
-public class Compact implements RoundtripFormat {
+public class Compact implements RoundtripFormat, StreamingImportFormat, StreamingExportFormat, CompressionAwareFormat {
 
 	public static final String[] HELP_TEXT = {
 			"A text-format that is small and well-compressible.",
@@ -42,93 +43,212 @@ public class Compact implements RoundtripFormat {
 
 	private static final String MAGIC = "BiMuCo-1.0:";
 
+	private static final BookID[] BOOK_IDS = BookID.values();
+	private static final LineBreakKind[] LINE_BREAK_KINDS = LineBreakKind.values();
+	private static final RawHTMLMode[] RAW_HTML_MODES = RawHTMLMode.values();
+	private static final ExtraAttributePriority[] EXTRA_ATTRIBUTE_PRIORITIES = ExtraAttributePriority.values();
+	private static final FormattingInstructionKind[] FORMATTING_INSTRUCTION_KINDS = new FormattingInstructionKind[128];
+
+	static {
+		for (FormattingInstructionKind kind : FormattingInstructionKind.values()) {
+			FORMATTING_INSTRUCTION_KINDS[kind.getCode()] = kind;
+		}
+	}
+
 	@Override
 	public void doExport(Bible bible, String... exportArgs) throws Exception {
 		File exportFile = new File(exportArgs[0]);
-		try (Writer w = new OutputStreamWriter(new FileOutputStream(exportFile), StandardCharsets.UTF_8)) {
+		if (IncrementalExport.isEnabled()) {
+			IncrementalExport.doExport(exportFile, getClass(), MAGIC, bible, getBookExporter());
+			return;
+		}
+		try (Writer w = new OutputStreamWriter(CompressedFiles.openOutput(exportFile), StandardCharsets.UTF_8)) {
 			doExport(bible, w);
 		}
 	}
 
+	@Override
+	public BookSink createBookSink(String... exportArgs) throws Exception {
+		final File exportFile = new File(exportArgs[0]);
+		if (IncrementalExport.isEnabled())
+			return IncrementalExport.createBookSink(exportFile, getClass(), MAGIC, getBookExporter());
+		return new BookSink() {
+			private Writer w;
+
+			@Override
+			public void begin(String bibleName) throws Exception {
+				w = new OutputStreamWriter(CompressedFiles.openOutput(exportFile), StandardCharsets.UTF_8);
+				w.write(MAGIC + bibleName + "\n");
+			}
+
+			@Override
+			public void book(Book book) throws Exception {
+				exportBook(book, w);
+			}
+
+			@Override
+			public void end() throws Exception {
+				w.close();
+			}
+
+			@Override
+			public void abort(Exception cause) {
+				if (w == null)
+					return;
+				try {
+					w.close();
+				} catch (IOException ex) {
+					cause.addSuppressed(ex);
+				}
+				exportFile.delete();
+			}
+		};
+	}
+
 	protected void doExport(Bible bible, Writer w) throws IOException {
 		w.write(MAGIC + bible.getName() + "\n");
-		for (Book book : bible.getBooks()) {
-			w.write("=" + book.getAbbr() + "\t" + book.getId().getOsisID() + "\t" + book.getShortName() + "\t" + book.getLongName() + "\n");
-			boolean firstChapter = true;
-			int verseNum;
-			for (Chapter ch : book.getChapters()) {
-				if (firstChapter)
-					firstChapter = false;
-				else
-					w.write('+');
-				if (ch.getProlog() != null) {
-					w.write("0 ");
-					ch.getProlog().accept(new CompactVisitor(w, false));
-					w.write('\n');
-				}
-				verseNum = 1;
-				for (Verse v : ch.getVerses()) {
-					if (v.getNumber().equals("" + verseNum)) {
-						StringWriter sw = new StringWriter();
-						v.accept(new CompactVisitor(sw, false));
-						String s = sw.toString();
-						if (!s.matches("[A-Za-z].*"))
-							w.write(' ');
-						w.write(s);
-					} else {
-						w.write(v.getNumber() + " ");
-						v.accept(new CompactVisitor(w, false));
-						Matcher m = Utils.compilePattern("([0-9]+).*").matcher(v.getNumber());
-						if (!m.matches()) {
-							throw new IllegalStateException();
-						}
-						verseNum = Integer.parseInt(m.group(1));
-					}
-					verseNum++;
-					w.write('\n');
+		ParallelBookRenderer.render(bible.getBooks(), new ParallelBookRenderer.SimpleBookRenderer<Book>() {
+			@Override
+			public Void renderBook(Book book, ParallelBookRenderer.Buffer buffer) throws IOException {
+				exportBook(book, buffer);
+				return null;
+			}
+		}, w);
+	}
+
+	private IncrementalExport.BookExporter getBookExporter() {
+		return new IncrementalExport.BookExporter() {
+			@Override
+			public void exportBook(Book book, Writer w) throws IOException {
+				Compact.this.exportBook(book, w);
+			}
+		};
+	}
+
+	private void exportBook(Book book, Writer w) throws IOException {
+		w.write("=" + book.getAbbr() + "\t" + book.getId().getOsisID() + "\t" + book.getShortName() + "\t" + book.getLongName() + "\n");
+		CompactEmitter out = new CompactEmitter();
+		CompactVisitor visitor = new CompactVisitor(out, false);
+		boolean firstChapter = true;
+		int verseNum;
+		for (Chapter ch : book.getChapters()) {
+			if (firstChapter)
+				firstChapter = false;
+			else
+				w.write('+');
+			if (ch.getProlog() != null) {
+				w.write("0 ");
+				ch.getProlog().accept(visitor);
+				out.write('\n');
+				out.flushTo(w);
+			}
+			verseNum = 1;
+			for (Verse v : ch.getVerses()) {
+				String number = v.getNumber();
+				if (isNumber(number, verseNum)) {
+					v.accept(visitor);
+					if (out.length() == 0 || !isLetter(out.charAt(0)))
+						w.write(' ');
+				} else {
+					w.write(number);
+					w.write(' ');
+					v.accept(visitor);
+					verseNum = parseLeadingNumber(number);
 				}
+				verseNum++;
+				out.write('\n');
+				out.flushTo(w);
 			}
 		}
 	}
 
+	/**
+	 * Check whether the verse number is the decimal representation of the
+	 * given (positive) number.
+	 */
+	private static boolean isNumber(String number, int value) {
+		int length = number.length();
+		if (length == 0 || length > 10 || number.charAt(0) == '0')
+			return false;
+		long parsed = 0;
+		for (int i = 0; i < length; i++) {
+			char ch = number.charAt(i);
+			if (ch < '0' || ch > '9')
+				return false;
+			parsed = parsed * 10 + (ch - '0');
+		}
+		return parsed == value;
+	}
+
+	private static int parseLeadingNumber(String number) {
+		int end = 0;
+		while (end < number.length() && number.charAt(end) >= '0' && number.charAt(end) <= '9')
+			end++;
+		if (end == 0)
+			throw new IllegalStateException();
+		return Integer.parseInt(number.substring(0, end));
+	}
+
+	private static boolean isLetter(char ch) {
+		return (ch >= 'A' && ch <= 'Z') || (ch >= 'a' && ch <= 'z');
+	}
+
 	@Override
 	public Bible doImport(File inputFile) throws Exception {
-		try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(inputFile), StandardCharsets.UTF_8))) {
+		try (BufferedReader br = new BufferedReader(new InputStreamReader(CompressedFiles.openInput(inputFile), StandardCharsets.UTF_8))) {
 			return doImport(br);
 		}
 	}
 
-	protected Bible doImport(BufferedReader br) throws IOException {
-		String line = br.readLine();
-		if (!line.startsWith(MAGIC))
-			throw new IOException("Invalid header line: " + line);
-		Bible result = new Bible(line.substring(MAGIC.length()));
+	@Override
+	public void doImport(File inputFile, BookSink sink) throws Exception {
+		try (BufferedReader br = new BufferedReader(new InputStreamReader(CompressedFiles.openInput(inputFile), StandardCharsets.UTF_8))) {
+			doImport(br, sink);
+		}
+	}
+
+	protected Bible doImport(BufferedReader br) throws Exception {
+		BibleCollector collector = new BibleCollector();
+		doImport(br, collector);
+		return collector.bible;
+	}
+
+	protected void doImport(BufferedReader br, BookSink sink) throws Exception {
+		LineReader lr = new LineReader(br);
+		if (!lr.readLine() || !lr.startsWith(0, MAGIC))
+			throw new IOException("Invalid header line: " + lr);
+		sink.begin(new String(lr.line, MAGIC.length(), lr.length - MAGIC.length()));
+		boolean lazy = Boolean.getBoolean("biblemulticonverter.lazyverses");
+		DeduplicationPool pool = DeduplicationPool.getImportPool();
 		Book currentBook = null;
 		Chapter currentChapter = null;
 		int nextVerseNum = -1;
-		while ((line = br.readLine()) != null) {
-			if (line.length() == 0)
+		while (lr.readLine()) {
+			char[] line = lr.line;
+			int length = lr.length, pos = 0;
+			if (length == 0)
 				throw new IOException("Empty line");
-			char start = line.charAt(0);
+			char start = line[0];
 			while (start == '+') {
 				if (currentChapter == null)
 					currentBook.getChapters().add(new Chapter());
 				currentChapter = null;
 				nextVerseNum = -1;
-				line = line.substring(1);
-				if (line.length() == 0)
+				pos++;
+				if (pos == length)
 					throw new IOException("Empty line");
-				start = line.charAt(0);
+				start = line[pos];
 			}
 			if (start == '=') {
-				String[] fields = line.substring(1).split("\t", -1);
+				String[] fields = new String(line, pos + 1, length - pos - 1).split("\t", -1);
 				if (fields.length != 4)
-					throw new IOException("Unsupported chapter heading: " + line);
+					throw new IOException("Unsupported chapter heading: " + lr.toString(pos));
+				if (currentBook != null)
+					sink.book(currentBook);
 				currentBook = new Book(fields[0], BookID.fromOsisId(fields[1]), fields[2], fields[3]);
-				result.getBooks().add(currentBook);
 				currentChapter = null;
 				nextVerseNum = -1;
-			} else if (start == '0' && line.startsWith("0 ")) {
+			} else if (start == '0' && lr.startsWith(pos, "0 ")) {
 				if (currentChapter == null) {
 					currentChapter = new Chapter();
 					currentBook.getChapters().add(currentChapter);
@@ -137,42 +257,58 @@ public class Compact implements RoundtripFormat {
 				if (currentChapter.getProlog() != null)
 					throw new IOException("More than one prolog for the same chapter");
 				FormattedText prolog = new FormattedText();
-				parseCompact(prolog.getAppendVisitor(), line.substring(2));
+				parseCompact(prolog.getAppendVisitor(), line, pos + 2, length);
 				currentChapter.setProlog(prolog);
-				prolog.finished();
-			} else if (start >= '1' && start <= '9' && line.contains(" ")) {
+				prolog.finished(pool);
+			} else if (start >= '1' && start <= '9' && indexOf(line, ' ', pos, length) != -1) {
 				if (currentChapter == null) {
 					currentChapter = new Chapter();
 					currentBook.getChapters().add(currentChapter);
 				}
-				int pos = line.indexOf(' ');
-				Verse v = new Verse(line.substring(0, pos));
-				parseCompact(v.getAppendVisitor(), line.substring(pos + 1));
-				v.finished();
+				int spacePos = indexOf(line, ' ', pos, length);
+				Verse v = createVerse(new String(line, pos, spacePos - pos), line, spacePos + 1, length, lazy, pool);
 				currentChapter.getVerses().add(v);
-				Matcher m = Utils.compilePattern("([0-9]+).*").matcher(v.getNumber());
-				if (!m.matches()) {
-					throw new IllegalStateException();
-				}
-				nextVerseNum = Integer.parseInt(m.group(1)) + 1;
-			} else if (start == ' ' || (start >= 'A' && start <= 'Z') || (start >= 'a' && start <= 'z')) {
+				nextVerseNum = parseLeadingNumber(v.getNumber()) + 1;
+			} else if (start == ' ' || isLetter(start)) {
 				if (currentChapter == null) {
 					currentChapter = new Chapter();
 					currentBook.getChapters().add(currentChapter);
 					nextVerseNum = 1;
 				}
 				if (start == ' ')
-					line = line.substring(1);
-				Verse v = new Verse("" + nextVerseNum);
-				parseCompact(v.getAppendVisitor(), line);
-				v.finished();
+					pos++;
+				Verse v = createVerse(String.valueOf(nextVerseNum), line, pos, length, lazy, pool);
 				currentChapter.getVerses().add(v);
 				nextVerseNum++;
 			} else {
-				throw new IOException("Unsupported line: " + line);
+				throw new IOException("Unsupported line: " + lr.toString(pos));
 			}
 		}
-		return result;
+		if (currentBook != null)
+			sink.book(currentBook);
+		sink.end();
+	}
+
+	private Verse createVerse(String number, char[] line, int start, int end, boolean lazy, DeduplicationPool pool) throws IOException {
+		if (lazy) {
+			final char[] content = Arrays.copyOfRange(line, start, end);
+			return new LazyVerse(number, new LazyVerse.ContentSource() {
+				@Override
+				public void parse(Visitor<RuntimeException> visitor) throws IOException {
+					parseCompact(visitor, content, 0, content.length);
+				}
+
+				@Override
+				public void updateDigest(MessageDigest digest) {
+					Utils.updateDigest(digest, "Compact");
+					Utils.updateDigest(digest, new String(content));
+				}
+			});
+		}
+		Verse v = new Verse(number);
+		parseCompact(v.getAppendVisitor(), line, start, end);
+		v.finished(pool);
+		return v;
 	}
 
 	@Override
@@ -185,19 +321,23 @@ public class Compact implements RoundtripFormat {
 		return true;
 	}
 
-	private void parseCompact(Visitor<RuntimeException> visitor, String line) throws IOException {
-		int lastPos = 0, pos = line.indexOf('<');
+	/**
+	 * Parse the formatted text in the given range of a character buffer. Only
+	 * strings that end up in the parsed text are created.
+	 */
+	private void parseCompact(Visitor<RuntimeException> visitor, char[] line, int start, int end) throws IOException {
+		int lastPos = start, pos = indexOf(line, '<', start, end);
 		List<Visitor<RuntimeException>> visitorStack = new ArrayList<Visitor<RuntimeException>>();
-		String[] args;
+		int tagEnd, sep;
 		while (pos != -1) {
 			if (pos > lastPos) {
-				visitor.visitText(line.substring(lastPos, pos));
+				visitor.visitText(new String(line, lastPos, pos - lastPos));
 			}
-			char ch = line.charAt(pos + 1);
+			char ch = charAt(line, pos + 1, start, end);
 			lastPos = pos + 2;
 			if (ch >= 'a' && ch <= 'z') {
 				visitorStack.add(visitor);
-				visitor = visitor.visitFormattingInstruction(FormattingInstructionKind.fromChar(ch));
+				visitor = visitor.visitFormattingInstruction(formattingInstructionKind(ch));
 			} else {
 				switch (ch) {
 				case '/':
@@ -208,7 +348,7 @@ public class Compact implements RoundtripFormat {
 					break;
 				case 'H':
 					visitorStack.add(visitor);
-					visitor = visitor.visitHeadline(line.charAt(pos + 2) - '0');
+					visitor = visitor.visitHeadline(charAt(line, pos + 2, start, end) - '0');
 					lastPos++;
 					break;
 				case 'F':
@@ -216,213 +356,551 @@ public class Compact implements RoundtripFormat {
 					visitor = visitor.visitFootnote();
 					break;
 				case 'C':
-					lastPos = line.indexOf('>', pos) + 1;
+					tagEnd = indexOf(line, '>', pos, end, start);
+					lastPos = tagEnd + 1;
 					visitorStack.add(visitor);
-					visitor = visitor.visitCSSFormatting(line.substring(pos + 2, lastPos - 1));
+					visitor = visitor.visitCSSFormatting(new String(line, pos + 2, tagEnd - pos - 2));
 					break;
 				case 'V':
 					visitor.visitVerseSeparator();
 					break;
 				case 'B':
-					visitor.visitLineBreak(LineBreakKind.values()[line.charAt(pos + 2) - '0']);
+					visitor.visitLineBreak(LINE_BREAK_KINDS[charAt(line, pos + 2, start, end) - '0']);
 					lastPos++;
 					break;
 				case 'G':
-					lastPos = line.indexOf('>', pos) + 1;
-					args = line.substring(pos + 2, lastPos - 1).split(" ");
-					int[] strongs = new int[args.length];
-					String[] rmacs = new String[args.length];
-					int[] idxs = new int[args.length];
-					int scount = 0, rcount = 0, icount = 0;
-					for (int i = 0; i < args.length; i++) {
-						String[] parts = args[i].split(":");
-						strongs[i] = parts[0].isEmpty() ? -1 : Integer.parseInt(parts[0]);
-						if (parts.length > 1 && !parts[1].isEmpty())
-							rmacs[i] = parts[1];
-						else
-							rmacs[i] = null;
-						if (parts.length > 2)
-							idxs[i] = Integer.parseInt(parts[2]);
-						else
-							idxs[i] = -1;
-						if (strongs[i] != -1)
-							scount = i + 1;
-						if (rmacs[i] != null)
-							rcount = i + 1;
-						if (idxs[i] != -1)
-							icount = i + 1;
-					}
-					strongs = scount == 0 ? null : Arrays.copyOf(strongs, scount);
-					rmacs = rcount == 0 ? null : Arrays.copyOf(rmacs, rcount);
-					idxs = icount == 0 ? null : Arrays.copyOf(idxs, icount);
+					tagEnd = indexOf(line, '>', pos, end, start);
+					lastPos = tagEnd + 1;
 					visitorStack.add(visitor);
-					visitor = visitor.visitGrammarInformation(strongs, rmacs, idxs);
+					visitor = parseGrammarInformation(visitor, line, pos + 2, tagEnd);
 					break;
 				case 'D':
-					lastPos = line.indexOf('>', pos) + 1;
-					args = line.substring(pos + 2, lastPos - 1).split(" ");
+					tagEnd = indexOf(line, '>', pos, end, start);
+					lastPos = tagEnd + 1;
+					sep = indexOf(line, ' ', pos + 2, tagEnd, start);
 					visitorStack.add(visitor);
-					visitor = visitor.visitDictionaryEntry(args[0], args[1]);
+					visitor = visitor.visitDictionaryEntry(new String(line, pos + 2, sep - pos - 2), field(line, sep + 1, tagEnd));
 					break;
 				case 'O':
-					lastPos = line.indexOf('>', pos) + 1;
-					args = line.substring(pos + 2, lastPos - 1).split(",");
+					tagEnd = indexOf(line, '>', pos, end, start);
+					lastPos = tagEnd + 1;
 					visitorStack.add(visitor);
-					visitor = visitor.visitVariationText(args);
+					visitor = visitor.visitVariationText(parseVariations(line, pos + 2, tagEnd));
 					break;
 				case 'R':
-					lastPos = line.indexOf(line.charAt(pos + 3), pos + 4) + 1;
-					visitor.visitRawHTML(RawHTMLMode.values()[line.charAt(pos + 2) - '0'], line.substring(pos + 4, lastPos - 1));
+					tagEnd = indexOf(line, charAt(line, pos + 3, start, end), pos + 4, end, start);
+					lastPos = tagEnd + 1;
+					visitor.visitRawHTML(RAW_HTML_MODES[line[pos + 2] - '0'], new String(line, pos + 4, tagEnd - pos - 4));
 					break;
 				case 'E':
-					lastPos = line.indexOf('>', pos) + 1;
-					args = line.substring(pos + 3, lastPos - 1).split(" ");
+					tagEnd = indexOf(line, '>', pos, end, start);
+					lastPos = tagEnd + 1;
+					ExtraAttributePriority prio = EXTRA_ATTRIBUTE_PRIORITIES[line[pos + 2] - '0'];
+					sep = indexOf(line, ' ', pos + 3, tagEnd, start);
+					String category = new String(line, pos + 3, sep - pos - 3);
+					int keyStart = sep + 1;
+					sep = indexOf(line, ' ', keyStart, tagEnd, start);
 					visitorStack.add(visitor);
-					visitor = visitor.visitExtraAttribute(ExtraAttributePriority.values()[line.charAt(pos + 2) - '0'], args[0], args[1], args[2]);
+					visitor = visitor.visitExtraAttribute(prio, category, new String(line, keyStart, sep - keyStart), field(line, sep + 1, tagEnd));
 					break;
 				case 'X':
-					lastPos = line.indexOf('>', pos) + 1;
-					args = line.substring(pos + 2, lastPos - 1).split(" ");
+					tagEnd = indexOf(line, '>', pos, end, start);
+					lastPos = tagEnd + 1;
 					visitorStack.add(visitor);
-					visitor = visitor.visitCrossReference(args[0], BookID.fromOsisId(args[1]), Integer.parseInt(args[2]), args[3], Integer.parseInt(args[4]), args[5]);
+					visitor = parseCrossReference(visitor, line, pos + 2, tagEnd, start);
 					break;
 				default:
-					throw new IOException("Unknown tag: " + ch + " in " + line);
+					throw new IOException("Unknown tag: " + ch + " in " + new String(line, start, end - start));
 				}
 			}
-			pos = line.indexOf('<', lastPos);
+			pos = indexOf(line, '<', lastPos, end);
 		}
-		if (lastPos < line.length())
-			visitor.visitText(line.substring(lastPos));
+		if (lastPos < end)
+			visitor.visitText(new String(line, lastPos, end - lastPos));
 		if (visitorStack.size() > 0)
-			throw new RuntimeException("Unclosed tags: " + line);
+			throw new RuntimeException("Unclosed tags: " + new String(line, start, end - start));
+	}
+
+	private static Visitor<RuntimeException> parseGrammarInformation(Visitor<RuntimeException> visitor, char[] line, int start, int end) {
+		// trailing empty arguments are ignored, like in String#split
+		while (end > start && line[end - 1] == ' ')
+			end--;
+		int count = 1;
+		for (int i = start; i < end; i++) {
+			if (line[i] == ' ')
+				count++;
+		}
+		int[] strongs = new int[count];
+		String[] rmacs = new String[count];
+		int[] idxs = new int[count];
+		int scount = 0, rcount = 0, icount = 0;
+		int argStart = start;
+		for (int i = 0; i < count; i++) {
+			int argEnd = indexOf(line, ' ', argStart, end);
+			if (argEnd == -1)
+				argEnd = end;
+			int partEnd = indexOf(line, ':', argStart, argEnd);
+			strongs[i] = (partEnd == argStart || argStart == argEnd) ? -1 : parseInt(line, argStart, partEnd == -1 ? argEnd : partEnd);
+			rmacs[i] = null;
+			idxs[i] = -1;
+			if (partEnd != -1) {
+				int partStart = partEnd + 1;
+				partEnd = indexOf(line, ':', partStart, argEnd);
+				int rmacEnd = partEnd == -1 ? argEnd : partEnd;
+				if (rmacEnd > partStart)
+					rmacs[i] = new String(line, partStart, rmacEnd - partStart);
+				if (partEnd != -1) {
+					partStart = partEnd + 1;
+					partEnd = indexOf(line, ':', partStart, argEnd);
+					if ((partEnd == -1 ? argEnd : partEnd) > partStart)
+						idxs[i] = parseInt(line, partStart, partEnd == -1 ? argEnd : partEnd);
+				}
+			}
+			if (strongs[i] != -1)
+				scount = i + 1;
+			if (rmacs[i] != null)
+				rcount = i + 1;
+			if (idxs[i] != -1)
+				icount = i + 1;
+			argStart = argEnd + 1;
+		}
+		strongs = scount == 0 ? null : scount == count ? strongs : Arrays.copyOf(strongs, scount);
+		rmacs = rcount == 0 ? null : rcount == count ? rmacs : Arrays.copyOf(rmacs, rcount);
+		idxs = icount == 0 ? null : icount == count ? idxs : Arrays.copyOf(idxs, icount);
+		return visitor.visitGrammarInformation(strongs, rmacs, idxs);
+	}
+
+	private static String[] parseVariations(char[] line, int start, int end) {
+		// trailing empty variations are ignored, like in String#split
+		while (end > start && line[end - 1] == ',')
+			end--;
+		int count = 1;
+		for (int i = start; i < end; i++) {
+			if (line[i] == ',')
+				count++;
+		}
+		String[] variations = new String[count];
+		int varStart = start;
+		for (int i = 0; i < count; i++) {
+			int varEnd = indexOf(line, ',', varStart, end);
+			if (varEnd == -1)
+				varEnd = end;
+			variations[i] = new String(line, varStart, varEnd - varStart);
+			varStart = varEnd + 1;
+		}
+		return variations;
+	}
+
+	private static Visitor<RuntimeException> parseCrossReference(Visitor<RuntimeException> visitor, char[] line, int start, int end, int textStart) throws IOException {
+		int sep = indexOf(line, ' ', start, end, textStart);
+		String bookAbbr = new String(line, start, sep - start);
+		int fieldStart = sep + 1;
+		sep = indexOf(line, ' ', fieldStart, end, textStart);
+		BookID book = bookIDFromOsisId(line, fieldStart, sep);
+		fieldStart = sep + 1;
+		sep = indexOf(line, ' ', fieldStart, end, textStart);
+		int firstChapter = parseInt(line, fieldStart, sep);
+		fieldStart = sep + 1;
+		sep = indexOf(line, ' ', fieldStart, end, textStart);
+		String firstVerse = new String(line, fieldStart, sep - fieldStart);
+		fieldStart = sep + 1;
+		sep = indexOf(line, ' ', fieldStart, end, textStart);
+		int lastChapter = parseInt(line, fieldStart, sep);
+		return visitor.visitCrossReference(bookAbbr, book, firstChapter, firstVerse, lastChapter, field(line, sep + 1, end));
+	}
+
+	private static FormattingInstructionKind formattingInstructionKind(char ch) {
+		FormattingInstructionKind result = FORMATTING_INSTRUCTION_KINDS[ch];
+		if (result == null)
+			throw new IllegalArgumentException("Char: " + ch);
+		return result;
 	}
 
-	private static class CompactVisitor implements Visitor<IOException> {
+	private static BookID bookIDFromOsisId(char[] line, int start, int end) {
+		for (BookID id : BOOK_IDS) {
+			String osisID = id.getOsisID();
+			if (osisID.length() == end - start && regionMatches(line, start, osisID))
+				return id;
+		}
+		throw new IllegalArgumentException("Unsupported OSIS ID: " + new String(line, start, end - start));
+	}
+
+	private static boolean regionMatches(char[] line, int start, String value) {
+		for (int i = 0; i < value.length(); i++) {
+			if (line[start + i] != value.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Return the string up to the next space or the end of the range, like the
+	 * corresponding element of the result of String#split.
+	 */
+	private static String field(char[] line, int start, int end) {
+		int fieldEnd = indexOf(line, ' ', start, end);
+		if (fieldEnd == -1)
+			fieldEnd = end;
+		return new String(line, start, fieldEnd - start);
+	}
 
-		private final Writer w;
+	private static int parseInt(char[] line, int start, int end) {
+		if (start == end || end - start > 9)
+			return Integer.parseInt(new String(line, start, end - start));
+		int result = 0;
+		for (int i = start; i < end; i++) {
+			char ch = line[i];
+			if (ch < '0' || ch > '9')
+				return Integer.parseInt(new String(line, start, end - start));
+			result = result * 10 + (ch - '0');
+		}
+		return result;
+	}
+
+	private static int indexOf(char[] line, char ch, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (line[i] == ch)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Like {@link #indexOf(char[], char, int, int)}, but fail if the character
+	 * is missing in the formatted text that starts at the given position.
+	 */
+	private static int indexOf(char[] line, char ch, int start, int end, int textStart) throws IOException {
+		int result = indexOf(line, ch, start, end);
+		if (result == -1)
+			throw new IOException("Missing '" + ch + "' after position " + (start - textStart) + " in " + new String(line, textStart, end - textStart));
+		return result;
+	}
+
+	private static char charAt(char[] line, int pos, int textStart, int end) throws IOException {
+		if (pos >= end)
+			throw new IOException("Incomplete tag in " + new String(line, textStart, end - textStart));
+		return line[pos];
+	}
+
+	/**
+	 * Reads lines into a reusable character buffer, without creating a string
+	 * for every line. Line terminators are the same as for
+	 * {@link BufferedReader#readLine()}.
+	 */
+	private static class LineReader {
+
+		private final Reader r;
+		private final char[] buffer = new char[8192];
+		private int bufferPos = 0, bufferLength = 0;
+		private boolean skipLF = false;
+		private char[] line = new char[256];
+		private int length = 0;
+
+		private LineReader(Reader r) {
+			this.r = r;
+		}
+
+		private boolean readLine() throws IOException {
+			length = 0;
+			while (true) {
+				if (bufferPos == bufferLength) {
+					bufferLength = r.read(buffer, 0, buffer.length);
+					bufferPos = 0;
+					if (bufferLength == -1) {
+						bufferLength = 0;
+						return length > 0;
+					}
+				}
+				if (skipLF) {
+					skipLF = false;
+					if (buffer[bufferPos] == '\n') {
+						bufferPos++;
+						continue;
+					}
+				}
+				int end = bufferPos;
+				while (end < bufferLength && buffer[end] != '\n' && buffer[end] != '\r')
+					end++;
+				if (length + end - bufferPos > line.length)
+					line = Arrays.copyOf(line, Math.max(line.length * 2, length + end - bufferPos));
+				System.arraycopy(buffer, bufferPos, line, length, end - bufferPos);
+				length += end - bufferPos;
+				if (end < bufferLength) {
+					skipLF = buffer[end] == '\r';
+					bufferPos = end + 1;
+					return true;
+				}
+				bufferPos = end;
+			}
+		}
+
+		private boolean startsWith(int pos, String prefix) {
+			return length - pos >= prefix.length() && regionMatches(line, pos, prefix);
+		}
+
+		private String toString(int pos) {
+			return new String(line, pos, length - pos);
+		}
+
+		@Override
+		public String toString() {
+			return toString(0);
+		}
+	}
+
+	/**
+	 * Growable character buffer that collects the output of
+	 * {@link CompactVisitor} before it is written.
+	 */
+	private static class CompactEmitter {
+
+		private char[] buffer = new char[1024];
+		private int length = 0;
+
+		private int length() {
+			return length;
+		}
+
+		private char charAt(int index) {
+			return buffer[index];
+		}
+
+		private void ensureCapacity(int additional) {
+			if (length + additional > buffer.length)
+				buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + additional));
+		}
+
+		private void write(char ch) {
+			ensureCapacity(1);
+			buffer[length++] = ch;
+		}
+
+		private void write(String str) {
+			int strLength = str.length();
+			ensureCapacity(strLength);
+			str.getChars(0, strLength, buffer, length);
+			length += strLength;
+		}
+
+		private void writeText(String text) {
+			int textLength = text.length();
+			ensureCapacity(textLength * 2);
+			for (int i = 0; i < textLength; i++) {
+				char ch = text.charAt(i);
+				buffer[length++] = ch;
+				if (ch == '<')
+					buffer[length++] = '<';
+			}
+		}
+
+		private void write(int value) {
+			if (value < 0) {
+				write('-');
+				if (value == Integer.MIN_VALUE) {
+					write(String.valueOf(value).substring(1));
+					return;
+				}
+				value = -value;
+			}
+			int digits = 1;
+			for (int v = value; v >= 10; v /= 10)
+				digits++;
+			ensureCapacity(digits);
+			for (int i = length + digits - 1; i >= length; i--) {
+				buffer[i] = (char) ('0' + value % 10);
+				value /= 10;
+			}
+			length += digits;
+		}
+
+		private void flushTo(Writer w) throws IOException {
+			w.write(buffer, 0, length);
+			length = 0;
+		}
+	}
+
+	private static class CompactVisitor implements Visitor<RuntimeException> {
+
+		private final CompactEmitter out;
 		private final boolean writeSuffix;
 		private final CompactVisitor childVisitor;
 
-		private CompactVisitor(Writer w, boolean writeSuffix) {
-			this.w = w;
+		private CompactVisitor(CompactEmitter out, boolean writeSuffix) {
+			this.out = out;
 			this.writeSuffix = writeSuffix;
-			childVisitor = writeSuffix ? this : new CompactVisitor(w, true);
+			childVisitor = writeSuffix ? this : new CompactVisitor(out, true);
 		}
 
 		@Override
-		public int visitElementTypes(String elementTypes) throws IOException {
+		public int visitElementTypes(String elementTypes) {
 			return 0;
 		}
 
 		@Override
-		public Visitor<IOException> visitHeadline(int depth) throws IOException {
-			w.write("<H" + depth);
+		public Visitor<RuntimeException> visitHeadline(int depth) {
+			out.write("<H");
+			out.write(depth);
 			return childVisitor;
 		}
 
 		@Override
-		public void visitStart() throws IOException {
+		public void visitStart() {
 		}
 
 		@Override
-		public void visitText(String text) throws IOException {
-			w.write(text.replace("<", "<<"));
+		public void visitText(String text) {
+			out.writeText(text);
 		}
 
 		@Override
-		public Visitor<IOException> visitFootnote() throws IOException {
-			w.write("<F");
+		public Visitor<RuntimeException> visitFootnote() {
+			out.write("<F");
 			return childVisitor;
 		}
 
 		@Override
-		public Visitor<IOException> visitCrossReference(String bookAbbr, BookID book, int firstChapter, String firstVerse, int lastChapter, String lastVerse) throws IOException {
-			w.write("<X" + bookAbbr + " " + book.getOsisID() + " " + firstChapter + " " + firstVerse + " " + lastChapter + " " + lastVerse + ">");
+		public Visitor<RuntimeException> visitCrossReference(String bookAbbr, BookID book, int firstChapter, String firstVerse, int lastChapter, String lastVerse) {
+			out.write("<X");
+			out.write(bookAbbr);
+			out.write(' ');
+			out.write(book.getOsisID());
+			out.write(' ');
+			out.write(firstChapter);
+			out.write(' ');
+			out.write(firstVerse);
+			out.write(' ');
+			out.write(lastChapter);
+			out.write(' ');
+			out.write(lastVerse);
+			out.write('>');
 			return childVisitor;
 		}
 
 		@Override
-		public Visitor<IOException> visitFormattingInstruction(FormattingInstructionKind kind) throws IOException {
-			w.write("<" + kind.getCode());
+		public Visitor<RuntimeException> visitFormattingInstruction(FormattingInstructionKind kind) {
+			out.write('<');
+			out.write(kind.getCode());
 			return childVisitor;
 		}
 
 		@Override
-		public Visitor<IOException> visitCSSFormatting(String css) throws IOException {
-			w.write("<C" + css + ">");
+		public Visitor<RuntimeException> visitCSSFormatting(String css) {
+			out.write("<C");
+			out.write(css);
+			out.write('>');
 			return childVisitor;
 		}
 
 		@Override
-		public void visitVerseSeparator() throws IOException {
-			w.write("<V");
+		public void visitVerseSeparator() {
+			out.write("<V");
 		}
 
 		@Override
-		public void visitLineBreak(LineBreakKind kind) throws IOException {
-			w.write("<B" + kind.ordinal());
+		public void visitLineBreak(LineBreakKind kind) {
+			out.write("<B");
+			out.write(kind.ordinal());
 		}
 
 		@Override
-		public Visitor<IOException> visitGrammarInformation(int[] strongs, String[] rmac, int[] sourceIndices) throws IOException {
-			w.write("<G");
+		public Visitor<RuntimeException> visitGrammarInformation(int[] strongs, String[] rmac, int[] sourceIndices) {
+			out.write("<G");
 			int max = Math.max(Math.max(strongs == null ? 0 : strongs.length, rmac == null ? 0 : rmac.length), sourceIndices == null ? 0 : sourceIndices.length);
 			for (int i = 0; i < max; i++) {
-				w.write(i > 0 ? " " : "");
+				if (i > 0)
+					out.write(' ');
 				boolean r = rmac != null && i < rmac.length;
 				boolean si = sourceIndices != null && i < sourceIndices.length;
 				if (strongs != null && i < strongs.length)
-					w.write("" + strongs[i]);
+					out.write(strongs[i]);
 				if (r || si) {
-					w.write(":");
+					out.write(':');
 					if (r)
-						w.write(rmac[i]);
-					if (si)
-						w.write(":" + sourceIndices[i]);
+						out.write(rmac[i]);
+					if (si) {
+						out.write(':');
+						out.write(sourceIndices[i]);
+					}
 				}
 			}
-			w.write(">");
+			out.write('>');
 			return childVisitor;
 		}
 
 		@Override
-		public Visitor<IOException> visitDictionaryEntry(String dictionary, String entry) throws IOException {
-			w.write("<D" + dictionary + " " + entry + ">");
+		public Visitor<RuntimeException> visitDictionaryEntry(String dictionary, String entry) {
+			out.write("<D");
+			out.write(dictionary);
+			out.write(' ');
+			out.write(entry);
+			out.write('>');
 			return childVisitor;
 		}
 
 		@Override
-		public void visitRawHTML(RawHTMLMode mode, String raw) throws IOException {
+		public void visitRawHTML(RawHTMLMode mode, String raw) {
 			char marker = '!';
 			while (raw.indexOf(marker) != -1)
 				marker++;
-			w.write("<R" + mode.ordinal() + marker + raw + marker);
+			out.write("<R");
+			out.write(mode.ordinal());
+			out.write(marker);
+			out.write(raw);
+			out.write(marker);
 		}
 
 		@Override
-		public Visitor<IOException> visitVariationText(String[] variations) throws IOException {
-			w.write("<O");
+		public Visitor<RuntimeException> visitVariationText(String[] variations) {
+			out.write("<O");
 			for (int i = 0; i < variations.length; i++) {
 				if (i != 0)
-					w.write(',');
-				w.write(variations[i]);
+					out.write(',');
+				out.write(variations[i]);
 			}
-			w.write(">");
+			out.write('>');
 			return childVisitor;
 		}
 
 		@Override
-		public Visitor<IOException> visitExtraAttribute(ExtraAttributePriority prio, String category, String key, String value) throws IOException {
-			w.write("<E" + prio.ordinal() + category + " " + key + " " + value + ">");
+		public Visitor<RuntimeException> visitExtraAttribute(ExtraAttributePriority prio, String category, String key, String value) {
+			out.write("<E");
+			out.write(prio.ordinal());
+			out.write(category);
+			out.write(' ');
+			out.write(key);
+			out.write(' ');
+			out.write(value);
+			out.write('>');
 			return childVisitor;
 		}
 
 		@Override
-		public boolean visitEnd() throws IOException {
+		public boolean visitEnd() {
 			if (writeSuffix)
-				w.write("</");
+				out.write("</");
 			return false;
 		}
 	}
+
+	private static class BibleCollector implements BookSink {
+		private Bible bible;
+
+		@Override
+		public void begin(String bibleName) {
+			bible = new Bible(bibleName);
+		}
+
+		@Override
+		public void book(Book book) {
+			bible.getBooks().add(book);
+		}
+
+		@Override
+		public void end() {
+		}
+
+		@Override
+		public void abort(Exception cause) {
+		}
+	}
 }
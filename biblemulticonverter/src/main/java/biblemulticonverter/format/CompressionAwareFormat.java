@@ -0,0 +1,11 @@
+package biblemulticonverter.format;
+
+/**
+ * An import or export format that opens its files with
+ * {@link biblemulticonverter.CompressedFiles#openInput(java.io.File)} and
+ * {@link biblemulticonverter.CompressedFiles#openOutput(java.io.File)}, so
+ * that compressed files are read and written directly instead of through
+ * temporary copies.
+ */
+public interface CompressionAwareFormat {
+}
@@ -2,31 +2,41 @@ package biblemulticonverter.format;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
+import biblemulticonverter.CompressedFiles;
 import biblemulticonverter.data.Bible;
 import biblemulticonverter.data.Book;
 import biblemulticonverter.data.BookID;
 import biblemulticonverter.data.Chapter;
+import biblemulticonverter.data.DeduplicationPool;
 import biblemulticonverter.data.FormattedText;
 import biblemulticonverter.data.FormattedText.ExtraAttributePriority;
 import biblemulticonverter.data.FormattedText.FormattingInstructionKind;
 import biblemulticonverter.data.FormattedText.LineBreakKind;
 import biblemulticonverter.data.FormattedText.RawHTMLMode;
 import biblemulticonverter.data.FormattedText.Visitor;
+import biblemulticonverter.data.LazyVerse;
+import biblemulticonverter.data.Utils;
 import biblemulticonverter.data.Verse;
 
-public class Diffable implements RoundtripFormat {
+public class Diffable implements RoundtripFormat, StreamingExportFormat, CompressionAwareFormat {
 
 	public static final String[] HELP_TEXT = {
 			"A VPL-like text-format that can be diffed easily.",
@@ -39,138 +49,376 @@ public class Diffable implements RoundtripFormat {
 
 	private static final String MAGIC = "BibleMultiConverter-1.0 Title: ";
 
+	private static final ConcurrentMap<Integer, ForkJoinPool> POOLS = new ConcurrentHashMap<Integer, ForkJoinPool>();
+
 	@Override
 	public void doExport(Bible bible, String... exportArgs) throws Exception {
 		File exportFile = new File(exportArgs[0]);
-		try (Writer w = new OutputStreamWriter(new FileOutputStream(exportFile), StandardCharsets.UTF_8)) {
+		if (IncrementalExport.isEnabled()) {
+			IncrementalExport.doExport(exportFile, getClass(), MAGIC, bible, getBookExporter());
+			return;
+		}
+		try (Writer w = new OutputStreamWriter(CompressedFiles.openOutput(exportFile), StandardCharsets.UTF_8)) {
 			doExport(bible, w);
 		}
 	}
 
+	@Override
+	public BookSink createBookSink(String... exportArgs) throws Exception {
+		final File exportFile = new File(exportArgs[0]);
+		if (IncrementalExport.isEnabled())
+			return IncrementalExport.createBookSink(exportFile, getClass(), MAGIC, getBookExporter());
+		return new BookSink() {
+			private Writer w;
+
+			@Override
+			public void begin(String bibleName) throws Exception {
+				w = new OutputStreamWriter(CompressedFiles.openOutput(exportFile), StandardCharsets.UTF_8);
+				w.write(MAGIC + bibleName + "\n");
+			}
+
+			@Override
+			public void book(Book book) throws Exception {
+				exportBook(book, w);
+			}
+
+			@Override
+			public void end() throws Exception {
+				w.close();
+			}
+
+			@Override
+			public void abort(Exception cause) {
+				if (w == null)
+					return;
+				try {
+					w.close();
+				} catch (IOException ex) {
+					cause.addSuppressed(ex);
+				}
+				exportFile.delete();
+			}
+		};
+	}
+
 	protected void doExport(Bible bible, Writer w) throws IOException {
 		w.write(MAGIC + bible.getName() + "\n");
-		for (Book book : bible.getBooks()) {
-			w.write(book.getAbbr() + " = " + book.getId().getOsisID() + "\t" + book.getShortName() + "\t" + book.getLongName() + "\n");
-			int chapterNumber = 0;
-			for (Chapter ch : book.getChapters()) {
-				chapterNumber++;
-				if (ch.getProlog() != null) {
-					ch.getProlog().accept(new DiffableVisitor(w, book.getAbbr() + " " + chapterNumber + " "));
-				}
-				for (Verse v : ch.getVerses()) {
-					v.accept(new DiffableVisitor(w, book.getAbbr() + " " + chapterNumber + ":" + v.getNumber() + " "));
-				}
+		ParallelBookRenderer.render(bible.getBooks(), new ParallelBookRenderer.SimpleBookRenderer<Book>() {
+			@Override
+			public Void renderBook(Book book, ParallelBookRenderer.Buffer buffer) throws IOException {
+				exportBook(book, buffer);
+				return null;
+			}
+		}, w);
+	}
+
+	private IncrementalExport.BookExporter getBookExporter() {
+		return new IncrementalExport.BookExporter() {
+			@Override
+			public void exportBook(Book book, Writer w) throws IOException {
+				Diffable.this.exportBook(book, w);
+			}
+		};
+	}
+
+	private void exportBook(Book book, Writer w) throws IOException {
+		w.write(book.getAbbr() + " = " + book.getId().getOsisID() + "\t" + book.getShortName() + "\t" + book.getLongName() + "\n");
+		int chapterNumber = 0;
+		for (Chapter ch : book.getChapters()) {
+			chapterNumber++;
+			if (ch.getProlog() != null) {
+				ch.getProlog().accept(new DiffableVisitor(w, book.getAbbr() + " " + chapterNumber + " "));
+			}
+			for (Verse v : ch.getVerses()) {
+				v.accept(new DiffableVisitor(w, book.getAbbr() + " " + chapterNumber + ":" + v.getNumber() + " "));
 			}
 		}
 	}
 
 	@Override
 	public Bible doImport(File inputFile) throws Exception {
-		try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(inputFile), StandardCharsets.UTF_8))) {
+		try (BufferedReader br = new BufferedReader(new InputStreamReader(CompressedFiles.openInput(inputFile), StandardCharsets.UTF_8))) {
 			return doImport(br);
 		}
 	}
 
+	/**
+	 * Parse a bible in Diffable format. If the system property
+	 * <code>biblemulticonverter.importthreads</code> is larger than its
+	 * default of 1, books are parsed concurrently. That needs all lines of the
+	 * file in memory (as strings, so about twice the file size for mostly
+	 * ASCII text) until parsing is finished, while the sequential import only
+	 * keeps the current line. Files that move or reorder books are always
+	 * parsed sequentially.
+	 */
 	protected Bible doImport(BufferedReader br) throws IOException {
 		String line = br.readLine();
 		if (!line.startsWith(MAGIC))
 			throw new IOException("Invalid header line: " + line);
 		Bible result = new Bible(line.substring(MAGIC.length()));
+		boolean lazy = Boolean.getBoolean("biblemulticonverter.lazyverses");
+		int threads = Integer.getInteger("biblemulticonverter.importthreads", 1);
 		Map<String, Book> bookMap = new HashMap<String, Book>();
-		while ((line = br.readLine()) != null) {
-			line = line.trim();
-			if (line.length() == 0 || line.startsWith("#"))
-				continue;
+		Map<Verse, List<String>> lazyVerseLines = lazy ? new IdentityHashMap<Verse, List<String>>() : null;
+		DeduplicationPool pool = DeduplicationPool.getImportPool();
+		if (threads > 1) {
+			// parsing books in parallel needs all lines in memory
+			List<String> lines = new ArrayList<String>();
+			while ((line = br.readLine()) != null) {
+				lines.add(line);
+			}
+			List<List<String>> bookLines = splitAtBooks(lines);
+			if (bookLines != null && bookLines.size() > 1) {
+				result.getBooks().addAll(parseBooksParallel(result.getName(), bookLines, lazy, pool, threads));
+				return result;
+			}
+			for (String l : lines) {
+				parseLine(l, result, bookMap, lazyVerseLines);
+			}
+		} else {
+			while ((line = br.readLine()) != null) {
+				parseLine(line, result, bookMap, lazyVerseLines);
+			}
+		}
+		for (Book book : result.getBooks()) {
+			finishBook(book, pool);
+		}
+		return result;
+	}
 
-			String[] parts = line.split(" ", 3);
-			if (parts.length != 3)
-				throw new IOException("Not enough fields: " + line);
-			try {
-				if (parts[1].equals("=")) {
-					String[] fields = parts[2].split("\t");
-					if (fields.length != 3)
-						throw new IOException("Malformed header line (not 3 fields): " + parts[3]);
-					BookID id = BookID.fromOsisId(fields[0]);
-					if (id == null)
-						throw new IOException("Unknown book ID: " + fields[0]);
-					Book newBook = new Book(parts[0], id, fields[1], fields[2]);
-					result.getBooks().add(newBook);
-					Book oldBook = bookMap.get(parts[0]);
-					if (oldBook != null) {
-						newBook.getChapters().addAll(oldBook.getChapters());
-						result.getBooks().remove(oldBook);
-					}
-					bookMap.put(parts[0], newBook);
-					continue;
+	private void parseLine(String line, Bible result, Map<String, Book> bookMap, Map<Verse, List<String>> lazyVerseLines) throws IOException {
+		line = line.trim();
+		if (line.length() == 0 || line.startsWith("#"))
+			return;
+
+		String[] parts = line.split(" ", 3);
+		if (parts.length != 3)
+			throw new IOException("Not enough fields: " + line);
+		try {
+			if (parts[1].equals("=")) {
+				String[] fields = parts[2].split("\t");
+				if (fields.length != 3)
+					throw new IOException("Malformed header line (not 3 fields): " + parts[3]);
+				BookID id = BookID.fromOsisId(fields[0]);
+				if (id == null)
+					throw new IOException("Unknown book ID: " + fields[0]);
+				Book newBook = new Book(parts[0], id, fields[1], fields[2]);
+				result.getBooks().add(newBook);
+				Book oldBook = bookMap.get(parts[0]);
+				if (oldBook != null) {
+					newBook.getChapters().addAll(oldBook.getChapters());
+					result.getBooks().remove(oldBook);
 				}
-				Book book = bookMap.get(parts[0]);
-				if (book == null)
-					throw new IOException("Unknown book prefix (header line missing?): " + parts[0]);
-				if (parts[1].equals("->")) {
-					if (!parts[2].equals("-")) {
-						new StrippedDiffable().renameBookInXref(result, parts[0], parts[2], false);
-						Book destBook = bookMap.get(parts[2]);
-						if (destBook == null)
-							throw new IOException("Unknown destination book (header line missing?): " + parts[2]);
-						destBook.getChapters().addAll(book.getChapters());
-					}
-					result.getBooks().remove(book);
-					bookMap.remove(parts[0]);
-					continue;
-				} else if (parts[1].equals("^^")) {
+				bookMap.put(parts[0], newBook);
+				return;
+			}
+			Book book = bookMap.get(parts[0]);
+			if (book == null)
+				throw new IOException("Unknown book prefix (header line missing?): " + parts[0]);
+			if (parts[1].equals("->")) {
+				if (!parts[2].equals("-")) {
+					new StrippedDiffable().renameBookInXref(result, parts[0], parts[2], false);
 					Book destBook = bookMap.get(parts[2]);
 					if (destBook == null)
 						throw new IOException("Unknown destination book (header line missing?): " + parts[2]);
-					result.getBooks().remove(book);
-					result.getBooks().add(result.getBooks().indexOf(destBook), book);
-					continue;
+					destBook.getChapters().addAll(book.getChapters());
 				}
-				int chapterNumber;
-				String verse;
-				if (parts[1].contains(":")) {
-					String[] chapVerse = parts[1].split(":", 2);
-					chapterNumber = Integer.parseInt(chapVerse[0]);
-					verse = chapVerse[1];
+				result.getBooks().remove(book);
+				bookMap.remove(parts[0]);
+				return;
+			} else if (parts[1].equals("^^")) {
+				Book destBook = bookMap.get(parts[2]);
+				if (destBook == null)
+					throw new IOException("Unknown destination book (header line missing?): " + parts[2]);
+				result.getBooks().remove(book);
+				result.getBooks().add(result.getBooks().indexOf(destBook), book);
+				return;
+			}
+			int chapterNumber;
+			String verse;
+			if (parts[1].contains(":")) {
+				String[] chapVerse = parts[1].split(":", 2);
+				chapterNumber = Integer.parseInt(chapVerse[0]);
+				verse = chapVerse[1];
+			} else {
+				chapterNumber = Integer.parseInt(parts[1]);
+				verse = null;
+			}
+			while (book.getChapters().size() < chapterNumber) {
+				book.getChapters().add(new Chapter());
+			}
+			Chapter chapter = book.getChapters().get(chapterNumber - 1);
+			FormattedText target;
+			if (verse == null) {
+				if (chapter.getProlog() == null)
+					chapter.setProlog(new FormattedText());
+				target = chapter.getProlog();
+			} else {
+				int idx = chapter.getVerseIndex(verse);
+				if (idx == -1 && lazyVerseLines != null) {
+					final List<String> lines = new ArrayList<String>(1);
+					Verse v = new LazyVerse(verse, new LazyVerse.ContentSource() {
+						@Override
+						public void parse(Visitor<RuntimeException> visitor) throws IOException {
+							for (String verseLine : lines) {
+								try {
+									parseDiffable(visitor, verseLine.split(" ", 3)[2]);
+								} catch (Exception ex) {
+									throw new IOException("Error while parsing line: " + verseLine, ex);
+								}
+							}
+						}
+
+						@Override
+						public void updateDigest(MessageDigest digest) {
+							Utils.updateDigest(digest, "Diffable");
+							Utils.updateDigest(digest, lines.size());
+							for (String verseLine : lines) {
+								Utils.updateDigest(digest, verseLine);
+							}
+						}
+					});
+					lazyVerseLines.put(v, lines);
+					chapter.getVerses().add(v);
+					target = v;
+				} else if (idx == -1) {
+					Verse v = new Verse(verse);
+					chapter.getVerses().add(v);
+					target = v;
 				} else {
-					chapterNumber = Integer.parseInt(parts[1]);
-					verse = null;
+					target = chapter.getVerses().get(idx);
 				}
-				while (book.getChapters().size() < chapterNumber) {
-					book.getChapters().add(new Chapter());
+				if (lazyVerseLines != null && lazyVerseLines.containsKey(target)) {
+					// parse lazy verses later
+					lazyVerseLines.get(target).add(line);
+					return;
 				}
-				Chapter chapter = book.getChapters().get(chapterNumber - 1);
-				FormattedText target;
-				if (verse == null) {
-					if (chapter.getProlog() == null)
-						chapter.setProlog(new FormattedText());
-					target = chapter.getProlog();
-				} else {
-					int idx = chapter.getVerseIndex(verse);
-					if (idx == -1) {
-						Verse v = new Verse(verse);
-						chapter.getVerses().add(v);
-						target = v;
-					} else {
-						target = chapter.getVerses().get(idx);
-					}
-				}
-				parseDiffable(target.getAppendVisitor(), parts[2]);
-			} catch (Exception ex) {
-				throw new IOException("Error while parsing line: " + line, ex);
 			}
+			parseDiffable(target.getAppendVisitor(), parts[2]);
+		} catch (Exception ex) {
+			throw new IOException("Error while parsing line: " + line, ex);
+		}
+	}
 
+	private static void finishBook(Book book, DeduplicationPool pool) {
+		for (Chapter chapter : book.getChapters()) {
+			if (chapter.getProlog() != null)
+				chapter.getProlog().finished(pool);
+			for (Verse v : chapter.getVerses()) {
+				if (!(v instanceof LazyVerse))
+					v.finished(pool);
+			}
 		}
-		for (Book book : result.getBooks()) {
-			for (Chapter chapter : book.getChapters()) {
-				if (chapter.getProlog() != null)
-					chapter.getProlog().finished();
-				for (Verse v : chapter.getVerses())
-					v.finished();
+	}
+
+	/**
+	 * Split the lines at book headers, if every book is given by a header
+	 * followed by its content, and no book is renamed, moved or given more than
+	 * once. The resulting books can be parsed independently. Otherwise, return
+	 * <code>null</code>.
+	 */
+	private static List<List<String>> splitAtBooks(List<String> lines) {
+		List<List<String>> result = new ArrayList<List<String>>();
+		Set<String> abbrs = new HashSet<String>();
+		String currentAbbr = null;
+		int start = -1;
+		for (int i = 0; i < lines.size(); i++) {
+			String line = lines.get(i).trim();
+			if (line.length() == 0 || line.startsWith("#"))
+				continue;
+			int pos = line.indexOf(' ');
+			if (pos == -1)
+				return null;
+			if (line.startsWith("= ", pos + 1)) {
+				String abbr = line.substring(0, pos);
+				if (!abbrs.add(abbr))
+					return null;
+				if (currentAbbr != null)
+					result.add(lines.subList(start, i));
+				currentAbbr = abbr;
+				start = i;
+			} else if (currentAbbr == null || pos != currentAbbr.length() || !line.startsWith(currentAbbr) || line.startsWith("-> ", pos + 1) || line.startsWith("^^ ", pos + 1)) {
+				return null;
 			}
 		}
+		if (currentAbbr != null)
+			result.add(lines.subList(start, lines.size()));
+		return result;
+	}
+
+	/**
+	 * Parse the lines of every book on a fork/join pool. If parsing fails, the
+	 * error of the first failing book is thrown, which is the same error that
+	 * sequential parsing would throw.
+	 */
+	private List<Book> parseBooksParallel(String bibleName, List<List<String>> bookLines, boolean lazy, DeduplicationPool deduplicationPool, int threads) throws IOException {
+		ForkJoinPool pool = getPool(threads);
+		List<BookTask> tasks = new ArrayList<BookTask>();
+		for (List<String> lines : bookLines) {
+			BookTask task = new BookTask(bibleName, lines, lazy, deduplicationPool);
+			tasks.add(task);
+			pool.execute(task);
+		}
+		List<Book> result = new ArrayList<Book>();
+		for (BookTask task : tasks) {
+			task.join();
+			if (task.error instanceof IOException)
+				throw (IOException) task.error;
+			else if (task.error != null)
+				throw (RuntimeException) task.error;
+			result.add(task.book);
+		}
 		return result;
 	}
 
+	private static ForkJoinPool getPool(int parallelism) {
+		ForkJoinPool pool = POOLS.get(parallelism);
+		if (pool == null) {
+			ForkJoinPool newPool = new ForkJoinPool(parallelism);
+			pool = POOLS.putIfAbsent(parallelism, newPool);
+			if (pool == null) {
+				pool = newPool;
+			} else {
+				newPool.shutdown();
+			}
+		}
+		return pool;
+	}
+
+	private class BookTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final String bibleName;
+		private final List<String> lines;
+		private final boolean lazy;
+		private final DeduplicationPool pool;
+		private Book book;
+		private Exception error;
+
+		private BookTask(String bibleName, List<String> lines, boolean lazy, DeduplicationPool pool) {
+			this.bibleName = bibleName;
+			this.lines = lines;
+			this.lazy = lazy;
+			this.pool = pool;
+		}
+
+		@Override
+		protected void compute() {
+			Bible bible = new Bible(bibleName);
+			Map<String, Book> bookMap = new HashMap<String, Book>();
+			Map<Verse, List<String>> lazyVerseLines = lazy ? new IdentityHashMap<Verse, List<String>>() : null;
+			try {
+				for (String line : lines) {
+					parseLine(line, bible, bookMap, lazyVerseLines);
+				}
+				book = bible.getBooks().get(0);
+				finishBook(book, pool);
+			} catch (IOException | RuntimeException ex) {
+				error = ex;
+			}
+		}
+	}
+
 	@Override
 	public boolean isExportImportRoundtrip() {
 		return true;
@@ -13,11 +13,10 @@ import java.util.Map;
 import java.util.Set;
 import java.util.regex.Pattern;
 
-import javax.xml.XMLConstants;
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.Marshaller;
 import javax.xml.bind.Unmarshaller;
+import javax.xml.bind.UnmarshallerHandler;
 import javax.xml.namespace.QName;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.transform.OutputKeys;
@@ -26,7 +25,6 @@ import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.validation.Schema;
-import javax.xml.validation.SchemaFactory;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -92,10 +90,12 @@ public class HaggaiXML implements RoundtripFormat {
 
 	@Override
 	public Bible doImport(File inputFile) throws Exception {
-		ValidateXML.validateFileBeforeParsing(getSchema(), inputFile);
-		JAXBContext ctx = JAXBContext.newInstance(ObjectFactory.class.getPackage().getName());
-		Unmarshaller u = ctx.createUnmarshaller();
-		XMLBIBLE doc = (XMLBIBLE) ((JAXBElement<?>) u.unmarshal(inputFile)).getValue();
+		XMLBIBLE doc;
+		try (XMLCache.Lease<Unmarshaller> u = XMLCache.borrowUnmarshaller(ObjectFactory.class, null)) {
+			UnmarshallerHandler handler = u.get().getUnmarshallerHandler();
+			ValidateXML.parseAndValidate(getSchema(), inputFile, handler);
+			doc = (XMLBIBLE) ((JAXBElement<?>) handler.getResult()).getValue();
+		}
 		return parseBible(doc);
 	}
 
@@ -468,10 +468,9 @@ public class HaggaiXML implements RoundtripFormat {
 		File file = new File(exportArgs[0]);
 		XMLBIBLE xmlbible = createXMLBible(bible);
 		final Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
-		JAXBContext ctx = JAXBContext.newInstance(ObjectFactory.class.getPackage().getName());
-		Marshaller m = ctx.createMarshaller();
-		m.setSchema(getSchema());
-		m.marshal(new JAXBElement<XMLBIBLE>(new QName("XMLBIBLE"), XMLBIBLE.class, xmlbible), doc);
+		try (XMLCache.Lease<Marshaller> m = XMLCache.borrowMarshaller(ObjectFactory.class, getSchema())) {
+			m.get().marshal(new JAXBElement<XMLBIBLE>(new QName("XMLBIBLE"), XMLBIBLE.class, xmlbible), doc);
+		}
 		doc.getDocumentElement().setAttribute("xmlns:xsi", "http://www.w3.org/2001/XMLSchema-instance");
 		doc.getDocumentElement().setAttribute("xsi:noNamespaceSchemaLocation", "haggai_20130620.xsd");
 		Transformer transformer = TransformerFactory.newInstance().newTransformer();
@@ -481,7 +480,7 @@ public class HaggaiXML implements RoundtripFormat {
 	}
 
 	protected Schema getSchema() throws SAXException {
-		return SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(ObjectFactory.class.getResource("/haggai_20130620.xsd"));
+		return XMLCache.getSchema(ObjectFactory.class.getResource("/haggai_20130620.xsd"));
 	}
 
 	protected XMLBIBLE createXMLBible(Bible bible) throws Exception {
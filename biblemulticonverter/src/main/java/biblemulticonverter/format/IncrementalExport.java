@@ -0,0 +1,332 @@
+package biblemulticonverter.format;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import biblemulticonverter.CompressedFiles;
+import biblemulticonverter.Main;
+import biblemulticonverter.data.Bible;
+import biblemulticonverter.data.Book;
+
+/**
+ * Incremental export for text formats that consist of a header line followed
+ * by independently exported books (like {@link Diffable} and {@link Compact}).
+ * <p>
+ * Next to the exported file, a manifest stores a content hash of every book
+ * and the position of its exported text in the file. When exporting to the
+ * same file again, books whose hash did not change are not exported again;
+ * their previous output is copied from the old file instead. The manifest is
+ * only used if the exported file has not been modified since, and if it was
+ * written by the same version of the same format. Positions refer to the
+ * uncompressed text, so that compressed files (see {@link CompressedFiles})
+ * can be exported incrementally, too.
+ * <p>
+ * Incremental export is enabled by the
+ * <code>biblemulticonverter.incrementalexport</code> system property.
+ */
+public class IncrementalExport implements Closeable {
+
+	private static final String MANIFEST_SUFFIX = ".bmc-manifest";
+
+	public static boolean isEnabled() {
+		return Boolean.getBoolean("biblemulticonverter.incrementalexport");
+	}
+
+	/**
+	 * Export the bible to the given file, rendering books concurrently with
+	 * {@link ParallelBookRenderer}.
+	 */
+	public static void doExport(File exportFile, Class<?> formatClass, String magic, Bible bible, final BookExporter exporter) throws Exception {
+		try (final IncrementalExport export = new IncrementalExport(exportFile, formatClass)) {
+			export.writeHeader(magic + bible.getName() + "\n");
+			ParallelBookRenderer.render(bible.getBooks(), new ParallelBookRenderer.BookRenderer<Book, String>() {
+				@Override
+				public String renderBook(Book book, ParallelBookRenderer.Buffer buffer) throws IOException {
+					String hash = hashBook(book);
+					if (!export.isCached(hash))
+						exporter.exportBook(book, buffer);
+					return hash;
+				}
+
+				@Override
+				public void writeBook(Book book, String hash, ParallelBookRenderer.Buffer buffer, Writer out) throws IOException {
+					export.writeBook(hash, buffer);
+				}
+			}, export.writer);
+			export.finish();
+		}
+	}
+
+	/**
+	 * Create a book sink that exports the books it receives to the given file.
+	 */
+	public static BookSink createBookSink(final File exportFile, final Class<?> formatClass, final String magic, final BookExporter exporter) {
+		return new BookSink() {
+			private final ParallelBookRenderer.Buffer buffer = new ParallelBookRenderer.Buffer();
+			private IncrementalExport export;
+
+			@Override
+			public void begin(String bibleName) throws Exception {
+				export = new IncrementalExport(exportFile, formatClass);
+				export.writeHeader(magic + bibleName + "\n");
+			}
+
+			@Override
+			public void book(Book book) throws Exception {
+				String hash = hashBook(book);
+				if (!export.isCached(hash))
+					exporter.exportBook(book, buffer);
+				export.writeBook(hash, buffer);
+				buffer.reset();
+			}
+
+			@Override
+			public void end() throws Exception {
+				try {
+					export.finish();
+				} finally {
+					export.close();
+				}
+			}
+
+			@Override
+			public void abort(Exception cause) {
+				if (export == null)
+					return;
+				try {
+					export.close();
+				} catch (IOException ex) {
+					cause.addSuppressed(ex);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Return the content hash of a book. May be called concurrently.
+	 */
+	public static String hashBook(Book book) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException ex) {
+			throw new RuntimeException(ex);
+		}
+		book.updateDigest(digest);
+		StringBuilder sb = new StringBuilder();
+		for (byte b : digest.digest()) {
+			sb.append(String.format("%02x", b & 0xFF));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Exports a single book.
+	 */
+	public static interface BookExporter {
+		public void exportBook(Book book, Writer w) throws IOException;
+	}
+
+	private final File exportFile;
+	private final File manifestFile;
+	private final File tempFile;
+	private final String formatVersion;
+	private final Map<String, long[]> cachedBooks = new HashMap<String, long[]>();
+	private final Properties manifest = new Properties();
+	private final CountingOutputStream countingOut;
+	private final Writer writer;
+	private PreviousFile previousFile = null;
+	private int bookCount = 0, reusedCount = 0;
+	private boolean finished = false;
+
+	private IncrementalExport(File exportFile, Class<?> formatClass) throws IOException {
+		this.exportFile = exportFile.getAbsoluteFile();
+		manifestFile = new File(this.exportFile.getPath() + MANIFEST_SUFFIX);
+		formatVersion = formatClass.getName() + "/" + Main.getConverterVersion(formatClass);
+		loadManifest();
+		tempFile = File.createTempFile(".bmc-", exportFile.getName().endsWith(".gz") ? ".tmp.gz" : ".tmp", this.exportFile.getParentFile());
+		tempFile.deleteOnExit();
+		// the temporary file gets the extension of the exported file, so
+		// that it is compressed the same way
+		countingOut = new CountingOutputStream(new BufferedOutputStream(CompressedFiles.openOutput(tempFile), 65536));
+		writer = new OutputStreamWriter(countingOut, StandardCharsets.UTF_8);
+		manifest.setProperty("format", formatVersion);
+	}
+
+	private void loadManifest() throws IOException {
+		if (!manifestFile.isFile() || !exportFile.isFile())
+			return;
+		Properties previous = new Properties();
+		try (InputStream in = new FileInputStream(manifestFile)) {
+			previous.load(in);
+		}
+		if (!formatVersion.equals(previous.getProperty("format")) || !fileVersion(exportFile).equals(previous.getProperty("file")))
+			return;
+		for (int i = 0;; i++) {
+			String entry = previous.getProperty("book." + i);
+			if (entry == null)
+				break;
+			String[] fields = entry.split(" ");
+			if (fields.length != 3)
+				throw new IOException("Invalid manifest entry in " + manifestFile + ": " + entry);
+			cachedBooks.put(fields[0], new long[] { Long.parseLong(fields[1]), Long.parseLong(fields[2]) });
+		}
+		if (!cachedBooks.isEmpty())
+			previousFile = new PreviousFile(exportFile);
+	}
+
+	private static String fileVersion(File file) {
+		return file.length() + "/" + file.lastModified();
+	}
+
+	private void writeHeader(String header) throws IOException {
+		writer.write(header);
+	}
+
+	private boolean isCached(String hash) {
+		return cachedBooks.containsKey(hash);
+	}
+
+	/**
+	 * Write a book to the new file. If the book is cached, its previous output
+	 * is copied and the buffer is ignored.
+	 */
+	private void writeBook(String hash, ParallelBookRenderer.Buffer buffer) throws IOException {
+		writer.flush();
+		long start = countingOut.count;
+		long[] cached = cachedBooks.get(hash);
+		if (cached != null) {
+			previousFile.copy(cached[0], cached[1], countingOut);
+			reusedCount++;
+		} else {
+			buffer.writeTo(writer);
+			writer.flush();
+		}
+		manifest.setProperty("book." + bookCount, hash + " " + start + " " + (countingOut.count - start));
+		bookCount++;
+	}
+
+	private void finish() throws IOException {
+		writer.close();
+		if (previousFile != null) {
+			previousFile.close();
+			previousFile = null;
+		}
+		if (manifestFile.exists() && !manifestFile.delete())
+			throw new IOException("Cannot delete " + manifestFile);
+		Files.move(tempFile.toPath(), exportFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		manifest.setProperty("file", fileVersion(exportFile));
+		try (OutputStream out = new FileOutputStream(manifestFile)) {
+			manifest.store(out, "BibleMultiConverter incremental export manifest");
+		}
+		finished = true;
+		if (Boolean.getBoolean("biblemulticonverter.verbose"))
+			System.out.println("Incremental export: " + reusedCount + " of " + bookCount + " books reused");
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (finished)
+			return;
+		try {
+			writer.close();
+			if (previousFile != null)
+				previousFile.close();
+		} finally {
+			tempFile.delete();
+		}
+	}
+
+	/**
+	 * Reads parts of the previously exported file, which may be compressed.
+	 * Parts are usually read in order, so the file is read sequentially and
+	 * only reopened when reading a part before the current position.
+	 */
+	private static class PreviousFile implements Closeable {
+		private final File file;
+		private InputStream in = null;
+		private long position = 0;
+
+		private PreviousFile(File file) {
+			this.file = file;
+		}
+
+		private void copy(long offset, long length, OutputStream out) throws IOException {
+			if (in == null || offset < position) {
+				close();
+				in = new BufferedInputStream(CompressedFiles.openInput(file), 65536);
+				position = 0;
+			}
+			while (position < offset) {
+				long count = in.skip(offset - position);
+				if (count <= 0) {
+					if (in.read() == -1)
+						throw new IOException("Unexpected end of " + file);
+					count = 1;
+				}
+				position += count;
+			}
+			byte[] bytes = new byte[65536];
+			long remaining = length;
+			while (remaining > 0) {
+				int count = in.read(bytes, 0, (int) Math.min(bytes.length, remaining));
+				if (count == -1)
+					throw new IOException("Unexpected end of " + file);
+				out.write(bytes, 0, count);
+				remaining -= count;
+				position += count;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (in != null) {
+				in.close();
+				in = null;
+			}
+		}
+	}
+
+	private static class CountingOutputStream extends FilterOutputStream {
+		private long count = 0;
+
+		private CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+
+		@Override
+		public void flush() {
+			// only flushed when closing, to keep writes to the file large
+		}
+	}
+}
@@ -1,8 +1,11 @@
 package biblemulticonverter.format;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -13,27 +16,35 @@ import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
 import javax.xml.transform.stream.StreamResult;
-import javax.xml.validation.SchemaFactory;
 import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
 
+import org.w3c.dom.CDATASection;
 import org.w3c.dom.Comment;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 import org.w3c.dom.Text;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.DefaultHandler2;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.XMLFilterImpl;
 
 import biblemulticonverter.data.Bible;
 import biblemulticonverter.data.Book;
 import biblemulticonverter.data.BookID;
 import biblemulticonverter.data.Chapter;
+import biblemulticonverter.data.DeduplicationPool;
 import biblemulticonverter.data.FormattedText;
 import biblemulticonverter.data.FormattedText.ExtraAttributePriority;
 import biblemulticonverter.data.FormattedText.FormattingInstructionKind;
@@ -55,7 +66,7 @@ import biblemulticonverter.tools.ValidateXML;
  * OSIS tags are mixed content anyway where JAXB does not provide that great
  * advantages. Also, JAXB bindings for OSIS schema are several hundred KB large.
  */
-public class OSIS implements RoundtripFormat {
+public class OSIS implements RoundtripFormat, StreamingExportFormat {
 
 	public static final String[] HELP_TEXT = {
 			"Very rudimentary OSIS (Open Scripture Information Standard) import/export.",
@@ -67,14 +78,15 @@ public class OSIS implements RoundtripFormat {
 	private Properties osisRefMap = null;
 	private String warningContext = "";
 	private int milestoneIndex = 0;
+	private DeduplicationPool deduplicationPool = null;
 
 	@Override
 	public Bible doImport(File inputFile) throws Exception {
-		ValidateXML.validateFileBeforeParsing(SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(ObjectFactory.class.getResource("/osisCore.2.1.1.xsd")), inputFile);
 		printedWarnings.clear();
-		DocumentBuilder docBuilder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+		deduplicationPool = DeduplicationPool.getImportPool();
+		List<Book> books = new ArrayList<Book>();
+		Document osisDoc = parseBooks(inputFile, books);
 		XPath xpath = javax.xml.xpath.XPathFactory.newInstance().newXPath();
-		Document osisDoc = docBuilder.parse(inputFile);
 		String name = xpath.evaluate("/osis/osisText/header/work/title/text()", osisDoc);
 		if (name.isEmpty())
 			name = "OSIS Bible";
@@ -96,25 +108,38 @@ public class OSIS implements RoundtripFormat {
 			mb.finished();
 			result.getBooks().add(mb.getBook());
 		}
-		NodeList osisBooks = (NodeList) xpath.evaluate("/osis/osisText//div[@type='book']", osisDoc, XPathConstants.NODESET);
-		for (int bookIndex = 0; bookIndex < osisBooks.getLength(); bookIndex++) {
-			Element osisBook = (Element) osisBooks.item(bookIndex);
-			String bookOsisID = osisBook.getAttribute("osisID");
-			BookID bookID = BookID.fromOsisId(bookOsisID);
-			String title = bookID.getEnglishName();
-			Node titleElem = osisBook.getFirstChild();
-			while (titleElem instanceof Text)
-				titleElem = titleElem.getNextSibling();
-			if (titleElem instanceof Element && titleElem.getNodeName().equals("title")) {
-				Element titleElement = (Element) titleElem;
-				if (titleElement.getAttribute("type").equals("main") && titleElement.getChildNodes().getLength() > 0)
-					title = titleElement.getTextContent();
+		result.getBooks().addAll(books);
+		deduplicationPool = null;
+		return result;
+	}
+
+	private Document parseBooks(File inputFile, final List<Book> books) throws Exception {
+		Document osisDoc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+		BookDOMBuilder builder = new BookDOMBuilder(osisDoc) {
+			@Override
+			protected void bookParsed(Element osisBook) {
+				books.add(parseBook(osisBook));
 			}
-			Book bibleBook = new Book(bookOsisID, bookID, title, title);
-			result.getBooks().add(bibleBook);
-			parseBook(bookOsisID, osisBook, bibleBook);
+		};
+		ValidateXML.parseAndValidate(XMLCache.getSchema(ObjectFactory.class.getResource("/osisCore.2.1.1.xsd")), inputFile, builder);
+		return osisDoc;
+	}
+
+	private Book parseBook(Element osisBook) {
+		String bookOsisID = osisBook.getAttribute("osisID");
+		BookID bookID = BookID.fromOsisId(bookOsisID);
+		String title = bookID.getEnglishName();
+		Node titleElem = osisBook.getFirstChild();
+		while (titleElem instanceof Text)
+			titleElem = titleElem.getNextSibling();
+		if (titleElem instanceof Element && titleElem.getNodeName().equals("title")) {
+			Element titleElement = (Element) titleElem;
+			if (titleElement.getAttribute("type").equals("main") && titleElement.getChildNodes().getLength() > 0)
+				title = titleElement.getTextContent();
 		}
-		return result;
+		Book bibleBook = new Book(bookOsisID, bookID, title, title);
+		parseBook(bookOsisID, osisBook, bibleBook);
+		return bibleBook;
 	}
 
 	protected void convertToMilestoned(Element root) {
@@ -466,7 +491,7 @@ public class OSIS implements RoundtripFormat {
 					convertFromMilestoned(elem, unclosedElements);
 					parseFormattedText(osisID, elem, verse);
 					verse.trimWhitespace();
-					verse.finished();
+					verse.finished(deduplicationPool);
 					if (verse.getElementTypes(1).length() == 0) {
 						printWarning("WARNING: Empty verse " + osisID);
 						chapter.getVerses().remove(verse);
@@ -494,7 +519,7 @@ public class OSIS implements RoundtripFormat {
 				convertFromMilestoned(holder, unclosedElements);
 				parseFormattedText(null, holder, prolog);
 				prolog.trimWhitespace();
-				prolog.finished();
+				prolog.finished(deduplicationPool);
 				node = holder;
 			}
 		}
@@ -547,6 +572,120 @@ public class OSIS implements RoundtripFormat {
 		}
 	}
 
+	/**
+	 * SAX handler that builds the same DOM as a (non namespace aware)
+	 * {@link DocumentBuilder}, with namespace declarations as attributes, but
+	 * hands every book (<code>/osis/osisText//div[@type='book']</code>) to
+	 * {@link #bookParsed(Element)} as soon as it is complete and removes it
+	 * from the document afterwards. Therefore, only the current book is kept
+	 * in memory.
+	 */
+	private abstract static class BookDOMBuilder extends DefaultHandler2 {
+		private final Document doc;
+		private final List<String> path = new ArrayList<String>();
+		private final List<String[]> namespaceDeclarations = new ArrayList<String[]>();
+		private Node current;
+		private Element book = null;
+		private CDATASection cdata = null;
+		private boolean inCDATA = false, inDTD = false;
+
+		private BookDOMBuilder(Document doc) {
+			this.doc = doc;
+			this.current = doc;
+		}
+
+		protected abstract void bookParsed(Element osisBook);
+
+		@Override
+		public void startPrefixMapping(String prefix, String uri) throws SAXException {
+			namespaceDeclarations.add(new String[] { prefix.isEmpty() ? "xmlns" : "xmlns:" + prefix, uri });
+		}
+
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+			Element elem = doc.createElement(qName);
+			for (String[] declaration : namespaceDeclarations) {
+				elem.setAttribute(declaration[0], declaration[1]);
+			}
+			namespaceDeclarations.clear();
+			for (int i = 0; i < attributes.getLength(); i++) {
+				elem.setAttribute(attributes.getQName(i), attributes.getValue(i));
+			}
+			current.appendChild(elem);
+			current = elem;
+			path.add(qName);
+			if (book == null && qName.equals("div") && elem.getAttribute("type").equals("book") && path.size() > 2 && path.get(0).equals("osis") && path.get(1).equals("osisText"))
+				book = elem;
+		}
+
+		@Override
+		public void endElement(String uri, String localName, String qName) throws SAXException {
+			Node elem = current;
+			current = current.getParentNode();
+			path.remove(path.size() - 1);
+			if (elem == book) {
+				bookParsed(book);
+				current.removeChild(book);
+				book = null;
+			}
+		}
+
+		@Override
+		public void characters(char[] ch, int start, int length) throws SAXException {
+			if (current == doc)
+				return;
+			if (inCDATA) {
+				if (cdata == null) {
+					cdata = doc.createCDATASection(new String(ch, start, length));
+					current.appendChild(cdata);
+				} else {
+					cdata.appendData(new String(ch, start, length));
+				}
+			} else if (current.getLastChild() instanceof Text && !(current.getLastChild() instanceof CDATASection)) {
+				((Text) current.getLastChild()).appendData(new String(ch, start, length));
+			} else {
+				current.appendChild(doc.createTextNode(new String(ch, start, length)));
+			}
+		}
+
+		@Override
+		public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+			characters(ch, start, length);
+		}
+
+		@Override
+		public void processingInstruction(String target, String data) throws SAXException {
+			current.appendChild(doc.createProcessingInstruction(target, data));
+		}
+
+		@Override
+		public void comment(char[] ch, int start, int length) throws SAXException {
+			if (!inDTD)
+				current.appendChild(doc.createComment(new String(ch, start, length)));
+		}
+
+		@Override
+		public void startCDATA() throws SAXException {
+			inCDATA = true;
+			cdata = null;
+		}
+
+		@Override
+		public void endCDATA() throws SAXException {
+			inCDATA = false;
+		}
+
+		@Override
+		public void startDTD(String name, String publicId, String systemId) throws SAXException {
+			inDTD = true;
+		}
+
+		@Override
+		public void endDTD() throws SAXException {
+			inDTD = false;
+		}
+	}
+
 	private void printWarning(String warning) {
 		if (Boolean.getBoolean("biblemulticonverter.osis.warningcontext"))
 			warning += " [" + warningContext + "]";
@@ -803,68 +942,135 @@ public class OSIS implements RoundtripFormat {
 
 	@Override
 	public void doExport(Bible bible, String... exportArgs) throws Exception {
-		Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
-		Element osis = doc.createElement("osis");
-		doc.appendChild(osis);
-		osis.setAttribute("xmlns:xsi", "http://www.w3.org/2001/XMLSchema-instance");
-		osis.setAttribute("xmlns", "http://www.bibletechnologies.net/2003/OSIS/namespace");
-		osis.setAttribute("xsi:schemaLocation", "http://www.bibletechnologies.net/2003/OSIS/namespace http://www.bibletechnologies.net/osisCore.2.1.1.xsd");
-		Element osisText = doc.createElement("osisText");
-		osis.appendChild(osisText);
-		osisText.setAttribute("canonical", "true");
-		osisText.setAttribute("osisIDWork", "Exported");
-		osisText.appendChild(buildHeader(doc, bible.getName()));
-
-		for (Book bk : bible.getBooks()) {
-			Element book = doc.createElement("div");
-			osisText.appendChild(book);
-			book.setAttribute("type", "book");
-			book.setAttribute("canonical", "true");
-			book.setAttribute("osisID", bk.getId().getOsisID());
-			Element bookTitle = doc.createElement("title");
-			book.appendChild(bookTitle);
-			bookTitle.setAttribute("type", "main");
-			bookTitle.appendChild(doc.createTextNode(bk.getLongName()));
-
-			int cnumber = 0;
-			for (Chapter chp : bk.getChapters()) {
-				cnumber++;
-				Element chapter = doc.createElement("chapter");
-				book.appendChild(chapter);
-				chapter.setAttribute("osisID", bk.getId().getOsisID() + "." + cnumber);
-				OSISVisitor visitor = new OSISVisitor(chapter, bk.getId().isNT());
-				Element elem = doc.createElement("title");
-				chapter.appendChild(elem);
-				elem.setAttribute("type", "chapter");
-				elem.appendChild(doc.createTextNode(bk.getAbbr() + " " + cnumber));
-				if (chp.getProlog() != null) {
-					chp.getProlog().accept(visitor);
-				}
-				for (VirtualVerse vv : chp.createVirtualVerses()) {
-					String osisID = bk.getId().getOsisID() + "." + cnumber + "." + vv.getNumber();
-					for (Headline hl : vv.getHeadlines()) {
-						hl.accept(visitor.visitHeadline(hl.getDepth()));
+		BookSink sink = createBookSink(exportArgs);
+		try {
+			sink.begin(bible.getName());
+			for (Book bk : bible.getBooks()) {
+				sink.book(bk);
+			}
+			sink.end();
+		} catch (Exception ex) {
+			sink.abort(ex);
+			throw ex;
+		}
+	}
+
+	@Override
+	public BookSink createBookSink(String... exportArgs) throws Exception {
+		final File exportFile = new File(exportArgs[0]);
+		return new BookSink() {
+			private final Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+			private final Transformer domWriter = TransformerFactory.newInstance().newTransformer();
+			private TransformerHandler th;
+			private XMLFilterImpl fragmentHandler;
+			private OutputStream out;
+
+			@Override
+			public void begin(String bibleName) throws Exception {
+				out = new BufferedOutputStream(new FileOutputStream(exportFile));
+				th = ((SAXTransformerFactory) TransformerFactory.newInstance()).newTransformerHandler();
+				th.getTransformer().setOutputProperty(OutputKeys.STANDALONE, "no");
+				th.setResult(new StreamResult(out));
+				// DOM fragments are embedded into the document element
+				fragmentHandler = new XMLFilterImpl() {
+					@Override
+					public void startDocument() {
 					}
-					elem = doc.createElement("verse");
-					chapter.appendChild(elem);
-					elem.setAttribute("sID", osisID);
-					elem.setAttribute("osisID", osisID);
-					for (Verse v : vv.getVerses()) {
-						if (!v.getNumber().equals("" + vv.getNumber())) {
-							elem = doc.createElement("hi");
-							chapter.appendChild(elem);
-							elem.setAttribute("type", "bold");
-							elem.appendChild(doc.createTextNode("(" + v.getNumber() + ")"));
-						}
-						v.accept(visitor);
+
+					@Override
+					public void endDocument() {
 					}
-					elem = doc.createElement("verse");
-					chapter.appendChild(elem);
-					elem.setAttribute("eID", osisID);
+				};
+				fragmentHandler.setContentHandler(th);
+				th.startDocument();
+				AttributesImpl attrs = new AttributesImpl();
+				attrs.addAttribute("", "", "xmlns", "CDATA", "http://www.bibletechnologies.net/2003/OSIS/namespace");
+				attrs.addAttribute("", "", "xmlns:xsi", "CDATA", "http://www.w3.org/2001/XMLSchema-instance");
+				attrs.addAttribute("", "", "xsi:schemaLocation", "CDATA", "http://www.bibletechnologies.net/2003/OSIS/namespace http://www.bibletechnologies.net/osisCore.2.1.1.xsd");
+				th.startElement("", "osis", "osis", attrs);
+				attrs.clear();
+				attrs.addAttribute("", "", "canonical", "CDATA", "true");
+				attrs.addAttribute("", "", "osisIDWork", "CDATA", "Exported");
+				th.startElement("", "osisText", "osisText", attrs);
+				domWriter.transform(new DOMSource(buildHeader(doc, bibleName)), new SAXResult(fragmentHandler));
+			}
+
+			@Override
+			public void book(Book book) throws Exception {
+				domWriter.transform(new DOMSource(createBookElement(doc, book)), new SAXResult(fragmentHandler));
+			}
+
+			@Override
+			public void end() throws Exception {
+				th.endElement("", "osisText", "osisText");
+				th.endElement("", "osis", "osis");
+				th.endDocument();
+				out.close();
+			}
+
+			@Override
+			public void abort(Exception cause) {
+				// do not leave incomplete files behind
+				if (out == null)
+					return;
+				try {
+					out.close();
+				} catch (IOException ex) {
+					cause.addSuppressed(ex);
 				}
+				exportFile.delete();
+			}
+		};
+	}
+
+	private Element createBookElement(Document doc, Book bk) {
+		Element book = doc.createElement("div");
+		book.setAttribute("type", "book");
+		book.setAttribute("canonical", "true");
+		book.setAttribute("osisID", bk.getId().getOsisID());
+		Element bookTitle = doc.createElement("title");
+		book.appendChild(bookTitle);
+		bookTitle.setAttribute("type", "main");
+		bookTitle.appendChild(doc.createTextNode(bk.getLongName()));
+
+		int cnumber = 0;
+		for (Chapter chp : bk.getChapters()) {
+			cnumber++;
+			Element chapter = doc.createElement("chapter");
+			book.appendChild(chapter);
+			chapter.setAttribute("osisID", bk.getId().getOsisID() + "." + cnumber);
+			OSISVisitor visitor = new OSISVisitor(chapter, bk.getId().isNT());
+			Element elem = doc.createElement("title");
+			chapter.appendChild(elem);
+			elem.setAttribute("type", "chapter");
+			elem.appendChild(doc.createTextNode(bk.getAbbr() + " " + cnumber));
+			if (chp.getProlog() != null) {
+				chp.getProlog().accept(visitor);
+			}
+			for (VirtualVerse vv : chp.createVirtualVerses()) {
+				String osisID = bk.getId().getOsisID() + "." + cnumber + "." + vv.getNumber();
+				for (Headline hl : vv.getHeadlines()) {
+					hl.accept(visitor.visitHeadline(hl.getDepth()));
+				}
+				elem = doc.createElement("verse");
+				chapter.appendChild(elem);
+				elem.setAttribute("sID", osisID);
+				elem.setAttribute("osisID", osisID);
+				for (Verse v : vv.getVerses()) {
+					if (!v.getNumber().equals("" + vv.getNumber())) {
+						elem = doc.createElement("hi");
+						chapter.appendChild(elem);
+						elem.setAttribute("type", "bold");
+						elem.appendChild(doc.createTextNode("(" + v.getNumber() + ")"));
+					}
+					v.accept(visitor);
+				}
+				elem = doc.createElement("verse");
+				chapter.appendChild(elem);
+				elem.setAttribute("eID", osisID);
 			}
 		}
-		TransformerFactory.newInstance().newTransformer().transform(new DOMSource(doc), new StreamResult(new File(exportArgs[0])));
+		return book;
 	}
 
 	private Element buildHeader(Document doc, String bookTitle) {
@@ -0,0 +1,278 @@
+package biblemulticonverter.format;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders the books (or other independent parts, like chapters) of an export
+ * concurrently into pooled buffers, and writes the rendered books to the
+ * output in their original order, so that the output is the same as if they
+ * were rendered one after the other.
+ * <p>
+ * Rendering happens on worker threads, at most two books per thread ahead of
+ * the book that is currently written. Therefore, renderers must not print to
+ * the console or depend on the outcome of previous books while rendering.
+ * Everything that does (like counters or markers that are carried over to the
+ * next book) has to be done in
+ * {@link BookRenderer#writeBook(Object, Object, Buffer, Writer)}, which is
+ * called in order on the thread that started rendering.
+ * <p>
+ * The number of threads is taken from the
+ * <code>biblemulticonverter.renderthreads</code> system property and defaults
+ * to the number of processors. With one thread, books are rendered
+ * sequentially without a thread pool.
+ * <p>
+ * Thread pools are shared by all renderings with the same number of threads,
+ * so that exports running concurrently (for example in a batch run) do not
+ * use more render threads than configured. Their worker threads are daemon
+ * threads that terminate when idle.
+ */
+public class ParallelBookRenderer {
+
+	private static final ConcurrentMap<Integer, ThreadPoolExecutor> POOLS = new ConcurrentHashMap<Integer, ThreadPoolExecutor>();
+
+	/**
+	 * Render the given books and write them to the output.
+	 */
+	public static <T, R> void render(List<T> books, BookRenderer<T, R> renderer, Writer out) throws Exception {
+		int threads = Integer.getInteger("biblemulticonverter.renderthreads", Runtime.getRuntime().availableProcessors());
+		if (threads <= 1 || books.size() <= 1) {
+			Buffer buffer = new Buffer();
+			for (T book : books) {
+				R info = renderer.renderBook(book, buffer);
+				renderer.writeBook(book, info, buffer, out);
+				buffer.reset();
+			}
+			return;
+		}
+		Queue<Buffer> pool = new ConcurrentLinkedQueue<Buffer>();
+		ThreadPoolExecutor executor = getPool(threads);
+		int window = threads * 2;
+		List<Future<RenderedBook<R>>> futures = new ArrayList<Future<RenderedBook<R>>>();
+		try {
+			for (int i = 0; i < books.size(); i++) {
+				while (futures.size() < books.size() && futures.size() < i + window) {
+					futures.add(executor.submit(new RenderTask<T, R>(renderer, books.get(futures.size()), pool)));
+				}
+				RenderedBook<R> rendered;
+				try {
+					rendered = futures.get(i).get();
+				} catch (ExecutionException ex) {
+					if (ex.getCause() instanceof Exception)
+						throw (Exception) ex.getCause();
+					if (ex.getCause() instanceof Error)
+						throw (Error) ex.getCause();
+					throw ex;
+				}
+				futures.set(i, null);
+				renderer.writeBook(books.get(i), rendered.info, rendered.buffer, out);
+				rendered.buffer.reset();
+				pool.offer(rendered.buffer);
+			}
+		} finally {
+			// cancel books that are still rendered after a failure
+			for (Future<RenderedBook<R>> future : futures) {
+				if (future != null)
+					future.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * Render the given books and write them to the output, for simple
+	 * renderers that only throw {@link IOException}s.
+	 */
+	public static <T> void render(List<T> books, SimpleBookRenderer<T> renderer, Writer out) throws IOException {
+		try {
+			render(books, (BookRenderer<T, Void>) renderer, out);
+		} catch (IOException | RuntimeException ex) {
+			throw ex;
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while rendering books");
+		} catch (Exception ex) {
+			throw new IOException(ex);
+		}
+	}
+
+	private static ThreadPoolExecutor getPool(int threads) {
+		ThreadPoolExecutor pool = POOLS.get(threads);
+		if (pool == null) {
+			ThreadPoolExecutor newPool = new ThreadPoolExecutor(threads, threads, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "book renderer");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			newPool.allowCoreThreadTimeOut(true);
+			pool = POOLS.putIfAbsent(threads, newPool);
+			if (pool == null) {
+				pool = newPool;
+			} else {
+				newPool.shutdown();
+			}
+		}
+		return pool;
+	}
+
+	/**
+	 * Renders books and writes them to the output.
+	 *
+	 * @param <T>
+	 *            Type of the books to render
+	 * @param <R>
+	 *            Type of information passed from rendering to writing a book
+	 */
+	public static interface BookRenderer<T, R> {
+
+		/**
+		 * Render the book into the buffer. Called concurrently for different
+		 * books.
+		 *
+		 * @return information about the rendered book, for
+		 *         {@link #writeBook(Object, Object, Buffer, Writer)}
+		 */
+		public R renderBook(T book, Buffer buffer) throws Exception;
+
+		/**
+		 * Write a rendered book to the output. Called for one book after the
+		 * other, in order.
+		 */
+		public void writeBook(T book, R info, Buffer buffer, Writer out) throws Exception;
+	}
+
+	/**
+	 * Book renderer that does not need any state across books, and writes the
+	 * rendered books unchanged.
+	 */
+	public static abstract class SimpleBookRenderer<T> implements BookRenderer<T, Void> {
+
+		@Override
+		public abstract Void renderBook(T book, Buffer buffer) throws IOException;
+
+		@Override
+		public void writeBook(T book, Void info, Buffer buffer, Writer out) throws IOException {
+			buffer.writeTo(out);
+		}
+	}
+
+	/**
+	 * Growable character buffer that books are rendered into.
+	 */
+	public static class Buffer extends Writer {
+
+		private char[] buffer = new char[8192];
+		private int length = 0;
+
+		private void ensureCapacity(int additional) {
+			if (length + additional > buffer.length)
+				buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + additional));
+		}
+
+		@Override
+		public void write(int c) {
+			ensureCapacity(1);
+			buffer[length++] = (char) c;
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+			ensureCapacity(len);
+			System.arraycopy(cbuf, off, buffer, length, len);
+			length += len;
+		}
+
+		@Override
+		public void write(String str, int off, int len) {
+			ensureCapacity(len);
+			str.getChars(off, off + len, buffer, length);
+			length += len;
+		}
+
+		public int length() {
+			return length;
+		}
+
+		public char charAt(int index) {
+			if (index >= length)
+				throw new IndexOutOfBoundsException(index + " >= " + length);
+			return buffer[index];
+		}
+
+		/**
+		 * Write the whole content of this buffer to the given writer.
+		 */
+		public void writeTo(Writer out) throws IOException {
+			out.write(buffer, 0, length);
+		}
+
+		/**
+		 * Write the given range of the content of this buffer to the given
+		 * writer.
+		 */
+		public void writeTo(Writer out, int start, int end) throws IOException {
+			if (start < 0 || end > length || start > end)
+				throw new IndexOutOfBoundsException(start + "-" + end + " of " + length);
+			out.write(buffer, start, end - start);
+		}
+
+		public void reset() {
+			length = 0;
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	private static class RenderedBook<R> {
+		private final Buffer buffer;
+		private final R info;
+
+		private RenderedBook(Buffer buffer, R info) {
+			this.buffer = buffer;
+			this.info = info;
+		}
+	}
+
+	private static class RenderTask<T, R> implements Callable<RenderedBook<R>> {
+		private final BookRenderer<T, R> renderer;
+		private final T book;
+		private final Queue<Buffer> pool;
+
+		private RenderTask(BookRenderer<T, R> renderer, T book, Queue<Buffer> pool) {
+			this.renderer = renderer;
+			this.book = book;
+			this.pool = pool;
+		}
+
+		@Override
+		public RenderedBook<R> call() throws Exception {
+			Buffer buffer = pool.poll();
+			if (buffer == null)
+				buffer = new Buffer();
+			return new RenderedBook<R>(buffer, renderer.renderBook(book, buffer));
+		}
+	}
+}
@@ -6,14 +6,11 @@ import java.io.Serializable;
 import java.util.Arrays;
 import java.util.List;
 
-import javax.xml.XMLConstants;
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.Marshaller;
 import javax.xml.bind.Unmarshaller;
-import javax.xml.transform.stream.StreamSource;
+import javax.xml.bind.UnmarshallerHandler;
 import javax.xml.validation.Schema;
-import javax.xml.validation.SchemaFactory;
 
 import org.xml.sax.SAXException;
 
@@ -36,11 +33,11 @@ import biblemulticonverter.schema.roundtripxml.FormattedTextType.CssFormatting;
 import biblemulticonverter.schema.roundtripxml.FormattedTextType.LineBreak;
 import biblemulticonverter.schema.roundtripxml.FormattedTextType.RawHTML;
 import biblemulticonverter.schema.roundtripxml.FormattedTextType.Variation;
-import biblemulticonverter.tools.ValidateXML;
 import biblemulticonverter.schema.roundtripxml.FormattingInstructionKindType;
 import biblemulticonverter.schema.roundtripxml.LineBreakKindType;
 import biblemulticonverter.schema.roundtripxml.ObjectFactory;
 import biblemulticonverter.schema.roundtripxml.RawHTMLModeType;
+import biblemulticonverter.tools.ValidateXML;
 
 public class RoundtripXML implements RoundtripFormat {
 
@@ -52,11 +49,14 @@ public class RoundtripXML implements RoundtripFormat {
 
 	@Override
 	public Bible doImport(File inputFile) throws Exception {
-		ValidateXML.validateFileBeforeParsing(getSchema(), inputFile);
-		JAXBContext ctx = JAXBContext.newInstance(ObjectFactory.class.getPackage().getName());
-		Unmarshaller u = ctx.createUnmarshaller();
-		u.setSchema(getSchema());
-		return parseBible(u.unmarshal(new StreamSource(inputFile), BibleType.class));
+		JAXBElement<BibleType> doc;
+		try (XMLCache.Lease<Unmarshaller> u = XMLCache.borrowUnmarshaller(ObjectFactory.class, null)) {
+			UnmarshallerHandler handler = u.get().getUnmarshallerHandler();
+			ValidateXML.parseAndValidate(getSchema(), inputFile, handler, true);
+			JAXBElement<?> result = (JAXBElement<?>) handler.getResult();
+			doc = new JAXBElement<BibleType>(result.getName(), BibleType.class, (BibleType) result.getValue());
+		}
+		return parseBible(doc);
 	}
 
 	protected Bible parseBible(JAXBElement<BibleType> sBible) throws Exception {
@@ -155,14 +155,13 @@ public class RoundtripXML implements RoundtripFormat {
 	public void doExport(Bible bible, String... exportArgs) throws Exception {
 		File file = new File(exportArgs[0]);
 		JAXBElement<BibleType> result = createBible(bible);
-		JAXBContext ctx = JAXBContext.newInstance(ObjectFactory.class.getPackage().getName());
-		Marshaller m = ctx.createMarshaller();
-		m.setSchema(getSchema());
-		m.marshal(result, file);
+		try (XMLCache.Lease<Marshaller> m = XMLCache.borrowMarshaller(ObjectFactory.class, getSchema())) {
+			m.get().marshal(result, file);
+		}
 	}
 
 	protected Schema getSchema() throws SAXException {
-		return SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(ObjectFactory.class.getResource("/RoundtripXML.xsd"));
+		return XMLCache.getSchema(ObjectFactory.class.getResource("/RoundtripXML.xsd"));
 	}
 
 	protected JAXBElement<BibleType> createBible(Bible sBible) throws Exception {
@@ -0,0 +1,15 @@
+package biblemulticonverter.format;
+
+/**
+ * An export format that can export a bible one book at a time.
+ */
+public interface StreamingExportFormat extends ExportFormat {
+
+	/**
+	 * Create a sink that exports the books passed to it. May return
+	 * {@code null} if the given arguments require the whole bible to be
+	 * available, in which case {@link #doExport(biblemulticonverter.data.Bible, String...)}
+	 * is used instead.
+	 */
+	public BookSink createBookSink(String... exportArgs) throws Exception;
+}
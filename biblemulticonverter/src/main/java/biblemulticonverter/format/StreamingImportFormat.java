@@ -0,0 +1,12 @@
+package biblemulticonverter.format;
+
+import java.io.File;
+
+/**
+ * An import format that can pass the books of a bible to a {@link BookSink}
+ * while reading them, instead of returning the whole bible.
+ */
+public interface StreamingImportFormat extends ImportFormat {
+
+	public void doImport(File inputFile, BookSink sink) throws Exception;
+}
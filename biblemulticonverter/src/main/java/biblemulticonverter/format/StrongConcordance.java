@@ -19,7 +19,7 @@ import biblemulticonverter.data.FormattedText.Visitor;
 import biblemulticonverter.data.FormattedText.VisitorAdapter;
 import biblemulticonverter.data.Verse;
 
-public class StrongConcordance implements ExportFormat {
+public class StrongConcordance implements StreamingExportFormat {
 
 	public static final String[] HELP_TEXT = {
 			"Add concordance information to a Strong dictionary",
@@ -33,11 +33,45 @@ public class StrongConcordance implements ExportFormat {
 
 	@Override
 	public void doExport(Bible bible, String... exportArgs) throws Exception {
+		BookSink sink = createBookSink(exportArgs);
+		try {
+			sink.begin(bible.getName());
+			for (Book bk : bible.getBooks()) {
+				sink.book(bk);
+			}
+			sink.end();
+		} catch (Exception ex) {
+			sink.abort(ex);
+			throw ex;
+		}
+	}
+
+	@Override
+	public BookSink createBookSink(String... exportArgs) throws Exception {
 		if (exportArgs.length != 2)
 			throw new IOException("Two parameters needed!");
-		Map<String, List<OccurrenceInfo>> occurrences = new HashMap<String, List<OccurrenceInfo>>();
-		int bookIndex = 0;
-		for (Book bk : bible.getBooks()) {
+		return new ConcordanceSink(exportArgs[0], exportArgs[1]);
+	}
+
+	private static class ConcordanceSink implements BookSink {
+		private final String oldDictionaryFile, newDictionaryFile;
+		private final Map<String, List<OccurrenceInfo>> occurrences = new HashMap<String, List<OccurrenceInfo>>();
+		private final List<Book> books = new ArrayList<Book>();
+		private String bibleName;
+		private int bookIndex = 0;
+
+		private ConcordanceSink(String oldDictionaryFile, String newDictionaryFile) {
+			this.oldDictionaryFile = oldDictionaryFile;
+			this.newDictionaryFile = newDictionaryFile;
+		}
+
+		@Override
+		public void begin(String bibleName) {
+			this.bibleName = bibleName;
+		}
+
+		@Override
+		public void book(Book bk) {
 			int cnumber = 0;
 			for (Chapter ch : bk.getChapters()) {
 				cnumber++;
@@ -66,52 +100,61 @@ public class StrongConcordance implements ExportFormat {
 			}
 			// save memory for the dictionary
 			bk.getChapters().clear();
+			books.add(bk);
 			bookIndex++;
 		}
 
-		Diffable diffable = new Diffable();
-		Bible dict = diffable.doImport(new File(exportArgs[0]));
-
-		for (Book bk : dict.getBooks()) {
-			if (bk.getId() != BookID.DICTIONARY_ENTRY || occurrences.get(bk.getAbbr()) == null)
-				continue;
-			List<OccurrenceInfo> occ = occurrences.remove(bk.getAbbr());
-			FormattedText old = bk.getChapters().get(0).getProlog();
-			FormattedText changed = new FormattedText();
-			Visitor<RuntimeException> v = changed.getAppendVisitor();
-			old.accept(v);
-			v.visitHeadline(1).visitText("Occurrences in " + bible.getName());
-			Collections.sort(occ);
-			List<OccurrenceInfo> part = new ArrayList<>();
-			while (occ.size() > 0) {
-				OccurrenceInfo first = occ.remove(0);
-				part.add(first);
-				while (occ.size() > 0 && occ.get(0).phrase.equals(first.phrase)) {
-					part.add(occ.remove(0));
-				}
-				v.visitFormattingInstruction(FormattingInstructionKind.BOLD).visitText(first.phrase + " (" + part.size() + "):");
-				for (int i = 0; i < part.size(); i++) {
-					v.visitText(i == 0 ? " " : ", ");
-					int cnt = 1;
-					OccurrenceInfo curr = part.get(i);
-					while (i + 1 < part.size() && part.get(i + 1).equals(curr)) {
-						cnt++;
-						i++;
+		@Override
+		public void end() throws Exception {
+			Diffable diffable = new Diffable();
+			Bible dict = diffable.doImport(new File(oldDictionaryFile));
+
+			for (Book bk : dict.getBooks()) {
+				if (bk.getId() != BookID.DICTIONARY_ENTRY || occurrences.get(bk.getAbbr()) == null)
+					continue;
+				List<OccurrenceInfo> occ = occurrences.remove(bk.getAbbr());
+				FormattedText old = bk.getChapters().get(0).getProlog();
+				FormattedText changed = new FormattedText();
+				Visitor<RuntimeException> v = changed.getAppendVisitor();
+				old.accept(v);
+				v.visitHeadline(1).visitText("Occurrences in " + bibleName);
+				Collections.sort(occ);
+				List<OccurrenceInfo> part = new ArrayList<>();
+				while (occ.size() > 0) {
+					OccurrenceInfo first = occ.remove(0);
+					part.add(first);
+					while (occ.size() > 0 && occ.get(0).phrase.equals(first.phrase)) {
+						part.add(occ.remove(0));
 					}
-					Book book = bible.getBooks().get(curr.bookIndex);
-					v.visitCrossReference(book.getAbbr(), book.getId(), curr.chapter, curr.verse, curr.chapter, curr.verse).visitText(book.getAbbr() + " " + curr.chapter + ":" + curr.verse);
-					if (cnt > 1)
-						v.visitText(" (" + cnt + ")");
+					v.visitFormattingInstruction(FormattingInstructionKind.BOLD).visitText(first.phrase + " (" + part.size() + "):");
+					for (int i = 0; i < part.size(); i++) {
+						v.visitText(i == 0 ? " " : ", ");
+						int cnt = 1;
+						OccurrenceInfo curr = part.get(i);
+						while (i + 1 < part.size() && part.get(i + 1).equals(curr)) {
+							cnt++;
+							i++;
+						}
+						Book book = books.get(curr.bookIndex);
+						v.visitCrossReference(book.getAbbr(), book.getId(), curr.chapter, curr.verse, curr.chapter, curr.verse).visitText(book.getAbbr() + " " + curr.chapter + ":" + curr.verse);
+						if (cnt > 1)
+							v.visitText(" (" + cnt + ")");
+					}
+					v.visitLineBreak(LineBreakKind.PARAGRAPH);
+					part.clear();
 				}
-				v.visitLineBreak(LineBreakKind.PARAGRAPH);
-				part.clear();
+				changed.finished();
+				bk.getChapters().get(0).setProlog(changed);
 			}
-			changed.finished();
-			bk.getChapters().get(0).setProlog(changed);
+			if (!occurrences.isEmpty())
+				System.out.println("Missing Strong references in dictionary: " + occurrences.keySet());
+			diffable.doExport(dict, new String[] { newDictionaryFile });
+		}
+
+		@Override
+		public void abort(Exception cause) {
+			// nothing is written before the end
 		}
-		if (!occurrences.isEmpty())
-			System.out.println("Missing Strong references in dictionary: " + occurrences.keySet());
-		diffable.doExport(dict, new String[] { exportArgs[1] });
 	}
 
 	private static class OccurrenceInfo implements Comparable<OccurrenceInfo> {
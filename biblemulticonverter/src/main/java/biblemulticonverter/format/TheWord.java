@@ -8,6 +8,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.EnumMap;
@@ -273,7 +274,7 @@ public class TheWord implements RoundtripFormat {
 	@Override
 	public void doExport(Bible bible, String... exportArgs) throws Exception {
 		boolean hasOT = false, hasNT = false;
-		Map<BookID, Book> foundBooks = new EnumMap<>(BookID.class);
+		final Map<BookID, Book> foundBooks = new EnumMap<>(BookID.class);
 		for (Book bk : bible.getBooks()) {
 			if (!COVERED_BOOKS.contains(bk.getId()))
 				continue;
@@ -288,56 +289,74 @@ public class TheWord implements RoundtripFormat {
 			return;
 		}
 		File file = new File(exportArgs[0] + "." + (hasOT && hasNT ? "ont" : hasOT ? "ot" : "nt"));
+		List<BookID> bookIDs = new ArrayList<BookID>();
+		for (BookID bid : BOOK_ORDER) {
+			if ((bid.isNT() && !hasNT) || (!bid.isNT() && !hasOT))
+				continue;
+			bookIDs.add(bid);
+		}
 
 		try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"))) {
 			bw.write("\uFEFF");
-			TheWordVisitor twvo = hasOT ? new TheWordVisitor(bw, false) : null;
-			TheWordVisitor twvn = hasNT ? new TheWordVisitor(bw, true) : null;
-			for (BookID bid : BOOK_ORDER) {
-				if ((bid.isNT() && !hasNT) || (!bid.isNT() && !hasOT))
-					continue;
-				TheWordVisitor twv = bid.isNT() ? twvn : twvo;
-				Book bk = foundBooks.get(bid);
-				int[] verseCount = Versification.KJV.getVerseCount(bid);
-				for (int cnumber = 1; cnumber <= verseCount.length; cnumber++) {
-					Chapter ch = bk != null && cnumber <= bk.getChapters().size() ? bk.getChapters().get(cnumber - 1) : null;
-					int maxVerse = verseCount[cnumber - 1];
-					int nextVerse = 1;
-					if (ch != null) {
-						BitSet allowedNumbers = new BitSet(maxVerse + 1);
-						allowedNumbers.set(1, maxVerse + 1);
-						for (VirtualVerse vv : ch.createVirtualVerses(allowedNumbers)) {
-							while (vv.getNumber() > nextVerse) {
-								bw.write("- - -\r\n");
-								nextVerse++;
-							}
-							if (vv.getNumber() != nextVerse)
-								throw new RuntimeException("Verse to write :" + vv.getNumber() + ", but next verse slot in file: " + nextVerse);
-							for (Headline h : vv.getHeadlines()) {
-								bw.write("<TS" + (h.getDepth() < 3 ? h.getDepth() : 3) + ">");
-								h.accept(twv);
-								twv.reset();
-								bw.write("<Ts>");
-							}
-							for (Verse v : vv.getVerses()) {
-								if (!v.getNumber().equals("" + vv.getNumber())) {
-									bw.write(" (" + v.getNumber() + ")");
-								}
-								v.accept(twv);
-								twv.reset();
-							}
-							bw.write("\r\n");
-							nextVerse++;
-						}
+			ParallelBookRenderer.render(bookIDs, new ParallelBookRenderer.BookRenderer<BookID, List<String>>() {
+				@Override
+				public List<String> renderBook(BookID bid, ParallelBookRenderer.Buffer buffer) throws IOException {
+					List<String> warnings = new ArrayList<String>();
+					exportBook(bid, foundBooks.get(bid), buffer, warnings);
+					return warnings;
+				}
+
+				@Override
+				public void writeBook(BookID bid, List<String> warnings, ParallelBookRenderer.Buffer buffer, Writer out) throws IOException {
+					for (String warning : warnings) {
+						System.out.println(warning);
 					}
-					if (nextVerse > maxVerse + 1)
-						throw new RuntimeException(nextVerse + "/" + (maxVerse + 1));
-					for (int i = 0; i <= maxVerse - nextVerse; i++) {
+					buffer.writeTo(out);
+				}
+			}, bw);
+			bw.write("\r\nabout=Converted by BibleMultiConverter\r\n");
+		}
+	}
+
+	private void exportBook(BookID bid, Book bk, Writer bw, List<String> warnings) throws IOException {
+		TheWordVisitor twv = new TheWordVisitor(bw, bid.isNT(), warnings);
+		int[] verseCount = Versification.KJV.getVerseCount(bid);
+		for (int cnumber = 1; cnumber <= verseCount.length; cnumber++) {
+			Chapter ch = bk != null && cnumber <= bk.getChapters().size() ? bk.getChapters().get(cnumber - 1) : null;
+			int maxVerse = verseCount[cnumber - 1];
+			int nextVerse = 1;
+			if (ch != null) {
+				BitSet allowedNumbers = new BitSet(maxVerse + 1);
+				allowedNumbers.set(1, maxVerse + 1);
+				for (VirtualVerse vv : ch.createVirtualVerses(allowedNumbers)) {
+					while (vv.getNumber() > nextVerse) {
 						bw.write("- - -\r\n");
+						nextVerse++;
+					}
+					if (vv.getNumber() != nextVerse)
+						throw new RuntimeException("Verse to write :" + vv.getNumber() + ", but next verse slot in file: " + nextVerse);
+					for (Headline h : vv.getHeadlines()) {
+						bw.write("<TS" + (h.getDepth() < 3 ? h.getDepth() : 3) + ">");
+						h.accept(twv);
+						twv.reset();
+						bw.write("<Ts>");
+					}
+					for (Verse v : vv.getVerses()) {
+						if (!v.getNumber().equals("" + vv.getNumber())) {
+							bw.write(" (" + v.getNumber() + ")");
+						}
+						v.accept(twv);
+						twv.reset();
 					}
+					bw.write("\r\n");
+					nextVerse++;
 				}
 			}
-			bw.write("\r\nabout=Converted by BibleMultiConverter\r\n");
+			if (nextVerse > maxVerse + 1)
+				throw new RuntimeException(nextVerse + "/" + (maxVerse + 1));
+			for (int i = 0; i <= maxVerse - nextVerse; i++) {
+				bw.write("- - -\r\n");
+			}
 		}
 	}
 
@@ -353,13 +372,15 @@ public class TheWord implements RoundtripFormat {
 
 	private static class TheWordVisitor implements Visitor<IOException> {
 
-		private BufferedWriter bw;
+		private Writer bw;
 		protected final List<String> suffixStack = new ArrayList<String>();
 		private boolean nt;
+		private final List<String> warnings;
 
-		private TheWordVisitor(BufferedWriter bw, boolean nt) {
+		private TheWordVisitor(Writer bw, boolean nt, List<String> warnings) {
 			this.bw = bw;
 			this.nt = nt;
+			this.warnings = warnings;
 			suffixStack.add("");
 		}
 
@@ -406,7 +427,7 @@ public class TheWord implements RoundtripFormat {
 
 		@Override
 		public Visitor<IOException> visitHeadline(int depth) throws IOException {
-			System.out.println("WARNING: Skipping headline where no headlines allowed");
+			warnings.add("WARNING: Skipping headline where no headlines allowed");
 			return null;
 		}
 
@@ -494,11 +515,11 @@ public class TheWord implements RoundtripFormat {
 				Integer.parseInt(firstVerse);
 				Integer.parseInt(lastVerse);
 			} catch (NumberFormatException ex) {
-				System.out.println("WARNING: Skipping xref of non-numeric verse numbers: " + firstVerse + "-" + lastVerse);
+				warnings.add("WARNING: Skipping xref of non-numeric verse numbers: " + firstVerse + "-" + lastVerse);
 				return null;
 			}
 			if (firstChapter != lastChapter) {
-				System.out.println("WARNING: Skipping xref that spans more than one chapter");
+				warnings.add("WARNING: Skipping xref that spans more than one chapter");
 				return null;
 			}
 			String verse = firstVerse + (firstVerse.equals(lastVerse) ? "" : "-" + lastVerse);
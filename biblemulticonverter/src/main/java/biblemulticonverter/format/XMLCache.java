@@ -0,0 +1,150 @@
+package biblemulticonverter.format;
+
+import java.net.URL;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.XMLConstants;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Cache for JAXB contexts and compiled XML schemas, which are expensive to
+ * create and can be shared between threads, and pools of marshallers and
+ * unmarshallers, which can be reused but not shared.
+ * <p>
+ * Borrowed marshallers and unmarshallers are returned to the pool when their
+ * lease is closed; they must not be reconfigured while borrowed.
+ */
+public class XMLCache {
+
+	private static final ConcurrentMap<String, JAXBContext> contexts = new ConcurrentHashMap<String, JAXBContext>();
+	private static final ConcurrentMap<String, Schema> schemas = new ConcurrentHashMap<String, Schema>();
+	private static final ConcurrentMap<PoolKey, Queue<Marshaller>> marshallers = new ConcurrentHashMap<PoolKey, Queue<Marshaller>>();
+	private static final ConcurrentMap<PoolKey, Queue<Unmarshaller>> unmarshallers = new ConcurrentHashMap<PoolKey, Queue<Unmarshaller>>();
+
+	/**
+	 * Return the JAXB context for the package of the given object factory.
+	 */
+	public static JAXBContext getContext(Class<?> objectFactoryClass) throws JAXBException {
+		String contextPath = objectFactoryClass.getPackage().getName();
+		JAXBContext result = contexts.get(contextPath);
+		if (result == null) {
+			result = JAXBContext.newInstance(contextPath);
+			JAXBContext existing = contexts.putIfAbsent(contextPath, result);
+			if (existing != null)
+				result = existing;
+		}
+		return result;
+	}
+
+	/**
+	 * Return the compiled W3C XML schema at the given URL.
+	 */
+	public static Schema getSchema(URL schemaURL) throws SAXException {
+		String key = schemaURL.toString();
+		Schema result = schemas.get(key);
+		if (result == null) {
+			result = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(schemaURL);
+			Schema existing = schemas.putIfAbsent(key, result);
+			if (existing != null)
+				result = existing;
+		}
+		return result;
+	}
+
+	/**
+	 * Borrow a marshaller for the package of the given object factory, that
+	 * validates against the given schema (if not <code>null</code>).
+	 */
+	public static Lease<Marshaller> borrowMarshaller(Class<?> objectFactoryClass, Schema schema) throws JAXBException {
+		PoolKey key = new PoolKey(objectFactoryClass.getPackage().getName(), schema);
+		Queue<Marshaller> pool = getPool(marshallers, key);
+		Marshaller result = pool.poll();
+		if (result == null) {
+			result = getContext(objectFactoryClass).createMarshaller();
+			result.setSchema(schema);
+		}
+		return new Lease<Marshaller>(result, pool);
+	}
+
+	/**
+	 * Borrow an unmarshaller for the package of the given object factory, that
+	 * validates against the given schema (if not <code>null</code>).
+	 */
+	public static Lease<Unmarshaller> borrowUnmarshaller(Class<?> objectFactoryClass, Schema schema) throws JAXBException {
+		PoolKey key = new PoolKey(objectFactoryClass.getPackage().getName(), schema);
+		Queue<Unmarshaller> pool = getPool(unmarshallers, key);
+		Unmarshaller result = pool.poll();
+		if (result == null) {
+			result = getContext(objectFactoryClass).createUnmarshaller();
+			result.setSchema(schema);
+		}
+		return new Lease<Unmarshaller>(result, pool);
+	}
+
+	private static <T> Queue<T> getPool(ConcurrentMap<PoolKey, Queue<T>> pools, PoolKey key) {
+		Queue<T> result = pools.get(key);
+		if (result == null) {
+			result = new ConcurrentLinkedQueue<T>();
+			Queue<T> existing = pools.putIfAbsent(key, result);
+			if (existing != null)
+				result = existing;
+		}
+		return result;
+	}
+
+	/**
+	 * A borrowed marshaller or unmarshaller, to be used in a
+	 * try-with-resources statement.
+	 */
+	public static class Lease<T> implements AutoCloseable {
+		private final T value;
+		private final Queue<T> pool;
+
+		private Lease(T value, Queue<T> pool) {
+			this.value = value;
+			this.pool = pool;
+		}
+
+		public T get() {
+			return value;
+		}
+
+		@Override
+		public void close() {
+			pool.offer(value);
+		}
+	}
+
+	private static class PoolKey {
+		private final String contextPath;
+		private final Schema schema;
+
+		private PoolKey(String contextPath, Schema schema) {
+			this.contextPath = contextPath;
+			this.schema = schema;
+		}
+
+		@Override
+		public int hashCode() {
+			return contextPath.hashCode() * 31 + System.identityHashCode(schema);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof PoolKey))
+				return false;
+			PoolKey other = (PoolKey) obj;
+			return contextPath.equals(other.contextPath) && schema == other.schema;
+		}
+	}
+}
@@ -5,8 +5,6 @@ import java.io.Serializable;
 import java.util.Arrays;
 import java.util.List;
 
-import javax.xml.XMLConstants;
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.Marshaller;
 import javax.xml.bind.Unmarshaller;
@@ -18,7 +16,6 @@ import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.validation.Schema;
-import javax.xml.validation.SchemaFactory;
 
 import org.w3c.dom.Document;
 import org.xml.sax.SAXException;
@@ -66,10 +63,10 @@ public class ZefDic implements RoundtripFormat {
 
 	@Override
 	public Bible doImport(File inputFile) throws Exception {
-		JAXBContext ctx = JAXBContext.newInstance(ObjectFactory.class.getPackage().getName());
-		Unmarshaller u = ctx.createUnmarshaller();
-		u.setSchema(getSchema());
-		Dictionary doc = (Dictionary) u.unmarshal(inputFile);
+		Dictionary doc;
+		try (XMLCache.Lease<Unmarshaller> u = XMLCache.borrowUnmarshaller(ObjectFactory.class, getSchema())) {
+			doc = (Dictionary) u.get().unmarshal(inputFile);
+		}
 		return parseBible(doc);
 	}
 
@@ -257,10 +254,9 @@ public class ZefDic implements RoundtripFormat {
 		Dictionary xmlbible = createXMLBible(bible);
 
 		final Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
-		JAXBContext ctx = JAXBContext.newInstance(ObjectFactory.class.getPackage().getName());
-		Marshaller m = ctx.createMarshaller();
-		m.setSchema(getSchema());
-		m.marshal(xmlbible, doc);
+		try (XMLCache.Lease<Marshaller> m = XMLCache.borrowMarshaller(ObjectFactory.class, getSchema())) {
+			m.get().marshal(xmlbible, doc);
+		}
 		Transformer transformer = TransformerFactory.newInstance().newTransformer();
 		transformer.setOutputProperty(OutputKeys.INDENT, "yes");
 		transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
@@ -268,7 +264,7 @@ public class ZefDic implements RoundtripFormat {
 	}
 
 	protected Schema getSchema() throws SAXException {
-		return SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(ObjectFactory.class.getResource("/zefDic1.xsd"));
+		return XMLCache.getSchema(ObjectFactory.class.getResource("/zefDic1.xsd"));
 	}
 
 	protected Dictionary createXMLBible(Bible bible) throws Exception {
@@ -7,7 +7,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.Marshaller;
 import javax.xml.namespace.QName;
@@ -75,9 +74,9 @@ public class ZefDicMyBible implements ExportFormat {
 		String[] idfields = (exportArgs.length > 1 ? exportArgs[1] : "long,short").split(",");
 		Dictionary xmlbible = createXMLBible(bible, idfields);
 		final Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
-		JAXBContext ctx = JAXBContext.newInstance(ObjectFactory.class);
-		Marshaller m = ctx.createMarshaller();
-		m.marshal(xmlbible, doc);
+		try (XMLCache.Lease<Marshaller> m = XMLCache.borrowMarshaller(ObjectFactory.class, null)) {
+			m.get().marshal(xmlbible, doc);
+		}
 		doc.normalize();
 		maskWhitespaceNodes(doc.getDocumentElement());
 		Transformer transformer = TransformerFactory.newInstance().newTransformer();
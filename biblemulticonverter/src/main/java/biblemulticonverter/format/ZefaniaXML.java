@@ -1,10 +1,16 @@
 package biblemulticonverter.format;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.EnumMap;
 import java.util.HashSet;
 import java.util.List;
@@ -13,28 +19,33 @@ import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import javax.xml.XMLConstants;
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.Marshaller;
 import javax.xml.bind.Unmarshaller;
+import javax.xml.bind.UnmarshallerHandler;
 import javax.xml.namespace.QName;
-import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.validation.Schema;
-import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.ValidatorHandler;
 
-import org.w3c.dom.Document;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.XMLFilterImpl;
 
 import biblemulticonverter.data.Bible;
 import biblemulticonverter.data.Book;
 import biblemulticonverter.data.BookID;
 import biblemulticonverter.data.Chapter;
+import biblemulticonverter.data.DeduplicationPool;
 import biblemulticonverter.data.FormattedText;
 import biblemulticonverter.data.FormattedText.ExtraAttributePriority;
 import biblemulticonverter.data.FormattedText.FormattingInstructionKind;
@@ -102,72 +113,110 @@ public class ZefaniaXML implements RoundtripFormat {
 
 	@Override
 	public Bible doImport(File inputFile) throws Exception {
-		ValidateXML.validateFileBeforeParsing(getSchema(), inputFile);
-		JAXBContext ctx = JAXBContext.newInstance(ObjectFactory.class.getPackage().getName());
-		Unmarshaller u = ctx.createUnmarshaller();
-		XMLBIBLE doc = (XMLBIBLE) u.unmarshal(inputFile);
-		return parseBible(doc);
+		XMLInputFactory xif = XMLInputFactory.newInstance();
+		try (XMLCache.Lease<Unmarshaller> u = XMLCache.borrowUnmarshaller(ObjectFactory.class, null)) {
+			// first pass: validation, metadata and book names only. The file is
+			// read twice, as cross references need the abbreviations of all
+			// books before the first book is converted; unmarshalling all
+			// books in one pass would keep the whole document in memory.
+			UnmarshallerHandler handler = u.get().getUnmarshallerHandler();
+			SkipBookContentFilter filter = new SkipBookContentFilter();
+			filter.setContentHandler(handler);
+			ValidateXML.parseAndValidate(getSchema(), inputFile, filter);
+			BookParser parser = new BookParser((XMLBIBLE) handler.getResult());
+			// second pass: unmarshal and convert one book at a time
+			try (InputStream in = new FileInputStream(inputFile)) {
+				XMLStreamReader r = xif.createXMLStreamReader(inputFile.toURI().toString(), in);
+				while (r.hasNext()) {
+					if (r.isStartElement() && r.getLocalName().equals("BIBLEBOOK")) {
+						parser.parseBook(u.get().unmarshal(r, BIBLEBOOK.class).getValue());
+					} else {
+						r.next();
+					}
+				}
+				r.close();
+			}
+			return parser.result;
+		}
 	}
 
 	protected Bible parseBible(XMLBIBLE doc) throws Exception {
-		Bible result = new Bible(doc.getBiblename());
-		MetadataBook metadata = new MetadataBook();
-		if (doc.getStatus() != null) {
-			metadata.setValue(MetadataBookKey.status, doc.getStatus().value());
+		BookParser parser = new BookParser(doc);
+		for (BIBLEBOOK e : doc.getBIBLEBOOK()) {
+			parser.parseBook(e);
 		}
-		if (doc.getVersion() != null) {
-			metadata.setValue(MetadataBookKey.version, doc.getVersion());
-		}
-		if (doc.getRevision() != null) {
-			metadata.setValue(MetadataBookKey.revision, doc.getRevision().toString());
-		}
-		for (JAXBElement<?> elem : doc.getINFORMATION().getTitleOrCreatorOrDescription()) {
-			if (elem.getValue() == null)
-				continue;
-			String value = normalize(elem.getValue().toString(), true).trim();
-			if (value.length() != 0)
-				metadata.setValue(elem.getName().getLocalPart(), value);
-		}
-		metadata.finished();
-		if (metadata.getKeys().size() > 0)
-			result.getBooks().add(metadata.getBook());
-		Set<String> abbrs = new HashSet<String>();
-		Set<String> shortnames = new HashSet<String>();
-		Set<String> longnames = new HashSet<String>();
-		Map<BookID, String> abbrMap = new EnumMap<BookID, String>(BookID.class);
-		List<BIBLEBOOK> nl = doc.getBIBLEBOOK();
-		for (BIBLEBOOK e : nl) {
-			String shortname = e.getBsname();
-			int number = e.getBnumber().intValue();
-			BookID bookID;
-			try {
-				bookID = BookID.fromZefId(number);
-			} catch (IllegalArgumentException ex) {
-				continue;
+		return parser.result;
+	}
+
+	/**
+	 * Converts Zefania books into books of a {@link Bible}. The names of all
+	 * books are needed up front (to resolve cross references), but the
+	 * content is converted one book at a time.
+	 */
+	private class BookParser {
+		private final Bible result;
+		private final Set<String> abbrs = new HashSet<String>();
+		private final Set<String> shortnames = new HashSet<String>();
+		private final Set<String> longnames = new HashSet<String>();
+		private final Map<BookID, String> abbrMap = new EnumMap<BookID, String>(BookID.class);
+		private final EnumMap<BookID, Book> existingBooks = new EnumMap<BookID, Book>(BookID.class);
+		private final DeduplicationPool pool = DeduplicationPool.getImportPool();
+
+		private BookParser(XMLBIBLE doc) {
+			result = new Bible(doc.getBiblename());
+			MetadataBook metadata = new MetadataBook();
+			if (doc.getStatus() != null) {
+				metadata.setValue(MetadataBookKey.status, doc.getStatus().value());
 			}
-			if (shortname == null || shortname.length() == 0)
-				shortname = "_" + bookID.getOsisID();
-			String abbr = shortname.replaceAll("[^A-Z0-9a-zäöü]++", "");
-			if (abbr.length() == 0 || Character.isLowerCase(abbr.charAt(0)))
-				abbr = "X" + abbr;
-			if (abbr.length() == 1)
-				abbr += "x";
-			if (abbrs.contains(abbr)) {
-				for (int i = 2; i < 100; i++) {
-					if (!abbrs.contains(abbr + i))
-					{
-						abbr = abbr + i;
-						break;
+			if (doc.getVersion() != null) {
+				metadata.setValue(MetadataBookKey.version, doc.getVersion());
+			}
+			if (doc.getRevision() != null) {
+				metadata.setValue(MetadataBookKey.revision, doc.getRevision().toString());
+			}
+			for (JAXBElement<?> elem : doc.getINFORMATION().getTitleOrCreatorOrDescription()) {
+				if (elem.getValue() == null)
+					continue;
+				String value = normalize(elem.getValue().toString(), true).trim();
+				if (value.length() != 0)
+					metadata.setValue(elem.getName().getLocalPart(), value);
+			}
+			metadata.finished();
+			if (metadata.getKeys().size() > 0)
+				result.getBooks().add(metadata.getBook());
+			List<BIBLEBOOK> nl = doc.getBIBLEBOOK();
+			for (BIBLEBOOK e : nl) {
+				String shortname = e.getBsname();
+				int number = e.getBnumber().intValue();
+				BookID bookID;
+				try {
+					bookID = BookID.fromZefId(number);
+				} catch (IllegalArgumentException ex) {
+					continue;
+				}
+				if (shortname == null || shortname.length() == 0)
+					shortname = "_" + bookID.getOsisID();
+				String abbr = shortname.replaceAll("[^A-Z0-9a-zäöü]++", "");
+				if (abbr.length() == 0 || Character.isLowerCase(abbr.charAt(0)))
+					abbr = "X" + abbr;
+				if (abbr.length() == 1)
+					abbr += "x";
+				if (abbrs.contains(abbr)) {
+					for (int i = 2; i < 100; i++) {
+						if (!abbrs.contains(abbr + i))
+						{
+							abbr = abbr + i;
+							break;
+						}
 					}
 				}
+				abbrs.add(abbr);
+				abbrMap.put(bookID, abbr);
 			}
-			abbrs.add(abbr);
-			abbrMap.put(bookID, abbr);
+			abbrs.clear();
 		}
-		abbrs.clear();
-		EnumMap<BookID, Book> existingBooks = new EnumMap<BookID, Book>(BookID.class);
 
-		for (BIBLEBOOK e : nl) {
+		private void parseBook(BIBLEBOOK e) throws Exception {
 			String shortname = e.getBsname();
 			String longname = e.getBname();
 			int number = e.getBnumber().intValue();
@@ -176,7 +225,7 @@ public class ZefaniaXML implements RoundtripFormat {
 				bookID = BookID.fromZefId(number);
 			} catch (IllegalArgumentException ex) {
 				System.out.println("WARNING: Skipping book with unknown id " + number);
-				continue;
+				return;
 			}
 			if (shortname == null || shortname.length() == 0)
 				shortname = "_" + bookID.getOsisID();
@@ -280,7 +329,7 @@ public class ZefaniaXML implements RoundtripFormat {
 						Headline h = new Headline(depth);
 						if (parseContent(h.getAppendVisitor(), caption.getContent(), abbrMap)) {
 							h.trimWhitespace();
-							h.finished();
+							h.finished(pool);
 							headlineBuffer.add(h);
 						}
 					} else if (e3 instanceof REMARK) {
@@ -339,7 +388,7 @@ public class ZefaniaXML implements RoundtripFormat {
 						FormattedText prologText = new FormattedText();
 						if (parseContent(prologText.getAppendVisitor(), prolog.getContent(), abbrMap)) {
 							prologText.trimWhitespace();
-							prologText.finished();
+							prologText.finished(pool);
 							chapter.setProlog(prologText);
 						}
 					} else if (e3 instanceof VERS) {
@@ -380,12 +429,10 @@ public class ZefaniaXML implements RoundtripFormat {
 						existingVerses--;
 						continue;
 					}
-					v.finished();
+					v.finished(pool);
 				}
 			}
 		}
-
-		return result;
 	}
 
 	private boolean parseContent(Visitor<RuntimeException> visitor, List<Object> contentList, Map<BookID, String> abbrMap) throws IOException {
@@ -597,6 +644,51 @@ public class ZefaniaXML implements RoundtripFormat {
 		v.visitExtraAttribute(ExtraAttributePriority.SKIP, "zefania", "empty", "true");
 	}
 
+	/**
+	 * SAX filter that skips the content (but not the attributes) of all
+	 * <code>BIBLEBOOK</code> elements.
+	 */
+	private static class SkipBookContentFilter extends XMLFilterImpl {
+		private int depth = 0, bookDepth = -1;
+
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+			depth++;
+			if (bookDepth == -1) {
+				if (localName.equals("BIBLEBOOK"))
+					bookDepth = depth;
+				super.startElement(uri, localName, qName, atts);
+			}
+		}
+
+		@Override
+		public void endElement(String uri, String localName, String qName) throws SAXException {
+			if (depth == bookDepth)
+				bookDepth = -1;
+			depth--;
+			if (bookDepth == -1)
+				super.endElement(uri, localName, qName);
+		}
+
+		@Override
+		public void characters(char[] ch, int start, int length) throws SAXException {
+			if (bookDepth == -1)
+				super.characters(ch, start, length);
+		}
+
+		@Override
+		public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+			if (bookDepth == -1)
+				super.ignorableWhitespace(ch, start, length);
+		}
+
+		@Override
+		public void processingInstruction(String target, String data) throws SAXException {
+			if (bookDepth == -1)
+				super.processingInstruction(target, data);
+		}
+	}
+
 	private static String normalize(String str, boolean keepNL) {
 		str = str.replace('\t', ' ');
 		if (keepNL)
@@ -608,27 +700,61 @@ public class ZefaniaXML implements RoundtripFormat {
 
 	@Override
 	public void doExport(Bible bible, String... exportArgs) throws Exception {
+		ObjectFactory of = new ObjectFactory();
+		XMLBIBLE header = createXMLBibleHeader(of, bible);
+		TransformerHandler th = ((SAXTransformerFactory) TransformerFactory.newInstance()).newTransformerHandler();
+		th.getTransformer().setOutputProperty(OutputKeys.INDENT, "yes");
+		th.getTransformer().setOutputProperty(OutputKeys.STANDALONE, "no");
+		th.getTransformer().setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
 		File file = new File(exportArgs[0]);
-		XMLBIBLE xmlbible = createXMLBible(bible);
-		final Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
-		JAXBContext ctx = JAXBContext.newInstance(ObjectFactory.class.getPackage().getName());
-		Marshaller m = ctx.createMarshaller();
-		m.setSchema(getSchema());
-		m.marshal(xmlbible, doc);
-		doc.getDocumentElement().setAttribute("xmlns:xsi", "http://www.w3.org/2001/XMLSchema-instance");
-		doc.getDocumentElement().setAttribute("xsi:noNamespaceSchemaLocation", "zef2005.xsd");
-		Transformer transformer = TransformerFactory.newInstance().newTransformer();
-		transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-		transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
-		transformer.transform(new DOMSource(doc), new StreamResult(file));
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+			th.setResult(new StreamResult(out));
+			ExportHandler handler = new ExportHandler(th, getSchema().newValidatorHandler());
+			AttributesImpl attrs = new AttributesImpl();
+			attrs.addAttribute("", "biblename", "biblename", "CDATA", header.getBiblename());
+			if (header.getStatus() != null)
+				attrs.addAttribute("", "status", "status", "CDATA", header.getStatus().value());
+			if (header.getVersion() != null)
+				attrs.addAttribute("", "version", "version", "CDATA", header.getVersion());
+			if (header.getRevision() != null)
+				attrs.addAttribute("", "revision", "revision", "CDATA", header.getRevision().toString());
+			attrs.addAttribute("", "type", "type", "CDATA", header.getType().value());
+			handler.startXMLBible(attrs);
+			try (XMLCache.Lease<Marshaller> m = XMLCache.borrowMarshaller(ObjectFactory.class, null)) {
+				m.get().marshal(header.getINFORMATION(), handler);
+				for (Book bk : bible.getBooks()) {
+					BIBLEBOOK bb = createBIBLEBOOK(of, bk);
+					if (bb != null)
+						m.get().marshal(bb, handler);
+				}
+			}
+			handler.endXMLBible();
+		} catch (Exception ex) {
+			// do not leave incomplete or invalid files behind
+			file.delete();
+			throw ex;
+		}
 	}
 
 	protected Schema getSchema() throws SAXException {
-		return SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(ObjectFactory.class.getResource("/zef2005.xsd"));
+		return XMLCache.getSchema(ObjectFactory.class.getResource("/zef2005.xsd"));
 	}
 
 	protected XMLBIBLE createXMLBible(Bible bible) throws Exception {
 		ObjectFactory of = new ObjectFactory();
+		XMLBIBLE doc = createXMLBibleHeader(of, bible);
+		for (Book bk : bible.getBooks()) {
+			BIBLEBOOK bb = createBIBLEBOOK(of, bk);
+			if (bb != null)
+				doc.getBIBLEBOOK().add(bb);
+		}
+		return doc;
+	}
+
+	/**
+	 * Create the document element and its information, without any books.
+	 */
+	protected XMLBIBLE createXMLBibleHeader(ObjectFactory of, Bible bible) throws Exception {
 		XMLBIBLE doc = of.createXMLBIBLE();
 		doc.setBiblename(bible.getName());
 		doc.setType(EnumModtyp.X_BIBLE);
@@ -651,67 +777,67 @@ public class ZefaniaXML implements RoundtripFormat {
 			}
 		}
 		doc.getINFORMATION().getTitleOrCreatorOrDescription().add(new JAXBElement<String>(new QName("format"), String.class, "Zefania XML Bible Markup Language"));
+		return doc;
+	}
 
-		for (Book bk : bible.getBooks()) {
-			if (bk.getId().equals(BookID.METADATA))
-				continue;
-			if (bk.getId().getZefID() <= 0) {
-				System.out.println("WARNING: Unable to export book " + bk.getAbbr());
+	protected BIBLEBOOK createBIBLEBOOK(ObjectFactory of, Book bk) throws Exception {
+		if (bk.getId().equals(BookID.METADATA))
+			return null;
+		if (bk.getId().getZefID() <= 0) {
+			System.out.println("WARNING: Unable to export book " + bk.getAbbr());
+			return null;
+		}
+		BIBLEBOOK bb = of.createBIBLEBOOK();
+		bb.setBnumber(BigInteger.valueOf(bk.getId().getZefID()));
+		bb.setBsname(bk.getShortName());
+		bb.setBname(bk.getLongName());
+
+		int cnumber = 0;
+		for (Chapter ccc : bk.getChapters()) {
+			cnumber++;
+			if (ccc.getVerses().size() == 0)
 				continue;
+			CHAPTER cc = of.createCHAPTER();
+			cc.setCnumber(BigInteger.valueOf(cnumber));
+			bb.getCHAPTER().add(cc);
+
+			if (ccc.getProlog() != null) {
+				PROLOG prolog = of.createPROLOG();
+				prolog.setVref(BigInteger.ONE);
+				ccc.getProlog().accept(new CreateContentVisitor(of, prolog.getContent(), null));
+				cc.getPROLOGOrCAPTIONOrVERS().add(prolog);
 			}
-			BIBLEBOOK bb = of.createBIBLEBOOK();
-			bb.setBnumber(BigInteger.valueOf(bk.getId().getZefID()));
-			bb.setBsname(bk.getShortName());
-			bb.setBname(bk.getLongName());
-
-			int cnumber = 0;
-			for (Chapter ccc : bk.getChapters()) {
-				cnumber++;
-				if (ccc.getVerses().size() == 0)
-					continue;
-				CHAPTER cc = of.createCHAPTER();
-				cc.setCnumber(BigInteger.valueOf(cnumber));
-				bb.getCHAPTER().add(cc);
-
-				if (ccc.getProlog() != null) {
-					PROLOG prolog = of.createPROLOG();
-					prolog.setVref(BigInteger.ONE);
-					ccc.getProlog().accept(new CreateContentVisitor(of, prolog.getContent(), null));
-					cc.getPROLOGOrCAPTIONOrVERS().add(prolog);
-				}
 
-				for (VirtualVerse vv : ccc.createVirtualVerses()) {
-					for (Headline h : vv.getHeadlines()) {
-						CAPTION caption = of.createCAPTION();
-						caption.setVref(BigInteger.valueOf(vv.getNumber()));
-						h.accept(new CreateContentVisitor(of, caption.getContent(), null));
-						EnumCaptionType[] types = new EnumCaptionType[] {
-								null,
-								EnumCaptionType.X_H_1, EnumCaptionType.X_H_2, EnumCaptionType.X_H_3,
-								EnumCaptionType.X_H_4, EnumCaptionType.X_H_5, EnumCaptionType.X_H_6,
-								null, null, null
-						};
-						caption.setType(types[h.getDepth()]);
-						cc.getPROLOGOrCAPTIONOrVERS().add(caption);
-					}
-					VERS vers = of.createVERS();
-					vers.setVnumber(BigInteger.valueOf(vv.getNumber()));
-					for (Verse v : vv.getVerses()) {
-						if (!v.getNumber().equals("" + vv.getNumber())) {
-							STYLE verseNum = of.createSTYLE();
-							verseNum.setCss("font-weight: bold");
-							verseNum.getContent().add("(" + v.getNumber() + ")");
-							vers.getContent().add(new JAXBElement<STYLE>(new QName("STYLE"), STYLE.class, verseNum));
-							vers.getContent().add(" ");
-						}
-						v.accept(new CreateContentVisitor(of, vers.getContent(), vers));
+			for (VirtualVerse vv : ccc.createVirtualVerses()) {
+				for (Headline h : vv.getHeadlines()) {
+					CAPTION caption = of.createCAPTION();
+					caption.setVref(BigInteger.valueOf(vv.getNumber()));
+					h.accept(new CreateContentVisitor(of, caption.getContent(), null));
+					EnumCaptionType[] types = new EnumCaptionType[] {
+							null,
+							EnumCaptionType.X_H_1, EnumCaptionType.X_H_2, EnumCaptionType.X_H_3,
+							EnumCaptionType.X_H_4, EnumCaptionType.X_H_5, EnumCaptionType.X_H_6,
+							null, null, null
+					};
+					caption.setType(types[h.getDepth()]);
+					cc.getPROLOGOrCAPTIONOrVERS().add(caption);
+				}
+				VERS vers = of.createVERS();
+				vers.setVnumber(BigInteger.valueOf(vv.getNumber()));
+				for (Verse v : vv.getVerses()) {
+					if (!v.getNumber().equals("" + vv.getNumber())) {
+						STYLE verseNum = of.createSTYLE();
+						verseNum.setCss("font-weight: bold");
+						verseNum.getContent().add("(" + v.getNumber() + ")");
+						vers.getContent().add(new JAXBElement<STYLE>(new QName("STYLE"), STYLE.class, verseNum));
+						vers.getContent().add(" ");
 					}
-					cc.getPROLOGOrCAPTIONOrVERS().add(vers);
+					v.accept(new CreateContentVisitor(of, vers.getContent(), vers));
 				}
+				cc.getPROLOGOrCAPTIONOrVERS().add(vers);
 			}
-			doc.getBIBLEBOOK().add(bb);
 		}
-		return doc;
+		return bb;
 	}
 
 	@Override
@@ -724,6 +850,133 @@ public class ZefaniaXML implements RoundtripFormat {
 		return false;
 	}
 
+	/**
+	 * Content handler that writes marshalled books into the document element
+	 * and validates them at the same time. Attributes are written in the same
+	 * order as the DOM serializer used to write them, to keep the output
+	 * stable.
+	 */
+	private static class ExportHandler implements ContentHandler {
+
+		private static final Comparator<String> ATTRIBUTE_ORDER = new Comparator<String>() {
+			@Override
+			public int compare(String name1, String name2) {
+				boolean ns1 = name1.startsWith("xmlns"), ns2 = name2.startsWith("xmlns");
+				if (ns1 != ns2)
+					return ns1 ? -1 : 1;
+				return name1.compareTo(name2);
+			}
+		};
+
+		private final ContentHandler output;
+		private final ValidatorHandler validator;
+
+		private ExportHandler(ContentHandler output, ValidatorHandler validator) {
+			this.output = output;
+			this.validator = validator;
+		}
+
+		private void startXMLBible(Attributes attrs) throws SAXException {
+			validator.startDocument();
+			validator.startElement("", "XMLBIBLE", "XMLBIBLE", attrs);
+			AttributesImpl outputAttrs = new AttributesImpl(attrs);
+			outputAttrs.addAttribute("", "", "xmlns:xsi", "CDATA", "http://www.w3.org/2001/XMLSchema-instance");
+			outputAttrs.addAttribute("", "", "xsi:noNamespaceSchemaLocation", "CDATA", "zef2005.xsd");
+			output.startDocument();
+			output.startElement("", "XMLBIBLE", "XMLBIBLE", sortAttributes(outputAttrs));
+		}
+
+		private void endXMLBible() throws SAXException {
+			validator.endElement("", "XMLBIBLE", "XMLBIBLE");
+			validator.endDocument();
+			output.endElement("", "XMLBIBLE", "XMLBIBLE");
+			output.endDocument();
+		}
+
+		private static Attributes sortAttributes(Attributes attrs) {
+			if (attrs.getLength() < 2)
+				return attrs;
+			Integer[] order = new Integer[attrs.getLength()];
+			final String[] names = new String[order.length];
+			for (int i = 0; i < order.length; i++) {
+				order[i] = i;
+				names[i] = attrs.getQName(i);
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer i1, Integer i2) {
+					return ATTRIBUTE_ORDER.compare(names[i1], names[i2]);
+				}
+			});
+			AttributesImpl result = new AttributesImpl();
+			for (int i : order) {
+				result.addAttribute(attrs.getURI(i), attrs.getLocalName(i), attrs.getQName(i), attrs.getType(i), attrs.getValue(i));
+			}
+			return result;
+		}
+
+		@Override
+		public void setDocumentLocator(Locator locator) {
+		}
+
+		@Override
+		public void startDocument() throws SAXException {
+			// marshalled books are embedded into the document element
+		}
+
+		@Override
+		public void endDocument() throws SAXException {
+		}
+
+		@Override
+		public void startPrefixMapping(String prefix, String uri) throws SAXException {
+			validator.startPrefixMapping(prefix, uri);
+			output.startPrefixMapping(prefix, uri);
+		}
+
+		@Override
+		public void endPrefixMapping(String prefix) throws SAXException {
+			validator.endPrefixMapping(prefix);
+			output.endPrefixMapping(prefix);
+		}
+
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+			validator.startElement(uri, localName, qName, atts);
+			output.startElement(uri, localName, qName, sortAttributes(atts));
+		}
+
+		@Override
+		public void endElement(String uri, String localName, String qName) throws SAXException {
+			validator.endElement(uri, localName, qName);
+			output.endElement(uri, localName, qName);
+		}
+
+		@Override
+		public void characters(char[] ch, int start, int length) throws SAXException {
+			validator.characters(ch, start, length);
+			output.characters(ch, start, length);
+		}
+
+		@Override
+		public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+			validator.ignorableWhitespace(ch, start, length);
+			output.ignorableWhitespace(ch, start, length);
+		}
+
+		@Override
+		public void processingInstruction(String target, String data) throws SAXException {
+			validator.processingInstruction(target, data);
+			output.processingInstruction(target, data);
+		}
+
+		@Override
+		public void skippedEntity(String name) throws SAXException {
+			validator.skippedEntity(name);
+			output.skippedEntity(name);
+		}
+	}
+
 	private static class CreateContentVisitor implements Visitor<IOException> {
 
 		private List<Object> result;
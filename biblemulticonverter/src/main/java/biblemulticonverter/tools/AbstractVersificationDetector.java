@@ -45,6 +45,7 @@ public abstract class AbstractVersificationDetector implements ExportFormat {
 				Chapter chapter = book.getChapters().get(cc);
 				if (includeXref && chapter.getProlog() != null) {
 					chapter.getProlog().accept(xcv);
+					xcv.countCollectedXrefs();
 				}
 				if (useVerseRanges()) {
 					for (VerseRange vr : chapter.createVerseRanges()) {
@@ -52,16 +53,19 @@ public abstract class AbstractVersificationDetector implements ExportFormat {
 						countVerse(schemes, totalVerses, book.getAbbr(), book.getId(), cnumber, vr.getMinVerse());
 						countVerse(schemes, totalVerses, book.getAbbr(), book.getId(), cnumber, vr.getMaxVerse());
 					}
+					if (includeXref) {
+						for (Verse vv : chapter.getVerses()) {
+							vv.accept(xcv);
+						}
+					}
 				} else {
-					for (VirtualVerse v : chapter.createVirtualVerses()) {
+					// collect xrefs while splitting the verses
+					for (VirtualVerse v : chapter.createVirtualVerses(null, xcv)) {
 						countVerse(schemes, totalVerses, book.getAbbr(), book.getId(), cc + 1, v.getNumber());
 					}
 				}
-				if (includeXref) {
-					for (Verse vv : chapter.getVerses()) {
-						vv.accept(xcv);
-					}
-				}
+				if (includeXref)
+					xcv.countCollectedXrefs();
 			}
 		}
 
@@ -182,6 +186,7 @@ public abstract class AbstractVersificationDetector implements ExportFormat {
 	private class XrefCountVisitor extends FormattedText.VisitorAdapter<RuntimeException> {
 		private final VersificationScheme[] schemes;
 		private final Set<String> totalVerses;
+		private final List<XrefTarget> collectedXrefs = new ArrayList<XrefTarget>();
 
 		public XrefCountVisitor(VersificationScheme[] schemes, Set<String> totalVerses) {
 			super(null);
@@ -189,6 +194,18 @@ public abstract class AbstractVersificationDetector implements ExportFormat {
 			this.totalVerses = totalVerses;
 		}
 
+		/**
+		 * Count the verses referenced by the xrefs visited so far. Counting is
+		 * deferred so that xrefs visited while splitting a chapter's verses
+		 * are still counted after the verses themselves.
+		 */
+		public void countCollectedXrefs() {
+			for (XrefTarget xref : collectedXrefs) {
+				countVerse(schemes, totalVerses, xref.bookAbbr, xref.book, xref.chapter, xref.verse);
+			}
+			collectedXrefs.clear();
+		}
+
 		@Override
 		protected Visitor<RuntimeException> wrapChildVisitor(Visitor<RuntimeException> childVisitor) throws RuntimeException {
 			return this;
@@ -197,11 +214,25 @@ public abstract class AbstractVersificationDetector implements ExportFormat {
 		@Override
 		public Visitor<RuntimeException> visitCrossReference(String bookAbbr, BookID book, int firstChapter, String firstVerse, int lastChapter, String lastVerse) throws RuntimeException {
 			try {
-				countVerse(schemes, totalVerses, bookAbbr, book, firstChapter, Integer.parseInt(firstVerse));
-				countVerse(schemes, totalVerses, bookAbbr, book, lastChapter, Integer.parseInt(lastVerse));
+				collectedXrefs.add(new XrefTarget(bookAbbr, book, firstChapter, Integer.parseInt(firstVerse)));
+				collectedXrefs.add(new XrefTarget(bookAbbr, book, lastChapter, Integer.parseInt(lastVerse)));
 			} catch (NumberFormatException ex) {
 			}
 			return this;
 		}
 	}
+
+	private static class XrefTarget {
+		private final String bookAbbr;
+		private final BookID book;
+		private final int chapter;
+		private final int verse;
+
+		private XrefTarget(String bookAbbr, BookID book, int chapter, int verse) {
+			this.bookAbbr = bookAbbr;
+			this.book = book;
+			this.chapter = chapter;
+			this.verse = verse;
+		}
+	}
 }
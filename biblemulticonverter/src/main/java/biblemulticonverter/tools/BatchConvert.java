@@ -0,0 +1,215 @@
+package biblemulticonverter.tools;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import biblemulticonverter.ConsoleCapture;
+import biblemulticonverter.Main;
+
+public class BatchConvert implements Tool {
+
+	public static final String[] HELP_TEXT = {
+			"Usage: BatchConvert <manifest> <report> [<threads>]",
+			"",
+			"Run the conversion jobs listed in a manifest file, using the given number of threads",
+			"(default: number of processors).",
+			"Every line of the manifest that is neither empty nor starts with # is a job. The fields of",
+			"the job are separated by tabs and are the same as the command line arguments of a conversion:",
+			"<ImportFormat> <ImportFile> <ExportFormat> [<ExportArgs>...] [-- <ExportFormat> [<ExportArgs>...]]...",
+			"As on the command line, -- separates several exports and cannot be used as an export argument,",
+			"and only the import file and the first export argument of each export may be compressed.",
+			"",
+			"Failed jobs do not stop the batch. The console output of each job is printed when it has finished.",
+			"The report is a tab-separated file with a header line; for each job it contains the status,",
+			"wall time and CPU time (of the whole JVM, including worker threads) in milliseconds, peak heap",
+			"usage of the JVM while the job was running, and the total size of the exported files and",
+			"directories (the first export argument of every export format) written by the job.",
+			"CPU time and peak heap usage are only exact when running with a single thread. Otherwise they",
+			"include other jobs running at the same time, and their columns are marked as approximate."
+	};
+
+	@Override
+	public void run(String... args) throws Exception {
+		Main.discoverModules();
+		List<Job> jobs = new ArrayList<Job>();
+		try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(args[0]), StandardCharsets.UTF_8))) {
+			String line;
+			int lineNumber = 0;
+			while ((line = br.readLine()) != null) {
+				lineNumber++;
+				if (line.trim().isEmpty() || line.startsWith("#"))
+					continue;
+				jobs.add(new Job(lineNumber, line.split("\t")));
+			}
+		}
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		final List<Job> runningJobs = new ArrayList<Job>();
+		Timer heapSampler = new Timer("heap sampler", true);
+		heapSampler.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				synchronized (runningJobs) {
+					long used = getUsedHeap();
+					for (Job job : runningJobs) {
+						job.updatePeakHeap(used);
+					}
+				}
+			}
+		}, 0, 10);
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+		long start = System.nanoTime();
+		try {
+			for (final Job job : jobs) {
+				executor.submit(new Runnable() {
+					@Override
+					public void run() {
+						synchronized (runningJobs) {
+							runningJobs.add(job);
+							job.updatePeakHeap(getUsedHeap());
+						}
+						try {
+							job.run();
+						} finally {
+							synchronized (runningJobs) {
+								job.updatePeakHeap(getUsedHeap());
+								runningJobs.remove(job);
+							}
+							job.printOutput();
+						}
+					}
+				});
+			}
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+		} finally {
+			executor.shutdownNow();
+			heapSampler.cancel();
+		}
+		long millis = (System.nanoTime() - start) / 1000000;
+		int failed = 0;
+		try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(args[1]), StandardCharsets.UTF_8))) {
+			// jobs running at the same time share the JVM
+			String jvmColumns = threads > 1 ? "approxCpuMillis\tapproxPeakHeapBytes" : "cpuMillis\tpeakHeapBytes";
+			bw.write("line\tstatus\twallMillis\t" + jvmColumns + "\toutputBytes\targuments\terror");
+			bw.newLine();
+			for (Job job : jobs) {
+				if (job.error != null)
+					failed++;
+				bw.write(job.lineNumber + "\t" + (job.error == null ? "OK" : "FAILED") + "\t" + job.wallMillis + "\t" + job.cpuMillis + "\t" + job.peakHeap + "\t" + job.outputSize + "\t" + Arrays.toString(job.args) + "\t" + (job.error == null ? "" : job.error.toString().replaceAll("[\t\r\n]+", " ")));
+				bw.newLine();
+			}
+		}
+		System.out.println(jobs.size() + " jobs finished in " + millis + " ms, " + failed + " failed.");
+	}
+
+	private static long getUsedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Return the CPU time used by the JVM in nanoseconds, or -1 if it is not
+	 * available.
+	 */
+	private static long getProcessCpuTime() {
+		OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+		if (bean instanceof com.sun.management.OperatingSystemMXBean)
+			return ((com.sun.management.OperatingSystemMXBean) bean).getProcessCpuTime();
+		return -1;
+	}
+
+	/**
+	 * Return the files or directories exported by a conversion, which are
+	 * given by the first argument of every export format.
+	 */
+	private static List<File> getExportFiles(String[] args) {
+		List<File> result = new ArrayList<File>();
+		for (String[] export : Main.splitExports(args)) {
+			if (export.length > 1)
+				result.add(new File(export[1]));
+		}
+		return result;
+	}
+
+	private static long getOutputSize(File file, long minLastModified) {
+		if (file.isDirectory()) {
+			long result = 0;
+			File[] children = file.listFiles();
+			if (children != null) {
+				for (File child : children) {
+					result += getOutputSize(child, minLastModified);
+				}
+			}
+			return result;
+		}
+		return file.isFile() && file.lastModified() >= minLastModified ? file.length() : 0;
+	}
+
+	private static class Job {
+		private final int lineNumber;
+		private final String[] args;
+		private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		private long wallMillis = -1, cpuMillis = -1, outputSize = 0;
+		private volatile long peakHeap = 0;
+		private Throwable error;
+
+		private Job(int lineNumber, String[] args) {
+			this.lineNumber = lineNumber;
+			this.args = args;
+		}
+
+		private void updatePeakHeap(long usedHeap) {
+			peakHeap = Math.max(peakHeap, usedHeap);
+		}
+
+		private void run() {
+			// file systems may store modification times with a precision of
+			// seconds only
+			long startMillis = System.currentTimeMillis() / 1000 * 1000;
+			long start = System.nanoTime();
+			long startCPU = getProcessCpuTime();
+			OutputStream previousCapture = ConsoleCapture.start(output);
+			try {
+				if (!Main.runConversion(args))
+					throw new IllegalArgumentException("Unsupported import or export format");
+			} catch (Exception | Error ex) {
+				error = ex;
+				ex.printStackTrace();
+			} finally {
+				ConsoleCapture.stop(previousCapture);
+				wallMillis = (System.nanoTime() - start) / 1000000;
+				long endCPU = getProcessCpuTime();
+				if (startCPU != -1 && endCPU != -1)
+					cpuMillis = (endCPU - startCPU) / 1000000;
+			}
+			for (File file : getExportFiles(args)) {
+				outputSize += getOutputSize(file, startMillis);
+			}
+		}
+
+		private void printOutput() {
+			synchronized (Job.class) {
+				System.out.println("--- Line " + lineNumber + ": " + (error == null ? "OK" : "FAILED") + " in " + wallMillis + " ms ---");
+				System.out.print(new String(output.toByteArray()));
+			}
+		}
+	}
+}
@@ -0,0 +1,234 @@
+package biblemulticonverter.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import biblemulticonverter.ConsoleCapture;
+import biblemulticonverter.Main;
+
+public class ConversionServer implements Tool {
+
+	public static final String[] HELP_TEXT = {
+			"Usage: ConversionServer <port> [<threads> [<queueSize>]]",
+			"",
+			"Run a conversion server on the given port of the loopback interface, to avoid JVM startup",
+			"costs for every conversion. At most <threads> (default: number of processors) conversions",
+			"run at the same time, and at most <queueSize> (default: 100) further conversions wait.",
+			"",
+			"POST /convert: Run a conversion. The request body contains the command line arguments",
+			"(<ImportFormat> <ImportFile> <ExportFormat> [<ExportArgs>...] [-- <ExportFormat> [<ExportArgs>...]]...),",
+			"one per line; a line -- separates several exports, as on the command line. File names",
+			"are resolved on the server. The response contains the console output of the conversion.",
+			"Status 400 means unsupported formats, 500 a failed conversion and 503 a full queue.",
+			"",
+			"GET /status: Show number of requests and latency percentiles of the last conversions.",
+			"",
+			"As conversions can read and write any file the server can access, every /convert request",
+			"needs a header X-Conversion-Token with the token from system property",
+			"biblemulticonverter.server.token. If the property is unset, a random token is created",
+			"and printed on startup. Requests without the correct token get status 403."
+	};
+
+	private static final int LATENCY_WINDOW = 1000;
+
+	private final long startTime = System.currentTimeMillis();
+	private final long[] latencies = new long[LATENCY_WINDOW];
+	private int latencyCount = 0;
+	private int succeeded = 0, failed = 0, rejected = 0;
+	private ThreadPoolExecutor executor;
+	private byte[] token;
+
+	@Override
+	public void run(String... args) throws Exception {
+		Main.discoverModules();
+		int port = Integer.parseInt(args[0]);
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		int queueSize = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+		String configuredToken = System.getProperty("biblemulticonverter.server.token");
+		String tokenString = configuredToken != null ? configuredToken : createRandomToken();
+		token = tokenString.getBytes(StandardCharsets.UTF_8);
+		executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueSize));
+		// every running or queued conversion blocks one handler thread; the
+		// spare ones answer /status and reject further conversions. When all
+		// are busy, the dispatcher thread handles the request itself and
+		// stops accepting new connections meanwhile.
+		int handlerThreads = threads + queueSize + 2;
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.setExecutor(new ThreadPoolExecutor(handlerThreads, handlerThreads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(handlerThreads), new ThreadPoolExecutor.CallerRunsPolicy()));
+		server.createContext("/convert", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					handleConvert(exchange);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		server.createContext("/status", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					sendResponse(exchange, 200, getStatus());
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		server.start();
+		System.out.println("Conversion server listening on " + server.getAddress());
+		if (configuredToken == null)
+			System.out.println("Conversion token: " + tokenString);
+	}
+
+	private static String createRandomToken() {
+		byte[] bytes = new byte[16];
+		new SecureRandom().nextBytes(bytes);
+		StringBuilder sb = new StringBuilder();
+		for (byte b : bytes) {
+			sb.append(String.format("%02x", b & 0xFF));
+		}
+		return sb.toString();
+	}
+
+	private void handleConvert(HttpExchange exchange) throws IOException {
+		if (!exchange.getRequestMethod().equals("POST")) {
+			sendResponse(exchange, 405, "Only POST is supported.\n");
+			return;
+		}
+		String requestToken = exchange.getRequestHeaders().getFirst("X-Conversion-Token");
+		if (requestToken == null || !MessageDigest.isEqual(token, requestToken.getBytes(StandardCharsets.UTF_8))) {
+			sendResponse(exchange, 403, "Missing or wrong X-Conversion-Token header.\n");
+			return;
+		}
+		final long start = System.nanoTime();
+		final String[] args = readArguments(exchange);
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		Future<Boolean> result;
+		try {
+			result = executor.submit(new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws Exception {
+					OutputStream previousCapture = ConsoleCapture.start(output);
+					try {
+						return Main.runConversion(args);
+					} finally {
+						ConsoleCapture.stop(previousCapture);
+					}
+				}
+			});
+		} catch (RejectedExecutionException ex) {
+			synchronized (this) {
+				rejected++;
+			}
+			sendResponse(exchange, 503, "Too many queued conversions.\n");
+			return;
+		}
+		int status;
+		boolean interrupted = false;
+		try {
+			status = result.get() ? 200 : 400;
+		} catch (InterruptedException ex) {
+			result.cancel(true);
+			interrupted = true;
+			output.write("Interrupted while waiting for the conversion.\n".getBytes(StandardCharsets.UTF_8));
+			status = 500;
+		} catch (ExecutionException ex) {
+			ex.getCause().printStackTrace(new PrintStream(output, true));
+			status = 500;
+		}
+		recordLatency(System.nanoTime() - start, status == 200);
+		if (status == 400)
+			output.write(("Unsupported arguments: " + Arrays.toString(args) + "\n").getBytes(StandardCharsets.UTF_8));
+		try {
+			sendResponse(exchange, status, output.toByteArray());
+		} finally {
+			// restore the flag only after responding, as writing to an
+			// interruptible channel with the flag set closes the channel
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	private synchronized void recordLatency(long nanos, boolean success) {
+		if (success)
+			succeeded++;
+		else
+			failed++;
+		latencies[latencyCount % LATENCY_WINDOW] = nanos / 1000000;
+		latencyCount++;
+	}
+
+	private synchronized String getStatus() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("uptimeSeconds: " + (System.currentTimeMillis() - startTime) / 1000 + "\n");
+		sb.append("succeeded: " + succeeded + "\n");
+		sb.append("failed: " + failed + "\n");
+		sb.append("rejected: " + rejected + "\n");
+		sb.append("active: " + executor.getActiveCount() + "\n");
+		sb.append("queued: " + executor.getQueue().size() + "\n");
+		long[] window = Arrays.copyOf(latencies, Math.min(latencyCount, LATENCY_WINDOW));
+		Arrays.sort(window);
+		if (window.length > 0) {
+			sb.append("latencyWindow: " + window.length + "\n");
+			for (int percentile : Arrays.asList(50, 90, 95, 99)) {
+				sb.append("latencyP" + percentile + "Millis: " + window[(window.length - 1) * percentile / 100] + "\n");
+			}
+			sb.append("latencyMaxMillis: " + window[window.length - 1] + "\n");
+		}
+		return sb.toString();
+	}
+
+	private static String[] readArguments(HttpExchange exchange) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		try (InputStream in = exchange.getRequestBody()) {
+			int len;
+			while ((len = in.read(buffer)) != -1) {
+				baos.write(buffer, 0, len);
+			}
+		}
+		List<String> args = new ArrayList<String>();
+		for (String line : new String(baos.toByteArray(), StandardCharsets.UTF_8).split("\r?\n")) {
+			if (!line.isEmpty())
+				args.add(line);
+		}
+		return args.toArray(new String[args.size()]);
+	}
+
+	private static void sendResponse(HttpExchange exchange, int status, String body) throws IOException {
+		sendResponse(exchange, status, body.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static void sendResponse(HttpExchange exchange, int status, byte[] body) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+		exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+		if (body.length > 0) {
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		}
+	}
+}
@@ -30,8 +30,8 @@ public class Validate implements ExportFormat {
 	public static final String[] HELP_TEXT = {
 			"Validate bible for inconsistencies",
 			"",
-			"Usage: Validate [PrintSpecialVerseSummary|PrintHeadlines]",
-			"       Validate IncludeExternalRefs [<ref> [...]]",
+			"Usage: Validate [Parallel[=<threads>]] [PrintSpecialVerseSummary|PrintHeadlines]",
+			"       Validate [Parallel[=<threads>]] IncludeExternalRefs [<ref> [...]]",
 			"",
 			"Use this module to find inconsistencies, or XREFs that refer to nonexistant verses.",
 			"With an extra argument 'PrintSpecialVerseSummary', additionally print a summary of special",
@@ -43,11 +43,32 @@ public class Validate implements ExportFormat {
 			"another bible, or 'S<StrongEntryList>' to validate Strongs against an entry list file,",
 			"'L<DictName>=<DictEntryList>' to validate dictionary references for a given dictionary, or",
 			"'L<DicName>' to validate dictionary references for itself, or last but not least",
-			"'X<ExportEntryList>' to export the entries of currently validated dictionary."
+			"'X<ExportEntryList>' to export the entries of currently validated dictionary.",
+			"With a leading argument 'Parallel', books and chapters are validated concurrently, using",
+			"as many threads as there are processors, or the given number of threads."
 	};
 
 	@Override
 	public void doExport(Bible bible, String... exportArgs) throws Exception {
+		int parallelism = 1;
+		if (exportArgs.length > 0 && (exportArgs[0].equals("Parallel") || exportArgs[0].startsWith("Parallel="))) {
+			if (exportArgs[0].contains("=")) {
+				String threads = exportArgs[0].substring(exportArgs[0].indexOf('=') + 1);
+				try {
+					parallelism = Integer.parseInt(threads);
+				} catch (NumberFormatException ex) {
+					parallelism = 0;
+				}
+				if (parallelism < 1) {
+					System.out.println("Invalid number of threads: " + threads);
+					System.out.println(HELP_TEXT[2]);
+					System.out.println(HELP_TEXT[3]);
+					return;
+				}
+			} else
+				parallelism = Runtime.getRuntime().availableProcessors();
+			exportArgs = Arrays.copyOfRange(exportArgs, 1, exportArgs.length);
+		}
 		Map<String, Set<String>> dictionaryEntries = null;
 		if (exportArgs.length > 0 && exportArgs[0].equals("IncludeExternalRefs")) {
 			dictionaryEntries = new HashMap<String, Set<String>>();
@@ -127,7 +148,7 @@ public class Validate implements ExportFormat {
 			exportArgs = new String[0];
 		}
 		List<String> danglingReferences = new ArrayList<>();
-		bible.validate(danglingReferences, dictionaryEntries);
+		bible.validate(danglingReferences, dictionaryEntries, parallelism);
 		if (danglingReferences.size() > 0) {
 			System.out.println("Dangling references: ");
 			for (String reference : danglingReferences) {
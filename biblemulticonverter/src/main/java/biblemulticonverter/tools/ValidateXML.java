@@ -3,17 +3,31 @@ package biblemulticonverter.tools;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.util.Enumeration;
 
 import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
 import javax.xml.validation.Validator;
+import javax.xml.validation.ValidatorHandler;
 
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
 import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.NamespaceSupport;
+import org.xml.sax.helpers.XMLFilterImpl;
 
+import biblemulticonverter.format.XMLCache;
 import biblemulticonverter.schema.roundtripxml.ObjectFactory;
 
 public class ValidateXML implements Tool {
@@ -43,15 +57,14 @@ public class ValidateXML implements Tool {
 		} else {
 			schemaResourceName = null;
 		}
-		URL schemaURL;
+		Schema schema;
 		if (schemaResourceName != null) {
-			schemaURL = ObjectFactory.class.getResource(schemaResourceName);
+			schema = XMLCache.getSchema(ObjectFactory.class.getResource(schemaResourceName));
 		} else if (new File(args[0]).exists()) {
-			schemaURL = new File(args[0]).toURI().toURL();
+			schema = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(new File(args[0]));
 		} else {
-			schemaURL = new URL(args[0]);
+			schema = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(new URL(args[0]));
 		}
-		Schema schema = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(schemaURL);
 
 		for (int i = 1; i < args.length; i++) {
 			System.out.print(args[i] + ": ");
@@ -63,43 +76,242 @@ public class ValidateXML implements Tool {
 		validateFile(schema, file, "WARNING: Schema validation failed: ", null, "WARNING: Parsing anyway after validation errors");
 	}
 
+	/**
+	 * Parse a file with a SAX parser, passing all events to the given handler
+	 * (and to its {@link LexicalHandler} interface, if implemented), and
+	 * validate it against the schema in the same pass. Validation errors are
+	 * printed like in {@link #validateFileBeforeParsing(Schema, File)}, but do
+	 * not stop the parsing. Namespaces are resolved by a filter instead of the
+	 * parser, so that files which are not namespace well-formed (like unbound
+	 * prefixes) are reported as validation errors, too, instead of aborting.
+	 */
+	public static void parseAndValidate(Schema schema, File file, ContentHandler handler) throws IOException, SAXException, ParserConfigurationException {
+		parseAndValidate(schema, file, handler, false);
+	}
+
+	/**
+	 * Parse and validate a file like
+	 * {@link #parseAndValidate(Schema, File, ContentHandler)}. In strict mode,
+	 * all validation errors are printed as well, but a {@link SAXException} is
+	 * thrown after parsing if there were any, so that invalid files are
+	 * rejected.
+	 */
+	public static void parseAndValidate(Schema schema, File file, ContentHandler handler, boolean strict) throws IOException, SAXException, ParserConfigurationException {
+		ErrorPrinter printer = new ErrorPrinter(strict ? "ERROR: Schema validation failed: " : "WARNING: Schema validation failed: ");
+		ValidatorHandler validator = schema.newValidatorHandler();
+		validator.setErrorHandler(printer);
+		SAXParserFactory spf = SAXParserFactory.newInstance();
+		XMLReader reader = spf.newSAXParser().getXMLReader();
+		reader.setErrorHandler(printer);
+		NamespaceResolvingFilter filter = new NamespaceResolvingFilter(printer);
+		filter.setContentHandler(new ValidatingContentHandler(validator, handler));
+		reader.setContentHandler(filter);
+		if (handler instanceof LexicalHandler)
+			reader.setProperty("http://xml.org/sax/properties/lexical-handler", handler);
+		reader.parse(new InputSource(file.toURI().toString()));
+		if (printer.errorCount > 0 && strict)
+			throw new SAXException("Schema validation of " + file + " failed with " + printer.errorCount + " errors");
+		if (printer.errorCount > 0)
+			System.out.println("WARNING: Parsing anyway after validation errors");
+	}
+
 	private static void validateFile(Schema schema, File file, final String errorHeader, String okMessage, String errorFooter) throws IOException {
 		Validator validator = schema.newValidator();
-		final int[] errorCountHolder = new int[1];
-		validator.setErrorHandler(new ErrorHandler() {
+		ErrorPrinter printer = new ErrorPrinter(errorHeader);
+		validator.setErrorHandler(printer);
+		try {
+			validator.validate(new StreamSource(file));
+		} catch (SAXException ex) {
+			// already handled by ValidationHandler
+		}
+		String resultMessage = (printer.errorCount > 0) ? errorFooter : okMessage;
+		if (resultMessage != null)
+			System.out.println(resultMessage);
+	}
 
-			private void printHeader() {
-				if (errorCountHolder[0] == 0 && errorHeader != null) {
-					System.out.println(errorHeader);
-				}
-				errorCountHolder[0]++;
+	private static class ErrorPrinter implements ErrorHandler {
+
+		private final String errorHeader;
+		private int errorCount = 0;
+
+		private ErrorPrinter(String errorHeader) {
+			this.errorHeader = errorHeader;
+		}
+
+		private void printHeader() {
+			if (errorCount == 0 && errorHeader != null) {
+				System.out.println(errorHeader);
 			}
+			errorCount++;
+		}
+
+		@Override
+		public void warning(SAXParseException exception) throws SAXException {
+			printHeader();
+			System.out.println("\t[Warning] " + exception.toString());
+		}
+
+		@Override
+		public void fatalError(SAXParseException exception) throws SAXException {
+			printHeader();
+			System.out.println("\t[Fatal Error] " + exception.toString());
+		}
+
+		@Override
+		public void error(SAXParseException exception) throws SAXException {
+			printHeader();
+			System.out.println("\t[Error] " + exception.toString());
+		}
+	}
+
+	/**
+	 * Filter that turns the events of a parser that is not namespace aware
+	 * into namespace aware events (without <code>xmlns</code> attributes).
+	 * Unbound prefixes are reported as errors and resolved to no namespace.
+	 */
+	private static class NamespaceResolvingFilter extends XMLFilterImpl {
 
-			@Override
-			public void warning(SAXParseException exception) throws SAXException {
-				printHeader();
-				System.out.println("\t[Warning] " + exception.toString());
+		private final ErrorHandler errorHandler;
+		private final NamespaceSupport namespaces = new NamespaceSupport();
+		private final String[] nameParts = new String[3];
+		private Locator locator;
+
+		private NamespaceResolvingFilter(ErrorHandler errorHandler) {
+			this.errorHandler = errorHandler;
+		}
+
+		@Override
+		public void setDocumentLocator(Locator locator) {
+			this.locator = locator;
+			super.setDocumentLocator(locator);
+		}
+
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+			namespaces.pushContext();
+			AttributesImpl resolvedAtts = new AttributesImpl();
+			for (int i = 0; i < atts.getLength(); i++) {
+				String attName = atts.getQName(i);
+				if (attName.equals("xmlns") || attName.startsWith("xmlns:")) {
+					String prefix = attName.equals("xmlns") ? "" : attName.substring(6);
+					if (!namespaces.declarePrefix(prefix, atts.getValue(i))) {
+						errorHandler.error(new SAXParseException("The prefix \"" + prefix + "\" cannot be bound to namespace \"" + atts.getValue(i) + "\".", locator));
+						continue;
+					}
+					super.startPrefixMapping(prefix, atts.getValue(i));
+				}
 			}
+			for (int i = 0; i < atts.getLength(); i++) {
+				String attName = atts.getQName(i);
+				if (attName.equals("xmlns") || attName.startsWith("xmlns:"))
+					continue;
+				resolveName(attName, true, "attribute");
+				resolvedAtts.addAttribute(nameParts[0], nameParts[1], attName, atts.getType(i), atts.getValue(i));
+			}
+			resolveName(qName, false, "element");
+			super.startElement(nameParts[0], nameParts[1], qName, resolvedAtts);
+		}
 
-			@Override
-			public void fatalError(SAXParseException exception) throws SAXException {
-				printHeader();
-				System.out.println("\t[Fatal Error] " + exception.toString());
+		@Override
+		public void endElement(String uri, String localName, String qName) throws SAXException {
+			String[] parts = namespaces.processName(qName, nameParts, false);
+			if (parts == null)
+				super.endElement("", qName.substring(qName.indexOf(':') + 1), qName);
+			else
+				super.endElement(parts[0], parts[1], qName);
+			for (Enumeration<?> prefixes = namespaces.getDeclaredPrefixes(); prefixes.hasMoreElements();) {
+				super.endPrefixMapping((String) prefixes.nextElement());
 			}
+			namespaces.popContext();
+		}
 
-			@Override
-			public void error(SAXParseException exception) throws SAXException {
-				printHeader();
-				System.out.println("\t[Error] " + exception.toString());
+		private void resolveName(String qName, boolean isAttribute, String kind) throws SAXException {
+			if (namespaces.processName(qName, nameParts, isAttribute) == null) {
+				errorHandler.error(new SAXParseException("The prefix of " + kind + " \"" + qName + "\" is not bound.", locator));
+				nameParts[0] = "";
+				nameParts[1] = qName.substring(qName.indexOf(':') + 1);
 			}
-		});
-		try {
-			validator.validate(new StreamSource(file));
-		} catch (SAXException ex) {
-			// already handled by ValidationHandler
 		}
-		String resultMessage = (errorCountHolder[0] > 0) ? errorFooter : okMessage;
-		if (resultMessage != null)
-			System.out.println(resultMessage);
+	}
+
+	/**
+	 * Content handler that passes all events both to a validator and to the
+	 * actual handler.
+	 */
+	private static class ValidatingContentHandler implements ContentHandler {
+
+		private final ValidatorHandler validator;
+		private final ContentHandler handler;
+
+		private ValidatingContentHandler(ValidatorHandler validator, ContentHandler handler) {
+			this.validator = validator;
+			this.handler = handler;
+		}
+
+		@Override
+		public void setDocumentLocator(Locator locator) {
+			validator.setDocumentLocator(locator);
+			handler.setDocumentLocator(locator);
+		}
+
+		@Override
+		public void startDocument() throws SAXException {
+			validator.startDocument();
+			handler.startDocument();
+		}
+
+		@Override
+		public void endDocument() throws SAXException {
+			validator.endDocument();
+			handler.endDocument();
+		}
+
+		@Override
+		public void startPrefixMapping(String prefix, String uri) throws SAXException {
+			validator.startPrefixMapping(prefix, uri);
+			handler.startPrefixMapping(prefix, uri);
+		}
+
+		@Override
+		public void endPrefixMapping(String prefix) throws SAXException {
+			validator.endPrefixMapping(prefix);
+			handler.endPrefixMapping(prefix);
+		}
+
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+			validator.startElement(uri, localName, qName, atts);
+			handler.startElement(uri, localName, qName, atts);
+		}
+
+		@Override
+		public void endElement(String uri, String localName, String qName) throws SAXException {
+			validator.endElement(uri, localName, qName);
+			handler.endElement(uri, localName, qName);
+		}
+
+		@Override
+		public void characters(char[] ch, int start, int length) throws SAXException {
+			validator.characters(ch, start, length);
+			handler.characters(ch, start, length);
+		}
+
+		@Override
+		public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+			validator.ignorableWhitespace(ch, start, length);
+			handler.ignorableWhitespace(ch, start, length);
+		}
+
+		@Override
+		public void processingInstruction(String target, String data) throws SAXException {
+			validator.processingInstruction(target, data);
+			handler.processingInstruction(target, data);
+		}
+
+		@Override
+		public void skippedEntity(String name) throws SAXException {
+			validator.skippedEntity(name);
+			handler.skippedEntity(name);
+		}
 	}
 }
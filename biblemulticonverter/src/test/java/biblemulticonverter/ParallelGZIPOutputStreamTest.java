@@ -0,0 +1,93 @@
+package biblemulticonverter;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link ParallelGZIPOutputStream} writes gzip data that
+ * {@link GZIPInputStream} can read back, for lengths around the block size.
+ */
+public class ParallelGZIPOutputStreamTest {
+
+	private static final int BLOCK_SIZE = 128 * 1024;
+	private static final int[] LENGTHS = { 0, 1, 1000, BLOCK_SIZE - 1, BLOCK_SIZE, BLOCK_SIZE + 1, 2 * BLOCK_SIZE, 3 * BLOCK_SIZE + 12345 };
+
+	@Test
+	public void testRoundtripRandomData() throws IOException {
+		Random random = new Random(42);
+		for (int length : LENGTHS) {
+			byte[] data = new byte[length];
+			random.nextBytes(data);
+			checkRoundtrip(data);
+		}
+	}
+
+	@Test
+	public void testRoundtripRepetitiveData() throws IOException {
+		// matches across block boundaries use the dictionary of the previous
+		// block
+		byte[] pattern = "In the beginning God created the heaven and the earth.\n".getBytes("UTF-8");
+		for (int length : LENGTHS) {
+			byte[] data = new byte[length];
+			for (int i = 0; i < length; i++) {
+				data[i] = pattern[i % pattern.length];
+			}
+			checkRoundtrip(data);
+		}
+	}
+
+	@Test
+	public void testSingleByteWrites() throws IOException {
+		byte[] data = new byte[BLOCK_SIZE + 100];
+		new Random(1).nextBytes(data);
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		try (ParallelGZIPOutputStream out = new ParallelGZIPOutputStream(compressed, 2)) {
+			for (byte b : data) {
+				out.write(b);
+			}
+		}
+		assertArrayEquals(data, decompress(compressed.toByteArray()));
+	}
+
+	private static void checkRoundtrip(byte[] data) throws IOException {
+		byte[] sequential = compress(data, 1);
+		assertArrayEquals("length " + data.length, data, decompress(sequential));
+		byte[] parallel = compress(data, 4);
+		assertArrayEquals("length " + data.length + " (parallel)", data, decompress(parallel));
+		assertArrayEquals("length " + data.length + " (same output)", sequential, parallel);
+	}
+
+	private static byte[] compress(byte[] data, int threads) throws IOException {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		try (ParallelGZIPOutputStream out = new ParallelGZIPOutputStream(compressed, threads)) {
+			// write in chunks that do not align with the blocks
+			int pos = 0;
+			while (pos < data.length) {
+				int count = Math.min(10000, data.length - pos);
+				out.write(data, pos, count);
+				pos += count;
+			}
+		}
+		return compressed.toByteArray();
+	}
+
+	private static byte[] decompress(byte[] compressed) throws IOException {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+			byte[] buffer = new byte[4096];
+			int count;
+			while ((count = in.read(buffer)) != -1) {
+				result.write(buffer, 0, count);
+			}
+		}
+		return result.toByteArray();
+	}
+}
@@ -0,0 +1,43 @@
+package biblemulticonverter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import biblemulticonverter.data.Bible;
+import biblemulticonverter.format.Diffable;
+
+/**
+ * Access to the bible used by the tests. It is stored in Diffable format and
+ * uses every kind of formatted text element.
+ */
+public class TestBibles {
+
+	public static final String TEST_BIBLE = "/biblemulticonverter/testbible.txt";
+
+	/**
+	 * Copy the test bible into the given file.
+	 */
+	public static void copyTo(File file) throws IOException {
+		try (InputStream in = TestBibles.class.getResourceAsStream(TEST_BIBLE)) {
+			if (in == null)
+				throw new IOException("Test bible not found: " + TEST_BIBLE);
+			Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Import the test bible.
+	 */
+	public static Bible load() throws Exception {
+		File file = File.createTempFile("testbible", ".txt");
+		try {
+			copyTo(file);
+			return new Diffable().doImport(file);
+		} finally {
+			file.delete();
+		}
+	}
+}
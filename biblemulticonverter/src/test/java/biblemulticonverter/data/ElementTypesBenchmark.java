@@ -0,0 +1,111 @@
+package biblemulticonverter.data;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import biblemulticonverter.data.FormattedText.Visitor;
+import biblemulticonverter.data.FormattedText.VisitorAdapter;
+
+/**
+ * Benchmark for element types of deeply nested footnote and grammar content,
+ * comparing element trees (<code>keeptree</code>) with flattened content that
+ * stores the element type signature.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ElementTypesBenchmark {
+
+	@Param({ "true", "false" })
+	public boolean keepTree;
+
+	@Param({ "2", "6" })
+	public int nesting;
+
+	private FormattedText text;
+
+	@Setup
+	public void setup() {
+		boolean oldValue = FormattedText.setKeepTree(keepTree);
+		try {
+			text = new FormattedText();
+			Visitor<RuntimeException> v = text.getAppendVisitor();
+			for (int i = 0; i < 20; i++) {
+				v.visitText("word ");
+				appendNested(v.visitFootnote(), nesting);
+				appendNested(v.visitGrammarInformation(new int[] { i + 1 }, new String[] { "N-NSM" }, null), nesting);
+			}
+			text.finished();
+		} finally {
+			FormattedText.setKeepTree(oldValue);
+		}
+	}
+
+	private static void appendNested(Visitor<RuntimeException> v, int depth) {
+		v.visitText("nested ");
+		if (depth > 1) {
+			appendNested(v.visitFormattingInstruction(FormattedText.FormattingInstructionKind.ITALIC), depth - 1);
+			appendNested(v.visitGrammarInformation(new int[] { depth }, null, null), depth - 1);
+		}
+	}
+
+	@Benchmark
+	public String getElementTypesUnlimited() {
+		return text.getElementTypes(Integer.MAX_VALUE);
+	}
+
+	@Benchmark
+	public String getElementTypesTopLevel() {
+		return text.getElementTypes(1);
+	}
+
+	/**
+	 * Visit the text with a visitor that asks for the element types of every
+	 * nested element, like validating or exporting visitors do.
+	 */
+	@Benchmark
+	public void acceptRequestingElementTypes(Blackhole blackhole) {
+		text.accept(new TypeRequestingVisitor(blackhole));
+	}
+
+	private static class TypeRequestingVisitor extends VisitorAdapter<RuntimeException> {
+
+		private final Blackhole blackhole;
+		private boolean requested = false;
+
+		private TypeRequestingVisitor(Blackhole blackhole) {
+			super(null);
+			this.blackhole = blackhole;
+		}
+
+		@Override
+		public int visitElementTypes(String elementTypes) {
+			if (requested) {
+				blackhole.consume(elementTypes);
+				return 0;
+			}
+			requested = true;
+			return Integer.MAX_VALUE;
+		}
+
+		@Override
+		protected Visitor<RuntimeException> wrapChildVisitor(Visitor<RuntimeException> childVisitor) {
+			return new TypeRequestingVisitor(blackhole);
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package biblemulticonverter.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import biblemulticonverter.TestBibles;
+import biblemulticonverter.data.FormattedText.ExtraAttributePriority;
+import biblemulticonverter.data.FormattedText.FormattingInstructionKind;
+import biblemulticonverter.data.FormattedText.Headline;
+import biblemulticonverter.data.FormattedText.LineBreakKind;
+import biblemulticonverter.data.FormattedText.RawHTMLMode;
+import biblemulticonverter.data.FormattedText.Visitor;
+
+/**
+ * Checks that flattened content replays exactly what was stored in the element
+ * tree.
+ */
+public class FlattenedContentTest {
+
+	private static final int[] DEPTHS = { 0, 1, 2, 3, 5, Integer.MAX_VALUE };
+
+	@Test
+	public void testReplayMatchesTree() throws Exception {
+		Bible tree = loadBible(true);
+		Bible flattened = loadBible(false);
+		assertEquals(tree.getBooks().size(), flattened.getBooks().size());
+		for (int i = 0; i < tree.getBooks().size(); i++) {
+			Book treeBook = tree.getBooks().get(i);
+			Book flattenedBook = flattened.getBooks().get(i);
+			assertEquals(treeBook.getChapters().size(), flattenedBook.getChapters().size());
+			for (int j = 0; j < treeBook.getChapters().size(); j++) {
+				Chapter treeChapter = treeBook.getChapters().get(j);
+				Chapter flattenedChapter = flattenedBook.getChapters().get(j);
+				String location = treeBook.getAbbr() + " " + (j + 1);
+				if (treeChapter.getProlog() == null) {
+					assertNull(flattenedChapter.getProlog());
+				} else {
+					assertNull(treeChapter.getProlog().getFlattenedContent());
+					assertNotNull(flattenedChapter.getProlog().getFlattenedContent());
+					assertSameContent(location + ":Prolog", treeChapter.getProlog(), flattenedChapter.getProlog());
+				}
+				assertEquals(treeChapter.getVerses().size(), flattenedChapter.getVerses().size());
+				for (int k = 0; k < treeChapter.getVerses().size(); k++) {
+					Verse treeVerse = treeChapter.getVerses().get(k);
+					Verse flattenedVerse = flattenedChapter.getVerses().get(k);
+					assertEquals(treeVerse.getNumber(), flattenedVerse.getNumber());
+					assertSameContent(location + ":" + treeVerse.getNumber(), treeVerse, flattenedVerse);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testAllElements() {
+		FormattedText tree = new FormattedText();
+		appendAllElements(tree.getAppendVisitor());
+		FormattedText flattened = new FormattedText();
+		appendAllElements(flattened.getAppendVisitor());
+		flattened.finished();
+		assertNotNull(flattened.getFlattenedContent());
+		assertSameContent("all elements", tree, flattened);
+	}
+
+	@Test
+	public void testEmptyText() {
+		FormattedText flattened = new FormattedText();
+		flattened.finished();
+		assertSameContent("empty", new FormattedText(), flattened);
+	}
+
+	private static Bible loadBible(boolean keepTree) throws Exception {
+		boolean oldValue = FormattedText.setKeepTree(keepTree);
+		try {
+			return TestBibles.load();
+		} finally {
+			FormattedText.setKeepTree(oldValue);
+		}
+	}
+
+	private static void appendAllElements(Visitor<RuntimeException> v) {
+		v.visitHeadline(1).visitText("Headline");
+		Visitor<RuntimeException> h2 = v.visitHeadline(2);
+		h2.visitText("Nested ");
+		h2.visitFormattingInstruction(FormattingInstructionKind.ITALIC).visitText("headline");
+		v.visitText("Text ");
+		Visitor<RuntimeException> fn = v.visitFootnote();
+		fn.visitText(FormattedText.XREF_MARKER);
+		fn.visitCrossReference("Gen", BookID.BOOK_Gen, 1, "1", 2, "3a").visitText("Gen 1:1-2:3a");
+		fn.visitText(" and ");
+		fn.visitCrossReference("Ps", BookID.BOOK_Ps, 23, "1", 23, "1").visitText("Ps 23:1");
+		Visitor<RuntimeException> css = v.visitCSSFormatting("color: red;");
+		css.visitFormattingInstruction(FormattingInstructionKind.BOLD).visitFormattingInstruction(FormattingInstructionKind.UNDERLINE).visitText("deep");
+		v.visitVerseSeparator();
+		v.visitLineBreak(LineBreakKind.PARAGRAPH);
+		v.visitLineBreak(LineBreakKind.NEWLINE);
+		v.visitGrammarInformation(new int[] { 1, 2 }, new String[] { "N-NSM", "V-PAI-3S" }, new int[] { 1, 2 }).visitText("word");
+		v.visitGrammarInformation(null, new String[] { "CONJ" }, null).visitText("and");
+		v.visitGrammarInformation(new int[] { 3 }, null, null).visitText("more");
+		v.visitDictionaryEntry("dict", "entry-1").visitText("entry");
+		v.visitRawHTML(RawHTMLMode.BOTH, "<b>raw</b>");
+		v.visitRawHTML(RawHTMLMode.ONLINE, "<i>online</i>");
+		v.visitVariationText(new String[] { "v1", "v2" }).visitText("variation");
+		Visitor<RuntimeException> extra = v.visitExtraAttribute(ExtraAttributePriority.KEEP_CONTENT, "cat", "key", "value");
+		extra.visitText("extra ");
+		extra.visitFootnote().visitText("footnote in extra");
+		v.visitHeadline(3).visitText("Inner headline");
+		v.visitText("End");
+	}
+
+	private static void assertSameContent(String location, FormattedText expected, FormattedText actual) {
+		for (int depth : DEPTHS) {
+			assertEquals(location + " at depth " + depth, RecordingVisitor.record(expected, depth, 0), RecordingVisitor.record(actual, depth, 0));
+			assertEquals(location + " element types at depth " + depth, expected.getElementTypes(depth), actual.getElementTypes(depth));
+		}
+		assertEquals(location + " repeated", RecordingVisitor.record(expected, 2, 2), RecordingVisitor.record(actual, 2, 2));
+		List<Headline> expectedHeadlines = expected.getHeadlines(), actualHeadlines = actual.getHeadlines();
+		assertEquals(location + " headlines", expectedHeadlines.size(), actualHeadlines.size());
+		for (int i = 0; i < expectedHeadlines.size(); i++) {
+			assertEquals(location + " headline " + i + " depth", expectedHeadlines.get(i).getDepth(), actualHeadlines.get(i).getDepth());
+			assertEquals(location + " headline " + i, RecordingVisitor.record(expectedHeadlines.get(i), 1, 0), RecordingVisitor.record(actualHeadlines.get(i), 1, 0));
+		}
+		for (boolean includeHeadlines : new boolean[] { false, true }) {
+			for (boolean innerContent : new boolean[] { false, true }) {
+				String message = location + " split " + includeHeadlines + "/" + innerContent;
+				List<FormattedText> expectedParts = expected.splitContent(includeHeadlines, innerContent);
+				List<FormattedText> actualParts = actual.splitContent(includeHeadlines, innerContent);
+				assertEquals(message, expectedParts.size(), actualParts.size());
+				for (int i = 0; i < expectedParts.size(); i++) {
+					assertEquals(message + " part " + i, RecordingVisitor.record(expectedParts.get(i), Integer.MAX_VALUE, 0), RecordingVisitor.record(actualParts.get(i), Integer.MAX_VALUE, 0));
+				}
+			}
+		}
+	}
+}
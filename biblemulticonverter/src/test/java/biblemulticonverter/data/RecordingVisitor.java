@@ -0,0 +1,141 @@
+package biblemulticonverter.data;
+
+import java.util.Arrays;
+
+import biblemulticonverter.data.FormattedText.ExtraAttributePriority;
+import biblemulticonverter.data.FormattedText.FormattingInstructionKind;
+import biblemulticonverter.data.FormattedText.LineBreakKind;
+import biblemulticonverter.data.FormattedText.RawHTMLMode;
+import biblemulticonverter.data.FormattedText.Visitor;
+
+/**
+ * Visitor that records everything it visits (including requested element
+ * types and nested content) into a string, for comparing traversals.
+ */
+public class RecordingVisitor implements Visitor<RuntimeException> {
+
+	private final StringBuilder sb;
+	private final int elementTypesDepth;
+	private int repeatCount;
+	private boolean elementTypesRequested = false;
+
+	public RecordingVisitor(int elementTypesDepth, int repeatCount) {
+		this(new StringBuilder(), elementTypesDepth, repeatCount);
+	}
+
+	private RecordingVisitor(StringBuilder sb, int elementTypesDepth, int repeatCount) {
+		this.sb = sb;
+		this.elementTypesDepth = elementTypesDepth;
+		this.repeatCount = repeatCount;
+	}
+
+	public static String record(FormattedText text, int elementTypesDepth, int repeatCount) {
+		RecordingVisitor visitor = new RecordingVisitor(elementTypesDepth, repeatCount);
+		text.accept(visitor);
+		return visitor.toString();
+	}
+
+	private Visitor<RuntimeException> child(String name) {
+		sb.append(name).append('{');
+		return new RecordingVisitor(sb, elementTypesDepth, repeatCount);
+	}
+
+	@Override
+	public int visitElementTypes(String elementTypes) {
+		if (elementTypesRequested) {
+			sb.append("[types ").append(elementTypes).append(']');
+			elementTypesRequested = false;
+			return 0;
+		}
+		if (elementTypesDepth == 0)
+			return 0;
+		elementTypesRequested = true;
+		return elementTypesDepth;
+	}
+
+	@Override
+	public Visitor<RuntimeException> visitHeadline(int depth) {
+		return child("headline " + depth);
+	}
+
+	@Override
+	public void visitStart() {
+		sb.append("[start]");
+	}
+
+	@Override
+	public void visitText(String text) {
+		sb.append("[text ").append(text).append(']');
+	}
+
+	@Override
+	public Visitor<RuntimeException> visitFootnote() {
+		return child("footnote");
+	}
+
+	@Override
+	public Visitor<RuntimeException> visitCrossReference(String bookAbbr, BookID book, int firstChapter, String firstVerse, int lastChapter, String lastVerse) {
+		return child("xref " + bookAbbr + " " + book + " " + firstChapter + ":" + firstVerse + "-" + lastChapter + ":" + lastVerse);
+	}
+
+	@Override
+	public Visitor<RuntimeException> visitFormattingInstruction(FormattingInstructionKind kind) {
+		return child("formatting " + kind);
+	}
+
+	@Override
+	public Visitor<RuntimeException> visitCSSFormatting(String css) {
+		return child("css " + css);
+	}
+
+	@Override
+	public void visitVerseSeparator() {
+		sb.append("[separator]");
+	}
+
+	@Override
+	public void visitLineBreak(LineBreakKind kind) {
+		sb.append("[linebreak ").append(kind).append(']');
+	}
+
+	@Override
+	public Visitor<RuntimeException> visitGrammarInformation(int[] strongs, String[] rmac, int[] sourceIndices) {
+		return child("grammar " + Arrays.toString(strongs) + " " + Arrays.toString(rmac) + " " + Arrays.toString(sourceIndices));
+	}
+
+	@Override
+	public Visitor<RuntimeException> visitDictionaryEntry(String dictionary, String entry) {
+		return child("dictionary " + dictionary + " " + entry);
+	}
+
+	@Override
+	public void visitRawHTML(RawHTMLMode mode, String raw) {
+		sb.append("[raw ").append(mode).append(' ').append(raw).append(']');
+	}
+
+	@Override
+	public Visitor<RuntimeException> visitVariationText(String[] variations) {
+		return child("variation " + Arrays.toString(variations));
+	}
+
+	@Override
+	public Visitor<RuntimeException> visitExtraAttribute(ExtraAttributePriority prio, String category, String key, String value) {
+		return child("extra " + prio + " " + category + " " + key + " " + value);
+	}
+
+	@Override
+	public boolean visitEnd() {
+		sb.append('}');
+		if (repeatCount > 0) {
+			repeatCount--;
+			sb.append("[repeat]");
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return sb.toString();
+	}
+}
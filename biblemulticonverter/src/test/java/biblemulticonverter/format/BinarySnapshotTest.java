@@ -0,0 +1,153 @@
+package biblemulticonverter.format;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import biblemulticonverter.TestBibles;
+import biblemulticonverter.data.Bible;
+import biblemulticonverter.data.Book;
+import biblemulticonverter.data.Chapter;
+import biblemulticonverter.data.RecordingVisitor;
+import biblemulticonverter.data.Verse;
+
+/**
+ * Checks that bibles survive an export to and import from
+ * {@link BinarySnapshot} unchanged.
+ */
+public class BinarySnapshotTest {
+
+	private File directory, snapshotFile;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("snapshot").toFile();
+		snapshotFile = new File(directory, "bible.bin");
+	}
+
+	@After
+	public void tearDown() {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void testRoundtrip() throws Exception {
+		Bible bible = TestBibles.load();
+		new BinarySnapshot().doExport(bible, snapshotFile.getPath());
+		Bible imported = new BinarySnapshot().doImport(snapshotFile);
+		assertSameBible(bible, imported);
+		assertEquals(toDiffable(bible), toDiffable(imported));
+	}
+
+	@Test
+	public void testStreamingRoundtrip() throws Exception {
+		Bible bible = TestBibles.load();
+		BookSink sink = new BinarySnapshot().createBookSink(snapshotFile.getPath());
+		sink.begin(bible.getName());
+		for (Book book : bible.getBooks()) {
+			sink.book(book);
+		}
+		sink.end();
+		final List<Book> books = new ArrayList<Book>();
+		final String[] name = new String[1];
+		new BinarySnapshot().doImport(snapshotFile, new BookSink() {
+			@Override
+			public void begin(String bibleName) {
+				name[0] = bibleName;
+			}
+
+			@Override
+			public void book(Book book) {
+				books.add(book);
+			}
+
+			@Override
+			public void end() {
+			}
+
+			@Override
+			public void abort(Exception cause) {
+			}
+		});
+		Bible imported = new Bible(name[0]);
+		imported.getBooks().addAll(books);
+		assertSameBible(bible, imported);
+	}
+
+	@Test
+	public void testAbortKeepsPreviousOutput() throws Exception {
+		Bible bible = TestBibles.load();
+		new BinarySnapshot().doExport(bible, snapshotFile.getPath());
+		byte[] previous = Files.readAllBytes(snapshotFile.toPath());
+		BookSink sink = new BinarySnapshot().createBookSink(snapshotFile.getPath());
+		sink.begin("Other Bible");
+		sink.book(bible.getBooks().get(0));
+		sink.abort(new Exception("test"));
+		assertArrayEquals(previous, Files.readAllBytes(snapshotFile.toPath()));
+		assertArrayEquals(new String[] { snapshotFile.getName() }, directory.list());
+	}
+
+	@Test
+	public void testReplaceWhileInUse() throws Exception {
+		// Windows cannot replace files that are mapped
+		assumeFalse(System.getProperty("os.name").startsWith("Windows"));
+		Bible bible = TestBibles.load();
+		new BinarySnapshot().doExport(bible, snapshotFile.getPath());
+		Bible imported = new BinarySnapshot().doImport(snapshotFile);
+		Bible other = TestBibles.load();
+		other.getBooks().remove(0);
+		new BinarySnapshot().doExport(other, snapshotFile.getPath());
+		assertEquals(toDiffable(bible), toDiffable(imported));
+		assertEquals(toDiffable(other), toDiffable(new BinarySnapshot().doImport(snapshotFile)));
+	}
+
+	private static void assertSameBible(Bible expected, Bible actual) {
+		assertEquals(expected.getName(), actual.getName());
+		assertEquals(expected.getBooks().size(), actual.getBooks().size());
+		for (int i = 0; i < expected.getBooks().size(); i++) {
+			Book expectedBook = expected.getBooks().get(i), actualBook = actual.getBooks().get(i);
+			assertEquals(expectedBook.getAbbr(), actualBook.getAbbr());
+			assertEquals(expectedBook.getId(), actualBook.getId());
+			assertEquals(expectedBook.getShortName(), actualBook.getShortName());
+			assertEquals(expectedBook.getLongName(), actualBook.getLongName());
+			assertEquals(expectedBook.getChapters().size(), actualBook.getChapters().size());
+			for (int j = 0; j < expectedBook.getChapters().size(); j++) {
+				Chapter expectedChapter = expectedBook.getChapters().get(j), actualChapter = actualBook.getChapters().get(j);
+				String location = expectedBook.getAbbr() + " " + (j + 1);
+				if (expectedChapter.getProlog() == null)
+					assertEquals(location + ":Prolog", null, actualChapter.getProlog());
+				else
+					assertEquals(location + ":Prolog", RecordingVisitor.record(expectedChapter.getProlog(), Integer.MAX_VALUE, 0), RecordingVisitor.record(actualChapter.getProlog(), Integer.MAX_VALUE, 0));
+				assertEquals(location, expectedChapter.getVerses().size(), actualChapter.getVerses().size());
+				for (int k = 0; k < expectedChapter.getVerses().size(); k++) {
+					Verse expectedVerse = expectedChapter.getVerses().get(k), actualVerse = actualChapter.getVerses().get(k);
+					assertEquals(location, expectedVerse.getNumber(), actualVerse.getNumber());
+					assertEquals(location + ":" + expectedVerse.getNumber(), RecordingVisitor.record(expectedVerse, Integer.MAX_VALUE, 0), RecordingVisitor.record(actualVerse, Integer.MAX_VALUE, 0));
+				}
+			}
+		}
+	}
+
+	private static String toDiffable(Bible bible) throws Exception {
+		StringWriter w = new StringWriter();
+		new Diffable().doExport(bible, w);
+		return w.toString();
+	}
+}
@@ -0,0 +1,82 @@
+package biblemulticonverter.format;
+
+import java.io.BufferedReader;
+import java.io.CharArrayWriter;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import biblemulticonverter.TestBibles;
+import biblemulticonverter.data.Bible;
+import biblemulticonverter.data.Book;
+import biblemulticonverter.data.Chapter;
+
+/**
+ * Benchmark for parsing and writing the {@link Compact} format. The
+ * <code>verses</code> counter shows the number of verses per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompactBenchmark {
+
+	private Bible bible;
+	private String compactText;
+	private int verseCount;
+
+	@Setup
+	public void setup() throws Exception {
+		bible = TestBibles.load();
+		CharArrayWriter w = new CharArrayWriter();
+		new Compact().doExport(bible, w);
+		compactText = w.toString();
+		verseCount = 0;
+		for (Book book : bible.getBooks()) {
+			for (Chapter chapter : book.getChapters()) {
+				verseCount += chapter.getVerses().size();
+			}
+		}
+	}
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class VerseCounter {
+		public long verses;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			verses = 0;
+		}
+	}
+
+	@Benchmark
+	public int exportVerses(VerseCounter counter) throws Exception {
+		CharArrayWriter w = new CharArrayWriter(compactText.length());
+		new Compact().doExport(bible, w);
+		counter.verses += verseCount;
+		return w.size();
+	}
+
+	@Benchmark
+	public Bible importVerses(VerseCounter counter) throws Exception {
+		BufferedReader br = new BufferedReader(new StringReader(compactText));
+		Bible result = new Compact().doImport(br);
+		counter.verses += verseCount;
+		return result;
+	}
+}
@@ -0,0 +1,86 @@
+package biblemulticonverter.format;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import biblemulticonverter.TestBibles;
+import biblemulticonverter.data.Bible;
+import biblemulticonverter.data.Book;
+
+/**
+ * Checks that {@link Compact} writes and parses exactly the same as the
+ * golden file <code>testbible.bmc</code>, which was written from the test
+ * bible by the original, regex based implementation.
+ */
+public class CompactTest {
+
+	private static final String GOLDEN_FILE = "/biblemulticonverter/testbible.bmc";
+
+	private File compactFile;
+
+	@Before
+	public void setUp() throws IOException {
+		compactFile = File.createTempFile("compact", ".bmc");
+	}
+
+	@After
+	public void tearDown() {
+		compactFile.delete();
+	}
+
+	@Test
+	public void testExportMatchesGoldenFile() throws Exception {
+		new Compact().doExport(TestBibles.load(), compactFile.getPath());
+		assertArrayEquals(readGoldenFile(), Files.readAllBytes(compactFile.toPath()));
+	}
+
+	@Test
+	public void testStreamingExportMatchesGoldenFile() throws Exception {
+		Bible bible = TestBibles.load();
+		BookSink sink = new Compact().createBookSink(compactFile.getPath());
+		sink.begin(bible.getName());
+		for (Book book : bible.getBooks()) {
+			sink.book(book);
+		}
+		sink.end();
+		assertArrayEquals(readGoldenFile(), Files.readAllBytes(compactFile.toPath()));
+	}
+
+	@Test
+	public void testImportMatchesTestBible() throws Exception {
+		try (InputStream in = CompactTest.class.getResourceAsStream(GOLDEN_FILE)) {
+			Files.copy(in, compactFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		assertEquals(toDiffable(TestBibles.load()), toDiffable(new Compact().doImport(compactFile)));
+	}
+
+	private static byte[] readGoldenFile() throws IOException {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		try (InputStream in = CompactTest.class.getResourceAsStream(GOLDEN_FILE)) {
+			byte[] buffer = new byte[65536];
+			int count;
+			while ((count = in.read(buffer)) != -1) {
+				result.write(buffer, 0, count);
+			}
+		}
+		return result.toByteArray();
+	}
+
+	private static String toDiffable(Bible bible) throws Exception {
+		StringWriter w = new StringWriter();
+		new Diffable().doExport(bible, w);
+		return w.toString();
+	}
+}
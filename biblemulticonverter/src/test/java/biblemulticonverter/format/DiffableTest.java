@@ -0,0 +1,75 @@
+package biblemulticonverter.format;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import biblemulticonverter.TestBibles;
+import biblemulticonverter.data.Bible;
+
+/**
+ * Checks that importing {@link Diffable} files on several threads gives the
+ * same bible as importing them sequentially.
+ */
+public class DiffableTest {
+
+	private File testFile;
+	private String oldThreads, oldLazy;
+
+	@Before
+	public void setUp() throws IOException {
+		testFile = File.createTempFile("testbible", ".txt");
+		TestBibles.copyTo(testFile);
+		oldThreads = System.getProperty("biblemulticonverter.importthreads");
+		oldLazy = System.getProperty("biblemulticonverter.lazyverses");
+	}
+
+	@After
+	public void tearDown() {
+		setProperty("biblemulticonverter.importthreads", oldThreads);
+		setProperty("biblemulticonverter.lazyverses", oldLazy);
+		testFile.delete();
+	}
+
+	@Test
+	public void testParallelImportMatchesSequential() throws Exception {
+		checkParallelImport();
+	}
+
+	@Test
+	public void testParallelLazyImportMatchesSequential() throws Exception {
+		setProperty("biblemulticonverter.lazyverses", "true");
+		checkParallelImport();
+	}
+
+	private void checkParallelImport() throws Exception {
+		setProperty("biblemulticonverter.importthreads", "1");
+		Bible sequential = new Diffable().doImport(testFile);
+		setProperty("biblemulticonverter.importthreads", "4");
+		Bible parallel = new Diffable().doImport(testFile);
+		assertTrue(sequential.getBooks().size() > 1);
+		assertEquals(sequential.getName(), parallel.getName());
+		assertEquals(sequential.getBooks().size(), parallel.getBooks().size());
+		assertEquals(toDiffable(sequential), toDiffable(parallel));
+	}
+
+	private static String toDiffable(Bible bible) throws Exception {
+		StringWriter w = new StringWriter();
+		new Diffable().doExport(bible, w);
+		return w.toString();
+	}
+
+	private static void setProperty(String name, String value) {
+		if (value == null)
+			System.clearProperty(name);
+		else
+			System.setProperty(name, value);
+	}
+}
@@ -0,0 +1,168 @@
+package biblemulticonverter.format;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import biblemulticonverter.CompressedFiles;
+import biblemulticonverter.TestBibles;
+import biblemulticonverter.data.Bible;
+import biblemulticonverter.data.Book;
+import biblemulticonverter.data.Chapter;
+
+/**
+ * Checks that incremental exports of {@link Diffable} and {@link Compact} are
+ * the same as normal exports, and that unchanged books are copied from the
+ * previous export.
+ */
+public class IncrementalExportTest {
+
+	private File directory;
+	private String oldValue;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("incremental").toFile();
+		oldValue = System.getProperty("biblemulticonverter.incrementalexport");
+	}
+
+	@After
+	public void tearDown() {
+		setIncremental(oldValue);
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void testDiffable() throws Exception {
+		checkIncrementalExport(new Diffable(), "bible.txt");
+	}
+
+	@Test
+	public void testDiffableCompressed() throws Exception {
+		checkIncrementalExport(new Diffable(), "bible.txt.gz");
+	}
+
+	@Test
+	public void testCompact() throws Exception {
+		checkIncrementalExport(new Compact(), "bible.txt");
+	}
+
+	@Test
+	public void testCompactCompressed() throws Exception {
+		checkIncrementalExport(new Compact(), "bible.txt.gz");
+	}
+
+	@Test
+	public void testLazyVerseHashes() throws Exception {
+		String oldLazy = System.getProperty("biblemulticonverter.lazyverses");
+		System.setProperty("biblemulticonverter.lazyverses", "true");
+		try {
+			Bible first = TestBibles.load(), second = TestBibles.load();
+			for (int i = 0; i < first.getBooks().size(); i++) {
+				assertEquals(IncrementalExport.hashBook(first.getBooks().get(i)), IncrementalExport.hashBook(second.getBooks().get(i)));
+			}
+			Book book = changeBook(second);
+			assertNotEquals(IncrementalExport.hashBook(first.getBooks().get(second.getBooks().indexOf(book))), IncrementalExport.hashBook(book));
+		} finally {
+			if (oldLazy == null)
+				System.clearProperty("biblemulticonverter.lazyverses");
+			else
+				System.setProperty("biblemulticonverter.lazyverses", oldLazy);
+		}
+	}
+
+	private void checkIncrementalExport(ExportFormat format, String fileName) throws Exception {
+		Bible bible = TestBibles.load();
+		File plainFile = new File(directory, "plain-" + fileName);
+		File exportFile = new File(directory, fileName);
+		setIncremental(null);
+		format.doExport(bible, plainFile.getPath());
+		setIncremental("true");
+		format.doExport(bible, exportFile.getPath());
+		assertArrayEquals(readContent(plainFile), readContent(exportFile));
+
+		changeBook(bible);
+		setIncremental(null);
+		format.doExport(bible, plainFile.getPath());
+		setIncremental("true");
+		format.doExport(bible, exportFile.getPath());
+		assertArrayEquals(readContent(plainFile), readContent(exportFile));
+
+		if (!fileName.endsWith(".gz")) {
+			// unchanged books are copied from the previous file, so a change
+			// in the previous file that keeps its length and time is kept
+			byte[] tampered = tamperLastBook(exportFile);
+			format.doExport(bible, exportFile.getPath());
+			assertArrayEquals(tampered, readContent(exportFile));
+		}
+	}
+
+	/**
+	 * Remove the last verse from the last chapter of the first book that has
+	 * a chapter with more than one verse, and return that book.
+	 */
+	private static Book changeBook(Bible bible) {
+		for (Book book : bible.getBooks()) {
+			for (Chapter chapter : book.getChapters()) {
+				if (chapter.getVerses().size() > 1) {
+					chapter.getVerses().remove(chapter.getVerses().size() - 1);
+					return book;
+				}
+			}
+		}
+		throw new IllegalStateException("No book to change");
+	}
+
+	/**
+	 * Change the last character of an uncompressed export file, keeping its
+	 * length and modification time, and return the changed content.
+	 */
+	private static byte[] tamperLastBook(File file) throws IOException {
+		long lastModified = file.lastModified();
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			long position = raf.length() - 2;
+			raf.seek(position);
+			int b = raf.read();
+			raf.seek(position);
+			raf.write(b == 'X' ? 'Y' : 'X');
+		}
+		file.setLastModified(lastModified);
+		return readContent(file);
+	}
+
+	private static byte[] readContent(File file) throws IOException {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		try (InputStream in = CompressedFiles.openInput(file)) {
+			byte[] buffer = new byte[65536];
+			int count;
+			while ((count = in.read(buffer)) != -1) {
+				result.write(buffer, 0, count);
+			}
+		}
+		return result.toByteArray();
+	}
+
+	private static void setIncremental(String value) {
+		if (value == null)
+			System.clearProperty("biblemulticonverter.incrementalexport");
+		else
+			System.setProperty("biblemulticonverter.incrementalexport", value);
+	}
+}
@@ -0,0 +1,102 @@
+package biblemulticonverter.format;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import biblemulticonverter.TestBibles;
+import biblemulticonverter.data.Bible;
+
+/**
+ * Checks that exports rendered by {@link ParallelBookRenderer} on several
+ * threads are byte-identical to exports rendered on a single thread.
+ */
+public class ParallelBookRendererTest {
+
+	private File directory;
+	private String oldValue;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("parallel").toFile();
+		oldValue = System.getProperty("biblemulticonverter.renderthreads");
+	}
+
+	@After
+	public void tearDown() {
+		setRenderThreads(oldValue);
+		delete(directory);
+	}
+
+	@Test
+	public void testDiffable() throws Exception {
+		checkParallelExport(new Diffable(), "bible.txt");
+	}
+
+	@Test
+	public void testCompact() throws Exception {
+		checkParallelExport(new Compact(), "bible.txt");
+	}
+
+	@Test
+	public void testTheWord() throws Exception {
+		checkParallelExport(new TheWord(), "bible");
+	}
+
+	@Test
+	public void testAccordance() throws Exception {
+		// Accordance does not support variations
+		File selected = new File(directory, "selected.txt");
+		new StrippedDiffable().doExport(TestBibles.load(), selected.getPath(), "SelectVariation", "v1");
+		checkParallelExport(new Accordance(), new Diffable().doImport(selected), "bible");
+	}
+
+	private void checkParallelExport(ExportFormat format, String fileName) throws Exception {
+		checkParallelExport(format, TestBibles.load(), fileName);
+	}
+
+	private void checkParallelExport(ExportFormat format, Bible bible, String fileName) throws Exception {
+		File sequential = new File(directory, "sequential"), parallel = new File(directory, "parallel");
+		sequential.mkdir();
+		parallel.mkdir();
+		setRenderThreads("1");
+		format.doExport(bible, new File(sequential, fileName).getPath());
+		setRenderThreads("4");
+		format.doExport(bible, new File(parallel, fileName).getPath());
+		String[] names = sequential.list(), parallelNames = parallel.list();
+		Arrays.sort(names);
+		Arrays.sort(parallelNames);
+		assertTrue(names.length > 0);
+		assertArrayEquals(names, parallelNames);
+		for (String name : names) {
+			byte[] expected = Files.readAllBytes(new File(sequential, name).toPath());
+			assertTrue(name, expected.length > 0);
+			assertArrayEquals(name, expected, Files.readAllBytes(new File(parallel, name).toPath()));
+		}
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	private static void setRenderThreads(String value) {
+		if (value == null)
+			System.clearProperty("biblemulticonverter.renderthreads");
+		else
+			System.setProperty("biblemulticonverter.renderthreads", value);
+	}
+}